@@ -0,0 +1,224 @@
+package com.wtgroup.sugar.db;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 祖先/子孙查询索引, 见 {@link TreeTableHandler#ancestry()}
+ * <p>
+ * 按 {@link TreeTableHandler#toTree()} 的顺序先序遍历一遍, 每个节点记进入序号 enter 和子树结束序号 exit(不含),
+ * 即嵌套集合(nested set)的区间: 子孙的序号都落在 [enter + 1, exit) 里, 先序数组 order 的这一段就是整个子树.
+ * 所以 "X 是否在 Y 之下" 是 O(1) 的两次比较, 列出子孙是 O(1) 取一段, 到根的路径沿 parent 数组走 O(深度).
+ * <p>
+ * 建一次 O(n), 只用几个 int 数组. 树增量修改后作废, 下次 {@link TreeTableHandler#ancestry()} 时重建.
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public final class AncestorIndex<T, ID> {
+
+    private final TreeIndex<T, ID> index;
+    /**
+     * 节点的先序序号, 从根走不到的(删掉的)为 -1
+     */
+    private final int[] enter;
+    /**
+     * 子树结束序号, 不含
+     */
+    private final int[] exit;
+    private final int[] depth;
+    /**
+     * 先序序号 -&gt; 节点号
+     */
+    private final int[] order;
+
+    AncestorIndex(TreeIndex<T, ID> index) {
+        this.index = index;
+        int n = index.size;
+        int[] enter = new int[n];
+        int[] exit = new int[n];
+        int[] depth = new int[n];
+        int[] order = new int[n];
+        Arrays.fill(enter, -1);
+        int[] nodes = new int[64];
+        int[] cursors = new int[64];
+        int pos = 0;
+        for (int t = 0; t < index.topCount; t++) {
+            int top = index.tops[t];
+            if (index.parent[top] != TreeIndex.NONE || !index.alive(top) || enter[top] >= 0) {
+                continue;
+            }
+            int d = 0;
+            nodes[0] = top;
+            cursors[0] = index.firstChild[top];
+            enter[top] = pos;
+            order[pos++] = top;
+            d++;
+            while (d > 0) {
+                int f = d - 1;
+                int c = cursors[f];
+                if (c != TreeIndex.NONE) {
+                    cursors[f] = index.nextSibling[c];
+                    if (d == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, d << 1);
+                        cursors = Arrays.copyOf(cursors, d << 1);
+                    }
+                    nodes[d] = c;
+                    cursors[d] = index.firstChild[c];
+                    enter[c] = pos;
+                    depth[c] = d;
+                    order[pos++] = c;
+                    d++;
+                    continue;
+                }
+                exit[nodes[f]] = pos;
+                d--;
+            }
+        }
+        // 从根走不到的, 只能在环上或环下
+        for (int t = 0; t < index.topCount; t++) {
+            int top = index.tops[t];
+            if (index.alive(top) && enter[top] < 0) {
+                throw new RuntimeException("出现循环引用: " + this.cycle(top));
+            }
+        }
+        this.enter = enter;
+        this.exit = exit;
+        this.depth = depth;
+        this.order = pos == n ? order : Arrays.copyOf(order, pos);
+    }
+
+    /**
+     * 沿 parent 往上, 直到重复, 得到环
+     */
+    private List<ID> cycle(int node) {
+        boolean[] seen = new boolean[index.size];
+        int x = node;
+        while (!seen[x]) {
+            seen[x] = true;
+            x = index.parent[x];
+        }
+        List<ID> cycle = new ArrayList<>();
+        int start = x;
+        do {
+            cycle.add(index.id(x));
+            x = index.parent[x];
+        } while (x != start);
+        cycle.add(index.id(start));
+        return cycle;
+    }
+
+    /**
+     * 先序的节点号, 不要改
+     */
+    int[] preorder() {
+        return order;
+    }
+
+    /**
+     * @return 节点号, 不存在时 -1
+     */
+    private int node(ID id) {
+        int node = id == null ? -1 : index.index.get(id);
+        return node >= 0 && enter[node] >= 0 ? node : -1;
+    }
+
+    /**
+     * ancestor 是不是 descendant 的祖先(不含自己), O(1)
+     */
+    public boolean isAncestor(ID ancestor, ID descendant) {
+        int a = this.node(ancestor);
+        int x = this.node(descendant);
+        return a >= 0 && x >= 0 && enter[a] < enter[x] && enter[x] < exit[a];
+    }
+
+    /**
+     * 层级, 根为 0; 不存在时 -1
+     */
+    public int depth(ID id) {
+        int node = this.node(id);
+        return node < 0 ? -1 : depth[node];
+    }
+
+    /**
+     * 子树节点数, 含自己; 不存在时 0
+     */
+    public int subtreeSize(ID id) {
+        int node = this.node(id);
+        return node < 0 ? 0 : exit[node] - enter[node];
+    }
+
+    /**
+     * 所有子孙的 id, 先序(同 toTree 的处理顺序), 不含自己. O(1) 得到只读视图.
+     */
+    public List<ID> descendants(ID id) {
+        int node = this.node(id);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        return new Range<>(this, enter[node] + 1, exit[node], false);
+    }
+
+    /**
+     * 同 {@link #descendants(Object)}, 给出数据行
+     */
+    public List<T> descendantRows(ID id) {
+        int node = this.node(id);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        return new Range<>(this, enter[node] + 1, exit[node], true);
+    }
+
+    /**
+     * 从自己到根的 id, 含两端, O(深度); 不存在时为空
+     */
+    public List<ID> pathToRoot(ID id) {
+        int node = this.node(id);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        List<ID> path = new ArrayList<>(depth[node] + 1);
+        for (int x = node; x != TreeIndex.NONE; x = index.parent[x]) {
+            path.add(index.id(x));
+        }
+        return path;
+    }
+
+    /**
+     * 先序数组的一段 [from, to)
+     */
+    private static final class Range<E> extends AbstractList<E> implements RandomAccess {
+        private final AncestorIndex<?, ?> owner;
+        private final int from;
+        private final int to;
+        private final boolean rows;
+
+        Range(AncestorIndex<?, ?> owner, int from, int to, boolean rows) {
+            this.owner = owner;
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int i) {
+            if (i < 0 || i >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + (to - from));
+            }
+            int node = owner.order[from + i];
+            return (E) (rows ? owner.index.row(node) : owner.index.id(node));
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.wtgroup.sugar.db;
+
+/**
+ * id -&gt; 行号 的开放寻址哈希表, 线性探测
+ * <p>
+ * 键存 Object[], 值存 int[], 不像 HashMap 那样每个键一个 Entry, 一个 Integer.
+ * 删除用后移(backward shift), 不留墓碑, 增量修改树时用.
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+final class IdIndex<ID> {
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+
+    IdIndex(int expectedSize) {
+        int cap = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        this.keys = new Object[cap];
+        this.values = new int[cap];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return 不存在时 -1
+     */
+    int get(Object key) {
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k.equals(key)) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * 不存在时放入
+     *
+     * @return 已存在的值, 放入成功返回 -1
+     */
+    int putIfAbsent(ID key, int value) {
+        if ((size + 1) * 4 > keys.length * 3) {
+            this.rehash(keys.length << 1);
+        }
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return -1;
+            }
+            if (k.equals(key)) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * @return 被删的值, 不存在时 -1
+     */
+    int remove(Object key) {
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            Object k = keys[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k.equals(key)) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+        // 后面同一探测链上的键往前挪, 填上空位
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int h = hash(keys[j]) & mask;
+            // h 落在 (i, j] 之间的不用挪
+            if (i <= j ? (h <= i || h > j) : (h <= i && h > j)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        size--;
+        return removed;
+    }
+
+    private void rehash(int newCapacity) {
+        Object[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new Object[newCapacity];
+        this.values = new int[newCapacity];
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object k = oldKeys[j];
+            if (k != null) {
+                int i = hash(k) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "IdIndex{size=" + size + ", capacity=" + keys.length + "}";
+    }
+}
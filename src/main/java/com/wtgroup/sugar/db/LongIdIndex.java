@@ -0,0 +1,103 @@
+package com.wtgroup.sugar.db;
+
+import java.util.Arrays;
+
+/**
+ * long id -&gt; 行号 的开放寻址哈希表, 线性探测, {@link IdIndex} 的 long 版
+ * <p>
+ * 键值都是基本类型数组, 没有装箱. 值(行号)非负, 空槽用值 -1 标记, 所以任何 long 都可以作键.
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+final class LongIdIndex {
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIdIndex(int expectedSize) {
+        // 装满 expectedSize 也不超过 0.75 的最小 2 的幂, 千万行时比翻倍再取整省一半
+        int min = (int) Math.min(1 << 30, Math.max(expectedSize, 6) * 4L / 3 + 1);
+        int cap = Integer.highestOneBit(min - 1) << 1;
+        this.keys = new long[cap];
+        this.values = new int[cap];
+        Arrays.fill(this.values, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return 不存在时 -1
+     */
+    int get(long key) {
+        long[] keys = this.keys;
+        int[] values = this.values;
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int v = values[i];
+            if (v < 0 || keys[i] == key) {
+                return v;
+            }
+        }
+    }
+
+    /**
+     * 不存在时放入
+     *
+     * @param value 非负
+     * @return 已存在的值, 放入成功返回 -1
+     */
+    int putIfAbsent(long key, int value) {
+        if ((size + 1) * 4L > keys.length * 3L) {
+            this.rehash(keys.length << 1);
+        }
+        long[] keys = this.keys;
+        int[] values = this.values;
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int v = values[i];
+            if (v < 0) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return -1;
+            }
+            if (keys[i] == key) {
+                return v;
+            }
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new long[newCapacity];
+        this.values = new int[newCapacity];
+        Arrays.fill(this.values, -1);
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] >= 0) {
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] >= 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "LongIdIndex{size=" + size + ", capacity=" + keys.length + "}";
+    }
+}
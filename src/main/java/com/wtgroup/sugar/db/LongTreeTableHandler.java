@@ -0,0 +1,270 @@
+package com.wtgroup.sugar.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * id, pid 为 long 的 {@link TreeTableHandler}, 千万行的组织/类目表用
+ * <p>
+ * id 不装箱: 行号索引是 long -&gt; int 的开放寻址表({@link LongIdIndex}), 子节点用 CSR 存:
+ * 节点 n 的子节点是 childArr[childOffset[n], childOffset[n + 1]), 按行的先后.
+ * 建好后每行只占行引用, 一个 long id, 两个 int, 加上索引表的两三格; 没有 Entry, 没有 Long, 没有每个父节点一个 List.
+ * <p>
+ * 用法, 建树规则, {@link TreeTableHandler.ResultMapper} 的调用顺序都同 {@link TreeTableHandler}.
+ * 基本类型表示不了 null, pid 为 null 的行请映射成任意一个不存在的 id(如 0), pid 不在 id 列里的行就是根.
+ *
+ * <pre>
+ * LongTreeTableHandler&lt;Dept, DeptVo&gt; handler = new LongTreeTableHandler&lt;&gt;(depts,
+ *         Dept::getId,
+ *         d -&gt; d.getParentId() == null ? 0 : d.getParentId(),
+ *         mapper);
+ * List&lt;DeptVo&gt; tree = handler.toTree();
+ * </pre>
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public class LongTreeTableHandler<T, R> {
+
+    private static final int NONE = -1;
+
+    private final TreeTableHandler.ResultMapper<T, R> resultMapper;
+
+    private final int size;
+    private final Object[] rows;
+    private final long[] ids;
+    private final LongIdIndex index;
+    private int[] childOffset;
+    private int[] childArr;
+    /**
+     * 顶层遍历顺序, 同 {@link TreeTableHandler#getTreeMeta()} 的 key 顺序
+     */
+    private int[] tops;
+    private int topCount;
+
+    private List<R> results;
+
+    public LongTreeTableHandler(List<T> data, ToLongFunction<T> getId, ToLongFunction<T> getPId,
+                                TreeTableHandler.ResultMapper<T, R> resultMapper) {
+        this(data, getId, getPId, resultMapper, null);
+    }
+
+    /**
+     * @param isRootNode 根节点规则, 为 null 时 pid 不在 id 列里的是根
+     */
+    public LongTreeTableHandler(List<T> data, ToLongFunction<T> getId, ToLongFunction<T> getPId,
+                                TreeTableHandler.ResultMapper<T, R> resultMapper, Predicate<T> isRootNode) {
+        this.resultMapper = resultMapper;
+        int capacity = data.size();
+        Object[] rows = new Object[capacity];
+        long[] ids = new long[capacity];
+        long[] pids = new long[capacity];
+        LongIdIndex index = new LongIdIndex(capacity);
+        int n = 0;
+        int i = 0;
+        for (T row : data) {
+            if (row == null) {
+                log.warn("数据行==null, 略过, 行数: " + i);
+            } else {
+                long id = getId.applyAsLong(row);
+                if (index.putIfAbsent(id, n) >= 0) {
+                    // id 不允许重复
+                    throw new RuntimeException("id 不允许重复: id=" + id + ", 第" + i + "行");
+                }
+                rows[n] = row;
+                ids[n] = id;
+                pids[n] = getPId.applyAsLong(row);
+                n++;
+            }
+            i++;
+        }
+        this.size = n;
+        this.rows = n == capacity ? rows : Arrays.copyOf(rows, n);
+        this.ids = n == capacity ? ids : Arrays.copyOf(ids, n);
+        this.index = index;
+        this.link(pids, isRootNode);
+    }
+
+    /**
+     * pid ==&gt; 父节点号, 再数出每个节点的子节点数, 前缀和得到偏移, 按行的先后填入子节点
+     */
+    @SuppressWarnings("unchecked")
+    private void link(long[] pids, Predicate<T> isRootNode) {
+        int n = this.size;
+        // 父节点号, 只在建 CSR 时用
+        int[] parent = new int[n];
+        int[] offset = new int[n + 1];
+        int[] tops = new int[n];
+        boolean[] keyed = new boolean[n];
+        for (int c = 0; c < n; c++) {
+            int p = this.index.get(pids[c]);
+            boolean root = isRootNode != null ? isRootNode.test((T) this.rows[c]) : p == NONE;
+            parent[c] = NONE;
+            if (root) {
+                this.top(c, keyed, tops);
+            } else if (p == c) {
+                // id == pid 时, 禁止添加到子集中, 否则必会导致循环引用. 它自己的子节点照常, 看作根.
+                log.warn("id == pid, 忽略! id=" + this.ids[c]);
+                this.top(c, keyed, tops);
+            } else if (p != NONE) {
+                parent[c] = p;
+                offset[p + 1]++;
+                this.top(p, keyed, tops);
+            }
+            // 否则: 指定了根规则, 却不是根, pid 又不存在, 挂不上. 有子节点的话, 随子节点出现在顶层
+        }
+        for (int k = 0; k < n; k++) {
+            offset[k + 1] += offset[k];
+        }
+        int[] arr = new int[offset[n]];
+        // 每个父节点下一个子节点的填入位置
+        int[] next = Arrays.copyOf(offset, n);
+        for (int c = 0; c < n; c++) {
+            int p = parent[c];
+            if (p != NONE) {
+                arr[next[p]++] = c;
+            }
+        }
+        this.childOffset = offset;
+        this.childArr = arr;
+        this.tops = tops;
+    }
+
+    private void top(int node, boolean[] keyed, int[] tops) {
+        if (!keyed[node]) {
+            keyed[node] = true;
+            tops[this.topCount++] = node;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<R> toTree() {
+        if (results != null) {
+            return results;
+        }
+        int n = this.size;
+        boolean[] visited = new boolean[n];
+        boolean[] onPath = new boolean[n];
+        int[] nodes = new int[64];
+        int[] cursors = new int[64];
+        int[] levels = new int[64];
+        Object[] res = new Object[64];
+        Object[] children = new Object[64];
+        List<R> results = new ArrayList<>();
+        for (int t = 0; t < topCount; t++) {
+            int top = tops[t];
+            // 已经作为别人的子孙处理过了
+            if (visited[top]) {
+                continue;
+            }
+            int depth = 0;
+            nodes[0] = top;
+            cursors[0] = childOffset[top];
+            levels[0] = 0;
+            res[0] = resultMapper.mapNode(this.row(top), 0, null);
+            visited[top] = onPath[top] = true;
+            depth++;
+            while (depth > 0) {
+                int f = depth - 1;
+                int node = nodes[f];
+                if (cursors[f] < childOffset[node + 1]) {
+                    int c = childArr[cursors[f]++];
+                    if (onPath[c]) {
+                        List<Long> path = new ArrayList<>(depth);
+                        for (int k = 0; k < depth; k++) {
+                            path.add(ids[nodes[k]]);
+                        }
+                        throw new RuntimeException("出现循环引用: " + path + " -> " + ids[c]);
+                    }
+                    if (depth == nodes.length) {
+                        int cap = depth << 1;
+                        nodes = Arrays.copyOf(nodes, cap);
+                        cursors = Arrays.copyOf(cursors, cap);
+                        levels = Arrays.copyOf(levels, cap);
+                        res = Arrays.copyOf(res, cap);
+                        children = Arrays.copyOf(children, cap);
+                    }
+                    int lvl = levels[f] + 1;
+                    nodes[depth] = c;
+                    cursors[depth] = childOffset[c];
+                    levels[depth] = lvl;
+                    res[depth] = resultMapper.mapNode(this.row(c), lvl, (R) res[f]);
+                    visited[c] = onPath[c] = true;
+                    depth++;
+                    continue;
+                }
+                // 子节点都处理完了
+                R r = (R) res[f];
+                List<R> list = (List<R>) children[f];
+                if (list == null && childOffset[node + 1] > childOffset[node]) {
+                    list = new ArrayList<>(0);
+                }
+                resultMapper.onChildren(r, list);
+                onPath[node] = false;
+                res[f] = null;
+                children[f] = null;
+                depth--;
+                if (depth == 0) {
+                    if (r != null) {
+                        results.add(r);
+                    }
+                } else if (r != null) {
+                    int pf = depth - 1;
+                    List<R> siblings = (List<R>) children[pf];
+                    if (siblings == null) {
+                        int pn = nodes[pf];
+                        children[pf] = siblings = new ArrayList<>(childOffset[pn + 1] - childOffset[pn]);
+                    }
+                    siblings.add(r);
+                }
+            }
+        }
+        this.results = results;
+        return results;
+    }
+
+    public List<R> getResults() {
+        if (results == null) {
+            this.toTree();
+        }
+        return results;
+    }
+
+    /**
+     * 有效行数
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long id) {
+        return index.get(id) != NONE;
+    }
+
+    /**
+     * @return id 的子节点 id, 按行的先后; id 不存在时为空数组
+     */
+    public long[] getChildIds(long id) {
+        int node = index.get(id);
+        if (node == NONE) {
+            return new long[0];
+        }
+        long[] childIds = new long[childOffset[node + 1] - childOffset[node]];
+        for (int k = 0; k < childIds.length; k++) {
+            childIds[k] = ids[childArr[childOffset[node] + k]];
+        }
+        return childIds;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T row(int node) {
+        return (T) this.rows[node];
+    }
+}
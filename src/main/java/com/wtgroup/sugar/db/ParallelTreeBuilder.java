@@ -0,0 +1,316 @@
+package com.wtgroup.sugar.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * fork/join 并行建树, 见 {@link TreeTableHandler#toTreeParallel(ForkJoinPool, int)}
+ * <p>
+ * 先单线程过一遍结构(只碰 int 数组, 不调 ResultMapper): 确定顶层输出哪些节点, 检查环, 算每个子树的节点数.
+ * 再按子树大小切任务: 一组兄弟子树合计不超过阈值的, 一个任务里顺序处理; 超过的对半分.
+ * 大子树先在当前线程 mapProperties 自己, 再把子节点们交给子任务, 全部完成后 onChildren.
+ * 所以父节点总在子节点之前 mapProperties, 子节点全部完成后才 onChildren, 子节点顺序同行的先后, 结果和单线程一致.
+ * <p>
+ * 只有一个大子节点的(如很深的链), 沿着它循环往下走, 不递归, 深树也不会栈溢出.
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+final class ParallelTreeBuilder<T, R, ID> {
+
+    private final TreeIndex<T, ID> index;
+    private final TreeTableHandler.ResultMapper<T, R> resultMapper;
+    private final int threshold;
+
+    /**
+     * 子树节点数
+     */
+    private int[] size;
+    /**
+     * CSR 形式的子节点: node 的子节点是 childArr[childOffset[node], childOffset[node + 1])
+     */
+    private int[] childOffset;
+    private int[] childArr;
+    /**
+     * 同 {@link TreeWalker#record}, 各任务写各自节点的格子
+     */
+    private final Object[] nodeResults;
+    private final Object[] nodeChildren;
+
+    ParallelTreeBuilder(TreeIndex<T, ID> index, TreeTableHandler.ResultMapper<T, R> resultMapper, int threshold,
+                        Object[] nodeResults, Object[] nodeChildren) {
+        this.index = index;
+        this.resultMapper = resultMapper;
+        this.threshold = Math.max(threshold, 1);
+        this.nodeResults = nodeResults;
+        this.nodeChildren = nodeChildren;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<R> build(ForkJoinPool pool) {
+        int[] tops = this.prepare();
+        this.csr();
+        // 顶层里的中间节点(行排在它的根之前的)同单线程版单独输出一份. 这份不记, 记的是根下面那份, 免得和根的任务抢着写.
+        int[] roots = new int[tops.length];
+        int rootCount = 0;
+        for (int top : tops) {
+            if (index.parent[top] == TreeIndex.NONE) {
+                roots[rootCount++] = top;
+            }
+        }
+        Object[] out = new Object[rootCount];
+        pool.invoke(new SiblingsTask(roots, 0, rootCount, null, 0, out, 0));
+        List<R> results = new ArrayList<>(tops.length);
+        int k = 0;
+        for (int top : tops) {
+            Object res = index.parent[top] == TreeIndex.NONE ? out[k++]
+                    : new TreeWalker<>(index, resultMapper, false).walk(top, 0, null);
+            if (res != null) {
+                results.add((R) res);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 结构遍历: 同单线程版的顶层跳过规则和环检查, 顺带算子树大小
+     *
+     * @return 要输出的顶层节点
+     */
+    private int[] prepare() {
+        TreeIndex<T, ID> index = this.index;
+        int n = index.size;
+        int[] size = new int[n];
+        boolean[] visited = new boolean[n];
+        boolean[] onPath = new boolean[n];
+        int[] nodes = new int[64];
+        int[] cursors = new int[64];
+        int[] tops = new int[index.topCount];
+        int topCount = 0;
+        for (int t = 0; t < index.topCount; t++) {
+            int top = index.tops[t];
+            if (visited[top]) {
+                continue;
+            }
+            tops[topCount++] = top;
+            int depth = 0;
+            nodes[depth] = top;
+            cursors[depth++] = index.firstChild[top];
+            visited[top] = onPath[top] = true;
+            size[top] = 1;
+            while (depth > 0) {
+                int f = depth - 1;
+                int c = cursors[f];
+                if (c != TreeIndex.NONE) {
+                    cursors[f] = index.nextSibling[c];
+                    if (onPath[c]) {
+                        List<ID> path = new ArrayList<>(depth);
+                        for (int i = 0; i < depth; i++) {
+                            path.add(index.id(nodes[i]));
+                        }
+                        throw new RuntimeException("出现循环引用: " + path + " -> " + index.id(c));
+                    }
+                    if (visited[c]) {
+                        // 之前作为顶层处理过的, 大小已知
+                        size[nodes[f]] += size[c];
+                        continue;
+                    }
+                    if (depth == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, depth << 1);
+                        cursors = Arrays.copyOf(cursors, depth << 1);
+                    }
+                    nodes[depth] = c;
+                    cursors[depth++] = index.firstChild[c];
+                    visited[c] = onPath[c] = true;
+                    size[c] = 1;
+                    continue;
+                }
+                int node = nodes[f];
+                onPath[node] = false;
+                depth--;
+                if (depth > 0) {
+                    size[nodes[depth - 1]] += size[node];
+                }
+            }
+        }
+        this.size = size;
+        return Arrays.copyOf(tops, topCount);
+    }
+
+    private void csr() {
+        TreeIndex<T, ID> index = this.index;
+        int n = index.size;
+        int[] offset = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offset[i + 1] = offset[i] + index.childCount[i];
+        }
+        int[] arr = new int[offset[n]];
+        for (int i = 0; i < n; i++) {
+            int k = offset[i];
+            for (int c = index.firstChild[i]; c != TreeIndex.NONE; c = index.nextSibling[c]) {
+                arr[k++] = c;
+            }
+        }
+        this.childOffset = offset;
+        this.childArr = arr;
+    }
+
+    /**
+     * 处理一个节点的子树. 大节点沿唯一的大子节点循环往下, 小的兄弟交给子任务.
+     */
+    @SuppressWarnings("unchecked")
+    private R one(int node, int lvl, R parent) {
+        // 沿途的大节点, 自底向上收尾
+        List<Spine> spine = null;
+        R result;
+        while (true) {
+            if (size[node] <= threshold) {
+                result = this.walker().walk(node, lvl, parent);
+                break;
+            }
+            R res = resultMapper.mapNode(index.row(node), lvl, parent);
+            nodeResults[node] = res;
+            int from = childOffset[node], to = childOffset[node + 1];
+            Object[] out = new Object[to - from];
+            int big = -1;
+            for (int i = from; i < to; i++) {
+                if (size[childArr[i]] > threshold) {
+                    if (big >= 0) {
+                        big = -2;
+                        break;
+                    }
+                    big = i;
+                }
+            }
+            if (big < 0) {
+                // 没有或多个大子节点, 交给兄弟任务切分
+                new SiblingsTask(childArr, from, to, res, lvl + 1, out, 0).compute();
+                result = this.finish(node, res, out);
+                break;
+            }
+            // 恰好一个大子节点: 两边的小兄弟并行, 自己沿大子节点往下
+            ForkJoinTask<?> before = from < big ? new SiblingsTask(childArr, from, big, res, lvl + 1, out, 0).fork() : null;
+            ForkJoinTask<?> after = big + 1 < to ? new SiblingsTask(childArr, big + 1, to, res, lvl + 1, out, big + 1 - from).fork() : null;
+            if (spine == null) {
+                spine = new ArrayList<>();
+            }
+            spine.add(new Spine(node, res, out, big - from, before, after));
+            node = childArr[big];
+            lvl++;
+            parent = res;
+        }
+        if (spine != null) {
+            for (int i = spine.size() - 1; i >= 0; i--) {
+                Spine frame = spine.get(i);
+                if (frame.before != null) {
+                    frame.before.join();
+                }
+                if (frame.after != null) {
+                    frame.after.join();
+                }
+                frame.out[frame.bigSlot] = result;
+                result = this.finish(frame.node, (R) frame.res, frame.out);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private R finish(int node, R res, Object[] out) {
+        List<R> children = null;
+        if (index.childCount[node] > 0) {
+            children = new ArrayList<>(out.length);
+            for (Object child : out) {
+                if (child != null) {
+                    children.add((R) child);
+                }
+            }
+        }
+        resultMapper.onChildren(res, children);
+        nodeChildren[node] = children;
+        return res;
+    }
+
+    private TreeWalker<T, R, ID> walker() {
+        return new TreeWalker<>(index, resultMapper, false).record(nodeResults, nodeChildren);
+    }
+
+    /**
+     * 沿大子节点往下走时, 留待收尾的一层
+     */
+    private static final class Spine {
+        final int node;
+        final Object res;
+        final Object[] out;
+        /**
+         * 大子节点在 out 里的位置
+         */
+        final int bigSlot;
+        final ForkJoinTask<?> before;
+        final ForkJoinTask<?> after;
+
+        Spine(int node, Object res, Object[] out, int bigSlot, ForkJoinTask<?> before, ForkJoinTask<?> after) {
+            this.node = node;
+            this.res = res;
+            this.out = out;
+            this.bigSlot = bigSlot;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    /**
+     * 一组兄弟子树 arr[from, to), 结果依次写入 out[outFrom...]
+     */
+    private final class SiblingsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] arr;
+        private final int from;
+        private final int to;
+        private final R parent;
+        private final int lvl;
+        private final Object[] out;
+        private final int outFrom;
+
+        SiblingsTask(int[] arr, int from, int to, R parent, int lvl, Object[] out, int outFrom) {
+            this.arr = arr;
+            this.from = from;
+            this.to = to;
+            this.parent = parent;
+            this.lvl = lvl;
+            this.out = out;
+            this.outFrom = outFrom;
+        }
+
+        @Override
+        protected void compute() {
+            int count = to - from;
+            if (count == 1) {
+                out[outFrom] = one(arr[from], lvl, parent);
+                return;
+            }
+            long total = 0;
+            for (int i = from; i < to; i++) {
+                total += size[arr[i]];
+            }
+            if (total <= threshold) {
+                TreeWalker<T, R, ID> walker = walker();
+                for (int i = from; i < to; i++) {
+                    out[outFrom + i - from] = walker.walk(arr[i], lvl, parent);
+                }
+                return;
+            }
+            int mid = from + (count >>> 1);
+            SiblingsTask left = new SiblingsTask(arr, from, mid, parent, lvl, out, outFrom);
+            left.fork();
+            new SiblingsTask(arr, mid, to, parent, lvl, out, outFrom + mid - from).compute();
+            left.join();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.wtgroup.sugar.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 父子关系的校验结果, 见 {@link TreeTableHandler#validate()}
+ * <p>
+ * 一次 O(n), 不递归, 不复制集合, 深链也不会栈溢出, 每次建树都开着也无妨:
+ * <li>循环引用: 沿 parent 数组着色, 每个节点只走一次. 一次从 s 出发的上溯撞上本次刚着的色, 撞上的节点起就是一个环.
+ * <li>自引用(id == pid), pid 悬空(父节点不存在): 只看没有父节点的节点, 各调一次 getPId.
+ * <p>
+ * id 唯一(重复时建树就抛异常), 每个节点只有一个 parent, 所以不会有 "一个节点多个父节点" 的情况.
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public final class TreeCheck<ID> {
+
+    private final List<List<ID>> cycles = new ArrayList<>();
+    private final List<ID> selfReferences = new ArrayList<>();
+    private final Map<ID, ID> danglingPids = new LinkedHashMap<>();
+
+    <T> TreeCheck(TreeIndex<T, ID> index, Function<T, ID> getPId, Predicate<T> isRootNode) {
+        int n = index.size;
+        // 0 未走过, 否则为走到它的那次上溯的起点 + 1
+        int[] colour = new int[n];
+        for (int s = 0; s < n; s++) {
+            if (!index.alive(s) || colour[s] != 0) {
+                continue;
+            }
+            int mark = s + 1;
+            int x = s;
+            while (x != TreeIndex.NONE && colour[x] == 0) {
+                colour[x] = mark;
+                x = index.parent[x];
+            }
+            if (x != TreeIndex.NONE && colour[x] == mark) {
+                cycles.add(this.cycle(index, x));
+            }
+        }
+
+        for (int x = 0; x < n; x++) {
+            if (!index.alive(x) || index.parent[x] != TreeIndex.NONE) {
+                continue;
+            }
+            T row = index.row(x);
+            if (isRootNode != null && isRootNode.test(row)) {
+                continue;
+            }
+            ID pid = getPId.apply(row);
+            if (pid == null) {
+                continue;
+            }
+            ID id = index.id(x);
+            if (pid.equals(id)) {
+                selfReferences.add(id);
+            } else if (index.index.get(pid) == TreeIndex.NONE) {
+                danglingPids.put(id, pid);
+            }
+        }
+    }
+
+    /**
+     * 从 start 沿 parent 绕一圈, 首尾都是 start
+     */
+    private <T> List<ID> cycle(TreeIndex<T, ID> index, int start) {
+        List<ID> cycle = new ArrayList<>();
+        int x = start;
+        do {
+            cycle.add(index.id(x));
+            x = index.parent[x];
+        } while (x != start);
+        cycle.add(index.id(start));
+        return cycle;
+    }
+
+    /**
+     * 没有任何问题
+     */
+    public boolean isValid() {
+        return cycles.isEmpty() && selfReferences.isEmpty() && danglingPids.isEmpty();
+    }
+
+    /**
+     * 每个环一个列表, 沿 pid 方向, 首尾是同一个 id. 环下面挂着的节点不算在内.
+     */
+    public List<List<ID>> getCycles() {
+        return Collections.unmodifiableList(cycles);
+    }
+
+    /**
+     * id == pid 的行的 id
+     */
+    public List<ID> getSelfReferences() {
+        return Collections.unmodifiableList(selfReferences);
+    }
+
+    /**
+     * 父节点不存在的行: id -&gt; pid, 按行的先后
+     */
+    public Map<ID, ID> getDanglingPids() {
+        return Collections.unmodifiableMap(danglingPids);
+    }
+
+    @Override
+    public String toString() {
+        return "TreeCheck{cycles=" + cycles + ", selfReferences=" + selfReferences + ", danglingPids=" + danglingPids + "}";
+    }
+}
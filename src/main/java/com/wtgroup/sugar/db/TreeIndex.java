@@ -0,0 +1,416 @@
+package com.wtgroup.sugar.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 树形关系的数组表示, {@link TreeTableHandler} 的建树引擎用
+ * <p>
+ * 每个有效行一个节点号(0 开始, 按行的先后), 父子关系存在 int 数组里: parent, 子节点链表(firstChild/nextSibling, 保持行的先后).
+ * 只遍历一遍 data, 每行各调一次 getId, getPId. 除了 id 索引的数组, 没有每节点的对象分配.
+ * <p>
+ * 行逐个 {@link #add} 进来, 到达时就挂到父节点下; 父节点还没到的, 按 pid 暂存为孤儿, 父节点到达时整批收养.
+ * 所以行可以来自 Iterator / ResultSet, 不用先攒成 List, 每行只留行对象本身和几个 int.
+ * <p>
+ * 顶层遍历顺序 {@link #tops} 同旧版 treeMeta 的 key 顺序: 根节点按它所在的行, 非根节点按它第一次作为别人的 pid 出现的行.
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+final class TreeIndex<T, ID> {
+
+    static final int NONE = -1;
+
+    int size;
+    Object[] rows;
+    Object[] ids;
+    /**
+     * 父节点号, 根(及 pid 悬空, 自引用的)为 {@link #NONE}
+     */
+    int[] parent;
+    int[] firstChild;
+    int[] lastChild;
+    int[] nextSibling;
+    int[] childCount;
+    /**
+     * 顶层遍历顺序
+     */
+    int[] tops;
+    int topCount;
+
+    IdIndex<ID> index;
+    /**
+     * 是否在顶层顺序里, 第一次增量修改时才建
+     */
+    private boolean[] keyed;
+
+    // ---- 以下只在建的过程中用, finish 后释放 ----
+    private Function<T, ID> getId;
+    private Function<T, ID> getPId;
+    private Predicate<T> isRootNode;
+    /**
+     * 节点进入顶层顺序的时刻, 取最早的一次; 未进入为 {@link Integer#MAX_VALUE}.
+     * 时刻用引发它的那一行的节点号: 行本身是根, 或者行挂到了这个父节点下.
+     */
+    private int[] keyTime;
+    /**
+     * 父节点还没到的孤儿: pid -&gt; 组号. 一组孤儿用 nextSibling 串起来.
+     */
+    private IdIndex<ID> pending;
+    private int[] orphanHead;
+    private int[] orphanTail;
+    private int[] orphanCount;
+    private int groupCount;
+    /**
+     * 收到的行数, 含跳过的, 日志用
+     */
+    private int rowNum;
+
+    TreeIndex(int capacity, Function<T, ID> getId, Function<T, ID> getPId, Predicate<T> isRootNode) {
+        capacity = Math.max(capacity, 16);
+        this.rows = new Object[capacity];
+        this.ids = new Object[capacity];
+        this.parent = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.lastChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.childCount = new int[capacity];
+        this.keyTime = new int[capacity];
+        this.index = new IdIndex<>(capacity);
+        this.getId = getId;
+        this.getPId = getPId;
+        this.isRootNode = isRootNode;
+    }
+
+    static <T, ID> TreeIndex<T, ID> build(Iterable<T> data, int expectedSize, Function<T, ID> getId, Function<T, ID> getPId,
+                                          Predicate<T> isRootNode) {
+        TreeIndex<T, ID> tree = new TreeIndex<>(expectedSize, getId, getPId, isRootNode);
+        for (T row : data) {
+            tree.add(row);
+        }
+        return tree.finish();
+    }
+
+    /**
+     * 加入一行, 立即挂到已到的父节点下, 并收养先到的子节点
+     */
+    void add(T row) {
+        int i = rowNum++;
+        if (row == null) {
+            log.warn("数据行==null, 略过, 行数: " + i);
+            return;
+        }
+        ID id = getId.apply(row);
+        if (id == null) {
+            log.warn("id == null, 忽略! 行数: " + i);
+            return;
+        }
+        int c = size;
+        if (index.putIfAbsent(id, c) >= 0) {
+            // id 不允许重复
+            throw new RuntimeException("id 不允许重复: id=" + id + ", 第" + i + "行");
+        }
+        if (c == rows.length) {
+            this.grow(c + (c >> 1));
+        }
+        rows[c] = row;
+        ids[c] = id;
+        parent[c] = firstChild[c] = lastChild[c] = nextSibling[c] = NONE;
+        childCount[c] = 0;
+        keyTime[c] = Integer.MAX_VALUE;
+        size++;
+
+        if (pending != null) {
+            this.adopt(c, pending.get(id));
+        }
+
+        ID pid = getPId.apply(row);
+        // 优先使用指定规则判断根节点; 无指定规则时, pid 不为 null, 且在 id 列中有 => 中间节点
+        if (isRootNode != null ? isRootNode.test(row) : pid == null) {
+            this.key(c, c);
+        } else if (pid == null) {
+            // 指定了根规则, 却不是根, 又没有 pid, 挂不上
+            return;
+        } else if (pid.equals(id)) {
+            // id == pid 时, 禁止添加到子集中, 否则必会导致循环引用. 它自己的子节点照常, 看作根.
+            log.warn("id == pid, 忽略! id=" + id);
+            this.key(c, c);
+        } else {
+            int p = index.get(pid);
+            if (p != NONE) {
+                this.link(p, c);
+            } else {
+                this.orphan(pid, c);
+            }
+        }
+    }
+
+    /**
+     * 所有行都到了. 还在等父节点的孤儿: 无指定根规则时看作根; 指定了根规则的挂不上, 有子节点的话, 随子节点出现在顶层.
+     */
+    TreeIndex<T, ID> finish() {
+        int n = size;
+        if (isRootNode == null) {
+            for (int g = 0; g < groupCount; g++) {
+                for (int c = orphanHead[g]; c != NONE; ) {
+                    int next = nextSibling[c];
+                    nextSibling[c] = NONE;
+                    this.key(c, c);
+                    c = next;
+                }
+            }
+        } else {
+            for (int g = 0; g < groupCount; g++) {
+                for (int c = orphanHead[g]; c != NONE; ) {
+                    int next = nextSibling[c];
+                    nextSibling[c] = NONE;
+                    c = next;
+                }
+            }
+        }
+        // 每一行至多让一个节点进入顶层, 按时刻排即是按行排
+        int[] byTime = new int[n];
+        Arrays.fill(byTime, NONE);
+        for (int x = 0; x < n; x++) {
+            if (keyTime[x] != Integer.MAX_VALUE) {
+                byTime[keyTime[x]] = x;
+            }
+        }
+        this.tops = new int[n];
+        for (int x : byTime) {
+            if (x != NONE) {
+                tops[topCount++] = x;
+            }
+        }
+        this.keyTime = null;
+        this.pending = null;
+        this.orphanHead = this.orphanTail = this.orphanCount = null;
+        this.getId = this.getPId = null;
+        this.isRootNode = null;
+        return this;
+    }
+
+    private void link(int p, int c) {
+        parent[c] = p;
+        if (lastChild[p] == NONE) {
+            firstChild[p] = c;
+        } else {
+            nextSibling[lastChild[p]] = c;
+        }
+        lastChild[p] = c;
+        childCount[p]++;
+        this.key(p, c);
+    }
+
+    private void orphan(ID pid, int c) {
+        if (pending == null) {
+            pending = new IdIndex<>(16);
+            orphanHead = new int[16];
+            orphanTail = new int[16];
+            orphanCount = new int[16];
+        }
+        int g = pending.putIfAbsent(pid, groupCount);
+        if (g < 0) {
+            g = groupCount++;
+            if (g == orphanHead.length) {
+                int cap = g << 1;
+                orphanHead = Arrays.copyOf(orphanHead, cap);
+                orphanTail = Arrays.copyOf(orphanTail, cap);
+                orphanCount = Arrays.copyOf(orphanCount, cap);
+            }
+            orphanHead[g] = c;
+        } else {
+            nextSibling[orphanTail[g]] = c;
+        }
+        orphanTail[g] = c;
+        orphanCount[g]++;
+    }
+
+    /**
+     * 父节点 p 到了, 收养等它的孤儿. 孤儿的行都在 p 之前, 正好排在后来的子节点前面.
+     */
+    private void adopt(int p, int g) {
+        if (g < 0 || orphanHead[g] == NONE) {
+            return;
+        }
+        firstChild[p] = orphanHead[g];
+        lastChild[p] = orphanTail[g];
+        childCount[p] = orphanCount[g];
+        for (int c = orphanHead[g]; c != NONE; c = nextSibling[c]) {
+            parent[c] = p;
+        }
+        // 第一个孤儿最早, 它挂上父节点的时刻
+        this.key(p, orphanHead[g]);
+        orphanHead[g] = NONE;
+    }
+
+    private void key(int node, int time) {
+        if (time < keyTime[node]) {
+            keyTime[node] = time;
+        }
+    }
+
+    private void grow(int cap) {
+        rows = Arrays.copyOf(rows, cap);
+        ids = Arrays.copyOf(ids, cap);
+        parent = Arrays.copyOf(parent, cap);
+        firstChild = Arrays.copyOf(firstChild, cap);
+        lastChild = Arrays.copyOf(lastChild, cap);
+        nextSibling = Arrays.copyOf(nextSibling, cap);
+        childCount = Arrays.copyOf(childCount, cap);
+        if (keyTime != null) {
+            keyTime = Arrays.copyOf(keyTime, cap);
+        }
+    }
+
+    // ---- 建好以后的增量修改, 见 TreeTableHandler#insert / delete / reparent. 删掉的节点号不再复用. ----
+
+    /**
+     * 加一个孤立的新节点
+     *
+     * @return 节点号
+     */
+    int append(T row, ID id) {
+        int c = size;
+        if (index.putIfAbsent(id, c) >= 0) {
+            throw new IllegalArgumentException("id 不允许重复: id=" + id);
+        }
+        if (c == rows.length) {
+            this.grow(c + (c >> 1));
+        }
+        rows[c] = row;
+        ids[c] = id;
+        parent[c] = firstChild[c] = lastChild[c] = nextSibling[c] = NONE;
+        childCount[c] = 0;
+        size++;
+        return c;
+    }
+
+    /**
+     * c 挂到 p 的子节点末尾
+     */
+    void attach(int p, int c) {
+        parent[c] = p;
+        if (lastChild[p] == NONE) {
+            firstChild[p] = c;
+        } else {
+            nextSibling[lastChild[p]] = c;
+        }
+        lastChild[p] = c;
+        childCount[p]++;
+        nextSibling[c] = NONE;
+        this.addTop(p);
+    }
+
+    /**
+     * c 从父节点的子节点里摘下, 没有父节点的不变
+     */
+    void detach(int c) {
+        int p = parent[c];
+        if (p == NONE) {
+            return;
+        }
+        int prev = NONE;
+        for (int x = firstChild[p]; x != c; x = nextSibling[x]) {
+            prev = x;
+        }
+        if (prev == NONE) {
+            firstChild[p] = nextSibling[c];
+        } else {
+            nextSibling[prev] = nextSibling[c];
+        }
+        if (lastChild[p] == c) {
+            lastChild[p] = prev;
+        }
+        childCount[p]--;
+        parent[c] = nextSibling[c] = NONE;
+    }
+
+    /**
+     * 删掉一个已摘下, 且没有子节点的节点
+     */
+    void remove(int node) {
+        index.remove(ids[node]);
+        rows[node] = null;
+        ids[node] = null;
+    }
+
+    boolean alive(int node) {
+        return ids[node] != null;
+    }
+
+    void addTop(int node) {
+        if (keyed == null) {
+            keyed = new boolean[rows.length];
+            for (int i = 0; i < topCount; i++) {
+                keyed[tops[i]] = true;
+            }
+        } else if (keyed.length <= node) {
+            keyed = Arrays.copyOf(keyed, rows.length);
+        }
+        if (!keyed[node]) {
+            keyed[node] = true;
+            if (topCount == tops.length) {
+                tops = Arrays.copyOf(tops, Math.max(16, topCount + (topCount >> 1)));
+            }
+            tops[topCount++] = node;
+        }
+    }
+
+    /**
+     * 层级, 根为 0
+     */
+    int depth(int node) {
+        int d = 0;
+        for (int p = parent[node]; p != NONE; p = parent[p]) {
+            d++;
+        }
+        return d;
+    }
+
+    /**
+     * 最近公共祖先(可以是 a, b 自己), 不在一棵树上时 {@link #NONE}
+     */
+    int commonAncestor(int a, int b) {
+        int da = this.depth(a);
+        int db = this.depth(b);
+        for (; da > db; da--) {
+            a = parent[a];
+        }
+        for (; db > da; db--) {
+            b = parent[b];
+        }
+        while (a != b) {
+            a = parent[a];
+            b = parent[b];
+        }
+        return a;
+    }
+
+    /**
+     * node 是不是 ancestor 自己或它的子孙
+     */
+    boolean isUnder(int node, int ancestor) {
+        for (int x = node; x != NONE; x = parent[x]) {
+            if (x == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    T row(int node) {
+        return (T) this.rows[node];
+    }
+
+    @SuppressWarnings("unchecked")
+    ID id(int node) {
+        return (ID) this.ids[node];
+    }
+}
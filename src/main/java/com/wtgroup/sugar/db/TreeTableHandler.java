@@ -1,9 +1,13 @@
 package com.wtgroup.sugar.db;
 
+import com.wtgroup.sugar.math.Numbor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -31,6 +35,19 @@ import java.util.function.Predicate;
  * <p>
  * Note:
  * id 不允许重复, 避免出现循环引用. 树形关系将乱套.
+ * <p>
+ * 版本
+ * == 2026/10/18 ==
+ * 建树改为显式栈迭代, 万级深度的链也不会栈溢出; 只遍历一遍 data, 父子关系存 int 数组(见 {@link TreeIndex}), 不再有 transed 集合.
+ * 先于父节点出现的子节点不再丢失. 循环引用(没有根的环)抛异常, 不再无限递归.
+ * 增加并行建树 {@link #toTreeParallel(ForkJoinPool, int)}, mapProperties 较重的大树可用.
+ * 增加流式输入 {@link #of(Iterator, Function, Function, ResultMapper)}, {@link #of(ResultSet, RowMapper, Function, Function, ResultMapper)},
+ * {@link #builder(Function, Function, ResultMapper)}: 行边到边挂到树上, 不用先攒成 List.
+ * 增加增量修改 {@link #insert(Object)}, {@link #delete(Object)}, {@link #reparent(Object, Object)}: 只对受影响的祖先重新 onChildren.
+ * 增加祖先/子孙查询 {@link #ancestry()}.
+ * 增加子树汇总 {@link #rollup(Numbor.Rule)}: sum/count/min/max/avg 一次后序遍历算完, 不用在 onChildren 里手写.
+ * 增加 O(n) 校验 {@link #validate()}, 一次报出所有循环引用, 自引用, pid 悬空, 代替平方复杂度的 validateCircleRefer;
+ * 可用 {@link #setValidateOnBuild(boolean)} 每次建树前校验(pid 悬空的行照旧当根, 不拦).
  *
  * @author L&J
  * @version 0.0.0
@@ -40,6 +57,11 @@ import java.util.function.Predicate;
 @Slf4j
 public class TreeTableHandler<T, R, ID> {
 
+    /**
+     * 并行建树时, 合计不超过这么多节点的一组子树在一个任务里顺序处理
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024;
+
     @Setter
     private List<T> data;
     @Setter
@@ -50,16 +72,27 @@ public class TreeTableHandler<T, R, ID> {
     @Setter
     private ResultMapper<T, R>       resultMapper;
     private Predicate<T> isRootNode;
+    /**
+     * 建树前先 {@link #validate()}, 有循环引用或自引用就抛异常. pid 悬空(指向其他表, 或 pid=0 之类)的行照旧当根, 不算错.
+     * 默认关: 自引用的行也照旧当根, 只在遇到环时抛异常.
+     */
+    @Setter
+    private boolean validateOnBuild;
 
     // @Getter
     private Map<ID, List<ID>> treeMeta;
     /**
-     * 原始数据转换成 id 为key的map
+     * 父子关系的数组表示
      */
-    private Map<ID, T> dataMap;
+    private TreeIndex<T, ID> index;
     // @Getter
     private List<R> results;
-    private HashSet<ID> transed = new HashSet<>();
+    /**
+     * 按节点号记下的结果, 以及传给 onChildren 的子集(同一个 List 对象), 增量修改时用
+     */
+    private Object[] nodeResults;
+    private Object[] nodeChildren;
+    private AncestorIndex<T, ID> ancestry;
 
     public TreeTableHandler(List<T> data, Function<T, ID> getId, Function<T, ID> getPId, ResultMapper<T, R> resultMapper) {
         this(data, getId, getPId, resultMapper, null);
@@ -74,180 +107,470 @@ public class TreeTableHandler<T, R, ID> {
         this.isRootNode = isRootNode;
     }
 
-    private void parseTreeMeta() {
-        dataMap = new HashMap<>();
-        treeMeta = new LinkedHashMap<>();
-        // 原始数据转换成 id 为key的map
-        for ( int i = 0; i < data.size(); i++ ) {
-            T r = data.get(i);
-            if ( r == null ) {
-                log.warn("数据行==null, 略过, 行数: " + i);
-                continue;
-            }
+    private TreeTableHandler(TreeIndex<T, ID> index, Function<T, ID> getId, Function<T, ID> getPId, ResultMapper<T, R> resultMapper,
+                             Predicate<T> isRootNode) {
+        this((List<T>) null, getId, getPId, resultMapper, isRootNode);
+        this.index = index;
+    }
 
-            ID id  = getId.apply(r);
-            if ( id != null ) {
-                T old = dataMap.put(id, r);
-                // id 不允许重复
-                if ( old != null ) {
-                    throw new RuntimeException("id 不允许重复: id=" + id + ", 第" + i + "行");
-                }
-            }
+    /**
+     * 从 Iterator 逐行建, 不需要整表的 List. rows 在这里就读完了.
+     */
+    public static <T, R, ID> TreeTableHandler<T, R, ID> of(Iterator<T> rows, Function<T, ID> getId, Function<T, ID> getPId,
+                                                           ResultMapper<T, R> resultMapper) {
+        return of(rows, getId, getPId, resultMapper, null);
+    }
+
+    public static <T, R, ID> TreeTableHandler<T, R, ID> of(Iterator<T> rows, Function<T, ID> getId, Function<T, ID> getPId,
+                                                           ResultMapper<T, R> resultMapper, Predicate<T> isRootNode) {
+        Builder<T, R, ID> builder = builder(getId, getPId, resultMapper, isRootNode);
+        while (rows.hasNext()) {
+            builder.add(rows.next());
         }
+        return builder.build();
+    }
 
-        // treeMeta
-        for ( int i = 0; i < data.size(); i++ ) {
-            T r = data.get(i);
-            if ( r == null ) {
-                //log.warn("数据行==null, 略过, 行数: " + i);
+    /**
+     * 从 ResultSet 逐行建. 读到最后一行, 不关闭 rs.
+     *
+     * @param rowMapper 当前行 ==&gt; 行对象
+     */
+    public static <T, R, ID> TreeTableHandler<T, R, ID> of(ResultSet rs, RowMapper<T> rowMapper, Function<T, ID> getId,
+                                                           Function<T, ID> getPId, ResultMapper<T, R> resultMapper) throws SQLException {
+        return of(rs, rowMapper, getId, getPId, resultMapper, null);
+    }
+
+    public static <T, R, ID> TreeTableHandler<T, R, ID> of(ResultSet rs, RowMapper<T> rowMapper, Function<T, ID> getId,
+                                                           Function<T, ID> getPId, ResultMapper<T, R> resultMapper,
+                                                           Predicate<T> isRootNode) throws SQLException {
+        Builder<T, R, ID> builder = builder(getId, getPId, resultMapper, isRootNode);
+        int rowNum = 0;
+        while (rs.next()) {
+            builder.add(rowMapper.mapRow(rs, rowNum++));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 逐行推入, 适合回调式的查询(如 MyBatis 的 ResultHandler)
+     */
+    public static <T, R, ID> Builder<T, R, ID> builder(Function<T, ID> getId, Function<T, ID> getPId, ResultMapper<T, R> resultMapper) {
+        return builder(getId, getPId, resultMapper, null);
+    }
+
+    public static <T, R, ID> Builder<T, R, ID> builder(Function<T, ID> getId, Function<T, ID> getPId, ResultMapper<T, R> resultMapper,
+                                                       Predicate<T> isRootNode) {
+        return new Builder<>(getId, getPId, resultMapper, isRootNode);
+    }
+
+    private TreeIndex<T, ID> index() {
+        if (index == null) {
+            index = TreeIndex.build(data, data.size(), getId, getPId, isRootNode);
+        }
+        return index;
+    }
+
+    public List<R> toTree() {
+        if (results != null) {
+            return results;
+        }
+        TreeIndex<T, ID> index = this.index();
+        this.checkOnBuild();
+        results = new ArrayList<>();
+        nodeResults = new Object[index.rows.length];
+        nodeChildren = new Object[index.rows.length];
+        TreeWalker<T, R, ID> walker = new TreeWalker<>(index, resultMapper, true).record(nodeResults, nodeChildren);
+        for (int i = 0; i < index.topCount; i++) {
+            int top = index.tops[i];
+            // 已经作为别人的子孙处理过了
+            if (walker.visited[top]) {
                 continue;
             }
-            ID id  = getId.apply(r);
-            ID pid = getPId.apply(r);
-            // 优先使用指定规则判断 根节点.
-            // 无指定规则时, pid 不为null, 且在 id 列中有 => 当前 id 是中间节点
-            // 否则, 认为是没有子节点的根节点
-            if (!isRoot(r, pid)) {
-                List<ID> ids = treeMeta.computeIfAbsent(pid, k -> new ArrayList<>());
-                if (id != null && !id.equals(pid)) {
-                    ids.add(id);
-                } else if (id == null) {
-                    log.warn("id == null, 忽略! 行数: " + i);
-                } else if (id.equals(pid)) {
-                    // id == pid 时, 禁止添加到子集中, 否则必会导致循环引用
-                    log.warn("id == pid, 忽略! id=" + id);
-                }
-            } else { // 当前 id 是顶级, 且没有子节点了
-                treeMeta.put(id, null);
+            R res = walker.walk(top, 0, null);
+            if (res != null) {
+                results.add(res);
             }
+        }
+        return results;
+    }
+
+    /**
+     * 同 {@link #toTree()}, 在公共 ForkJoinPool 上并行
+     */
+    public List<R> toTreeParallel() {
+        return toTreeParallel(ForkJoinPool.commonPool(), DEFAULT_PARALLEL_THRESHOLD);
+    }
 
+    /**
+     * 同 {@link #toTree()}, 互不相干的子树在 pool 上并行 mapProperties / onChildren. 结果(顶层顺序, 子节点顺序)和单线程一致,
+     * 父节点总在子节点之前 mapProperties, 子节点都完成后才 onChildren.
+     * <p>
+     * ResultMapper 会被多个线程同时调用(不同的子树), 不要在里面改共享状态. 节点不多或 mapProperties 很轻时, 直接用 {@link #toTree()}.
+     *
+     * @param threshold 合计不超过这么多节点的一组子树, 在一个任务里顺序处理
+     */
+    public List<R> toTreeParallel(ForkJoinPool pool, int threshold) {
+        if (results != null) {
+            return results;
         }
+        TreeIndex<T, ID> index = this.index();
+        this.checkOnBuild();
+        nodeResults = new Object[index.rows.length];
+        nodeChildren = new Object[index.rows.length];
+        results = new ParallelTreeBuilder<>(index, resultMapper, threshold, nodeResults, nodeChildren).build(pool);
+        return results;
+    }
 
+    /**
+     * 校验父子关系: 所有的循环引用, 自引用(id == pid), pid 悬空(父节点不存在). O(n), 不需要先 toTree.
+     * 每次调用都按当前的树重新算, 增量修改后也准.
+     */
+    public TreeCheck<ID> validate() {
+        return new TreeCheck<>(this.index(), getPId, isRootNode);
     }
 
-    private boolean isRoot(T r, ID pid) {
-        boolean isRoot = false;
-        if (isRootNode != null) {
-            isRoot = isRootNode.test(r);
-        }else{
-            isRoot = pid == null || !dataMap.containsKey(pid);
+    private void checkOnBuild() {
+        if (!validateOnBuild) {
+            return;
+        }
+        TreeCheck<ID> check = this.validate();
+        if (!check.getCycles().isEmpty() || !check.getSelfReferences().isEmpty()) {
+            throw new IllegalStateException("父子关系有误: " + check);
         }
+    }
 
-        return isRoot;
+    /**
+     * 祖先/子孙查询: 是否在某节点之下 O(1), 子孙列表 O(1), 到根的路径 O(深度). 第一次调用时建, O(n), 不需要先 toTree.
+     * 增量修改后作废, 下次调用时重建.
+     *
+     * @throws RuntimeException 有循环引用
+     */
+    public AncestorIndex<T, ID> ancestry() {
+        if (ancestry == null) {
+            ancestry = new AncestorIndex<>(this.index());
+        }
+        return ancestry;
     }
 
-    /*? 加了 isRootNode 判断貌似没有用. 利用 treeMeta 处理 tree 过程中, 没有上级的 pid 不会别人处理到.
-    * 就不会放到 transed 集合中. 这样, 到自己时, 依然往下执行. 就还在 root 层级上了.*/
+    /**
+     * 同 {@link #rollup(Numbor.Rule)}, strict 规则(同 Numbor 默认)
+     */
+    public TreeRollup<T, R> rollup() {
+        return rollup(Numbor.Rule.strict());
+    }
 
-    public List<R> toTree() {
+    /**
+     * 子树汇总: 声明字段和写回结果的 setter, {@link TreeRollup#run()} 一次后序遍历算完. 树还没建时先 {@link #toTree()}.
+     * 增量修改后要重新 run.
+     *
+     * @param rule null, NaN, Infinity 的处理规则
+     */
+    public TreeRollup<T, R> rollup(Numbor.Rule rule) {
+        this.getResults();
+        return new TreeRollup<>(this.index, this.ancestry().preorder(), nodeResults, rule);
+    }
 
-        if (treeMeta==null) {
-            this.parseTreeMeta();
+    /**
+     * 往建好的树里加一行, 挂到父节点的子节点末尾. 树还没建时先 {@link #toTree()}.
+     * <p>
+     * 新节点 mapProperties 后 onChildren(新节点, null), 加进父节点的子集(就是之前传给 onChildren 的那个 List),
+     * 再自底向上对父节点及每个祖先重新 onChildren, 子集的个数, 求和之类的聚合随之更新. 代价是 O(深度) 次 onChildren.
+     * 父节点不存在时同建树: 无指定根规则则作为新的根, 加到 {@link #getResults()} 末尾.
+     * <p>
+     * 只是加节点, 之前因 pid 悬空成了根的行, 不会因为它的父节点到了就挂过去, 需要的话用 {@link #reparent}.
+     * 增量修改都不是线程安全的.
+     * <p>
+     * 中间节点的行排在它的根之前时, 建树结果的顶层还单独有它的一份(同旧版). 增量修改只维护根下面的那份, 顶层那份不更新.
+     *
+     * @return 新节点的结果
+     * @throws IllegalArgumentException id 为 null 或已存在; 指定了根规则, 却不是根, 父节点又不存在
+     */
+    @SuppressWarnings("unchecked")
+    public R insert(T row) {
+        List<R> results = this.getResults();
+        TreeIndex<T, ID> index = this.index;
+        ID id = getId.apply(row);
+        if (id == null) {
+            throw new IllegalArgumentException("id == null");
         }
-        if (results!=null) {
-            return results;
+        ID pid = getPId.apply(row);
+        int p = pid == null || pid.equals(id) ? TreeIndex.NONE : index.index.get(pid);
+        boolean root = isRootNode != null ? isRootNode.test(row) : p == TreeIndex.NONE;
+        if (!root && p == TreeIndex.NONE) {
+            throw new IllegalArgumentException("父节点不存在: pid=" + pid);
         }
-        // 检验引用链 (貌似禁止id列重复, 已经避免了循环引用)
-        // this.validateCircleRefer();
-
-        results = new ArrayList<>();
-
-        for ( Map.Entry<ID, List<ID>> m : treeMeta.entrySet() ) {
-            // key 去 dataMap 中拿到 行数据, 转换成 javabean
-            // 遍历value(list) 递归
-            ID key = m.getKey();
-            if ( transed.contains(key) ) {
-                continue;
-            }
-            R  res = toTree0(key,0, Optional.empty());
-            if ( res != null ) {
+        int c = index.append(row, id);
+        if (nodeResults.length < index.rows.length) {
+            nodeResults = Arrays.copyOf(nodeResults, index.rows.length);
+            nodeChildren = Arrays.copyOf(nodeChildren, index.rows.length);
+        }
+        treeMeta = null;
+        ancestry = null;
+        if (root) {
+            index.addTop(c);
+            R res = resultMapper.mapNode(row, 0, null);
+            nodeResults[c] = res;
+            resultMapper.onChildren(res, null);
+            if (res != null) {
                 results.add(res);
             }
-            transed.add(key);
+            return res;
         }
-        return results;
+        index.attach(p, c);
+        R res = resultMapper.mapNode(row, index.depth(c), (R) nodeResults[p]);
+        nodeResults[c] = res;
+        resultMapper.onChildren(res, null);
+        this.addChild(p, res);
+        this.refresh(p, TreeIndex.NONE);
+        return res;
     }
 
-    private R toTree0( ID id, int lvl, Optional<R> parent ) {
-        T row = dataMap.get(id);
-        // row 有可能为空, 因为 pid 在id列中没有, 而是指向其他表, 或者错误
-        if ( row == null ) {
-            log.debug("id( " + id + " )对应的数据行不存在");
-            return null;
-        }
-
-        // parent 参数的作用: 自顶向下, 可将祖先的信息一直传递到叶子
-        R        res      = resultMapper.mapProperties(row, lvl, parent);
-        List<ID> childIds = treeMeta.get(id);
-        if ( childIds != null && childIds.size() > 0) {
-            List<R> children = new ArrayList<>();
-            for ( ID cid : childIds ) {
-                R e = toTree0(cid, lvl+1, Optional.of(res));
-                if (e!=null) {
-                    children.add(e);
+    /**
+     * 从建好的树里删掉 id 及其所有子孙, 然后自底向上对原父节点及每个祖先重新 onChildren. 树还没建时先 {@link #toTree()}.
+     *
+     * @return 删掉的行数, id 不存在时为 0
+     */
+    public int delete(ID id) {
+        List<R> results = this.getResults();
+        TreeIndex<T, ID> index = this.index;
+        int x = index.index.get(id);
+        if (x < 0) {
+            return 0;
+        }
+        int p = index.parent[x];
+        Object res = nodeResults[x];
+        index.detach(x);
+        if (p == TreeIndex.NONE) {
+            removeSame(results, res);
+        } else {
+            this.removeChild(p, res);
+        }
+        // 删子孙, 子孙都已不在任何别的节点之下
+        int removed = 0;
+        int[] stack = {x};
+        int top = 1;
+        while (top > 0) {
+            int node = stack[--top];
+            for (int c = index.firstChild[node]; c != TreeIndex.NONE; c = index.nextSibling[c]) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top << 1);
                 }
-                transed.add(cid);
+                stack[top++] = c;
             }
-            // 设置 children
-            // 对子集数据聚合运算, 并将结果封装进 parent
-            resultMapper.onChildren(res, children);
-        }else {
-            resultMapper.onChildren(res, null);
+            index.firstChild[node] = index.lastChild[node] = TreeIndex.NONE;
+            index.childCount[node] = 0;
+            index.remove(node);
+            nodeResults[node] = null;
+            nodeChildren[node] = null;
+            removed++;
         }
-        return res;
+        treeMeta = null;
+        ancestry = null;
+        if (p != TreeIndex.NONE) {
+            this.refresh(p, TreeIndex.NONE);
+        }
+        return removed;
     }
 
-    public Map<ID, List<ID>> getTreeMeta() {
-        if (treeMeta==null) {
-            this.parseTreeMeta();
+    /**
+     * 把 id 连同子树挪到 newPid 下(子节点末尾), newPid 为 null 则成为根, 加到 {@link #getResults()} 末尾.
+     * 原父节点和新父节点两条祖先路径各自底向上重新 onChildren, 公共祖先只调一次, 且在两条分支之后.
+     * <p>
+     * 子树里的结果不会重新 mapProperties, 其中由层级或父节点得来的属性不会更新. 行对象里的 pid 字段也不会改, 需要的话自己设.
+     *
+     * @throws IllegalArgumentException id 或 newPid 不存在, 或 newPid 是 id 自己或它的子孙
+     */
+    @SuppressWarnings("unchecked")
+    public void reparent(ID id, ID newPid) {
+        List<R> results = this.getResults();
+        TreeIndex<T, ID> index = this.index;
+        int x = index.index.get(id);
+        if (x < 0) {
+            throw new IllegalArgumentException("id 不存在: " + id);
+        }
+        int np = TreeIndex.NONE;
+        if (newPid != null) {
+            np = index.index.get(newPid);
+            if (np < 0) {
+                throw new IllegalArgumentException("父节点不存在: pid=" + newPid);
+            }
+            if (index.isUnder(np, x)) {
+                throw new IllegalArgumentException("出现循环引用: " + newPid + " 在 " + id + " 之下");
+            }
+        }
+        int op = index.parent[x];
+        if (op == np) {
+            return;
+        }
+        Object res = nodeResults[x];
+        index.detach(x);
+        if (op == TreeIndex.NONE) {
+            removeSame(results, res);
+        } else {
+            this.removeChild(op, res);
+        }
+        if (np == TreeIndex.NONE) {
+            index.addTop(x);
+            if (res != null) {
+                results.add((R) res);
+            }
+        } else {
+            index.attach(np, x);
+            this.addChild(np, res);
+        }
+        treeMeta = null;
+        ancestry = null;
+        // 两条路径在公共祖先处汇合, 先各自走到它之前, 再从它往上
+        int lca = op != TreeIndex.NONE && np != TreeIndex.NONE ? index.commonAncestor(op, np) : TreeIndex.NONE;
+        if (op != TreeIndex.NONE) {
+            this.refresh(op, lca);
+        }
+        if (np != TreeIndex.NONE) {
+            this.refresh(np, lca);
+        }
+        if (lca != TreeIndex.NONE) {
+            this.refresh(lca, TreeIndex.NONE);
         }
-        return treeMeta;
     }
 
-    public List<R> getResults() {
-        if (results==null) {
-            this.toTree();
+    /**
+     * 自 node 起, 自底向上重新 onChildren, 到 stop(不含)为止
+     */
+    @SuppressWarnings("unchecked")
+    private void refresh(int node, int stop) {
+        TreeIndex<T, ID> index = this.index;
+        for (int a = node; a != stop; a = index.parent[a]) {
+            resultMapper.onChildren((R) nodeResults[a], (List<R>) nodeChildren[a]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addChild(int p, Object res) {
+        List<R> children = (List<R>) nodeChildren[p];
+        if (children == null) {
+            nodeChildren[p] = children = new ArrayList<>();
+        }
+        if (res != null) {
+            children.add((R) res);
         }
-        return results;
     }
 
-    private void validateCircleRefer() {
+    @SuppressWarnings("unchecked")
+    private void removeChild(int p, Object res) {
+        List<R> children = (List<R>) nodeChildren[p];
+        if (children != null) {
+            removeSame(children, res);
+            // 同建树: 没有子节点的传 null
+            if (index.childCount[p] == 0) {
+                nodeChildren[p] = null;
+            }
+        }
+    }
 
-        for ( Map.Entry<ID, List<ID>> e : treeMeta.entrySet() ) {
-            // 校验引用错乱用的
-            Set<ID> referLink = new HashSet<>();
-            // 校验循环引用的, 同一个分支上不允许出现两次一样的节点
-            Set<ID> pidSet= new HashSet<>();
-            pidSet.add(e.getKey());
-            validateCircleRefer0(e.getKey(), referLink, pidSet);
+    /**
+     * 按 == 删, R 可能重写了 equals(如 Map)
+     */
+    private static void removeSame(List<?> list, Object o) {
+        if (o == null) {
+            return;
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == o) {
+                list.remove(i);
+                return;
+            }
         }
+    }
 
+    /**
+     * 父子关系: 顶层遍历顺序的 id -&gt; 子节点 id 列表, 没有子节点的根对应 null
+     */
+    public Map<ID, List<ID>> getTreeMeta() {
+        if (treeMeta == null) {
+            TreeIndex<T, ID> index = this.index();
+            Map<ID, List<ID>> meta = new LinkedHashMap<>();
+            for (int i = 0; i < index.topCount; i++) {
+                int node = index.tops[i];
+                // 增量修改后: 删掉的, 以及挪到别人下面又没有子节点的, 不再是 key
+                if (index.alive(node) && (index.parent[node] == TreeIndex.NONE || index.childCount[node] > 0)) {
+                    this.putMeta(meta, node);
+                }
+            }
+            treeMeta = meta;
+        }
+        return treeMeta;
+    }
 
+    private void putMeta(Map<ID, List<ID>> meta, int node) {
+        List<ID> childIds = null;
+        if (index.childCount[node] > 0) {
+            childIds = new ArrayList<>(index.childCount[node]);
+            for (int c = index.firstChild[node]; c != TreeIndex.NONE; c = index.nextSibling[c]) {
+                childIds.add(index.id(c));
+            }
+        }
+        meta.put(index.id(node), childIds);
+    }
 
+    public List<R> getResults() {
+        if (results==null) {
+            this.toTree();
+        }
+        return results;
     }
 
-    private void validateCircleRefer0(ID key, Set<ID> referLink, Set<ID> pidSet ) {
-        referLink.add(key);
-        List<ID> ids = treeMeta.get(key);
-        if ( ids==null ) {
-            return;
+    /**
+     * 流式建树. 每行到达时就挂到父节点下, 父节点还没到的先按 pid 暂存, 父节点到了再挂上.
+     * 行的顺序随意, 结果同把所有行按到达顺序放进 List 再建.
+     * 除了行对象本身, 每行只多几个 int 和 id 索引的一格.
+     */
+    public static final class Builder<T, R, ID> {
+        private final TreeIndex<T, ID> index;
+        private final Function<T, ID> getId;
+        private final Function<T, ID> getPId;
+        private final ResultMapper<T, R> resultMapper;
+        private final Predicate<T> isRootNode;
+        private boolean built;
+
+        private Builder(Function<T, ID> getId, Function<T, ID> getPId, ResultMapper<T, R> resultMapper, Predicate<T> isRootNode) {
+            this.index = new TreeIndex<>(16, getId, getPId, isRootNode);
+            this.getId = getId;
+            this.getPId = getPId;
+            this.resultMapper = resultMapper;
+            this.isRootNode = isRootNode;
         }
 
-        for ( ID id : ids ) {
-            if ( pidSet.contains(id) ) {
-                throw new RuntimeException("出现循环引用: "+pidSet + " -> " + id);
+        /**
+         * @throws RuntimeException id 重复
+         */
+        public Builder<T, R, ID> add(T row) {
+            if (built) {
+                throw new IllegalStateException("already built");
             }
+            index.add(row);
+            return this;
+        }
 
-            if(referLink.contains(id)){
-                throw new RuntimeException("引用错乱, 同一节点只能有唯一的父节点: "+referLink + " -> " + id);
+        public TreeTableHandler<T, R, ID> build() {
+            if (built) {
+                throw new IllegalStateException("already built");
             }
-            Set<ID> pidSetClone = new HashSet<>(pidSet);
-            pidSetClone.add(id);  // 增加当前节点
-            validateCircleRefer0(id, referLink, pidSetClone);
-
+            built = true;
+            return new TreeTableHandler<>(index.finish(), getId, getPId, resultMapper, isRootNode);
         }
     }
 
+    /**
+     * ResultSet 当前行 ==&gt; 行对象
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        /**
+         * @param rowNum 第几行, 0 开始
+         */
+        T mapRow(ResultSet rs, int rowNum) throws SQLException;
+    }
+
     /**
      * 数据行转换为结果
      * 1. 普通属性转换;
@@ -268,6 +591,14 @@ public class TreeTableHandler<T, R, ID> {
          */
         R mapProperties(T row, int lvl, Optional<R> parent);
 
+        /**
+         * 同 {@link #mapProperties(Object, int, Optional)}, 父节点直接给, 根节点为 null. 建树时调用的是这个.
+         * 默认包一层 Optional 转给 mapProperties; 节点很多时可以覆盖它, 省掉每个节点一个 Optional.
+         */
+        default R mapNode(T row, int lvl, R parent) {
+            return mapProperties(row, lvl, Optional.ofNullable(parent));
+        }
+
         /**
          * 当子集数据准备好后调用. <em>通常你需要</em>, <code>parent.setChildren(children)</code>.
          * 1. 决定了处理好的子集如何封装. 如设置哪个字段.
@@ -0,0 +1,144 @@
+package com.wtgroup.sugar.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 显式栈的深度优先遍历: 先序 mapProperties, 后序 onChildren, 调用顺序同递归版
+ *
+ * @author L&J
+ * @version 0.1
+ * @date 2026/10/18
+ */
+final class TreeWalker<T, R, ID> {
+
+    private final TreeIndex<T, ID> index;
+    private final TreeTableHandler.ResultMapper<T, R> resultMapper;
+    /**
+     * 处理过的节点, 不跟踪时为 null
+     */
+    final boolean[] visited;
+    /**
+     * 在当前路径上的节点, 再次遇到说明有环. 不跟踪时为 null(调用方已确认无环).
+     */
+    private final boolean[] onPath;
+
+    private int[] nodes = new int[64];
+    /**
+     * 下一个要处理的子节点
+     */
+    private int[] cursors = new int[64];
+    private int[] levels = new int[64];
+    private Object[] results = new Object[64];
+    private Object[] children = new Object[64];
+    private int depth;
+
+    /**
+     * 按节点号记下结果和传给 onChildren 的子集, 增量修改时用. 为 null 不记.
+     */
+    private Object[] nodeResults;
+    private Object[] nodeChildren;
+
+    /**
+     * @param track 是否记录 visited 并检查环
+     */
+    TreeWalker(TreeIndex<T, ID> index, TreeTableHandler.ResultMapper<T, R> resultMapper, boolean track) {
+        this.index = index;
+        this.resultMapper = resultMapper;
+        this.visited = track ? new boolean[index.size] : null;
+        this.onPath = track ? new boolean[index.size] : null;
+    }
+
+    TreeWalker<T, R, ID> record(Object[] nodeResults, Object[] nodeChildren) {
+        this.nodeResults = nodeResults;
+        this.nodeChildren = nodeChildren;
+        return this;
+    }
+
+    /**
+     * 处理以 top 为根的子树
+     *
+     * @param lvl    top 的层级
+     * @param parent top 的父节点结果, 根为 null
+     * @return top 的结果
+     */
+    @SuppressWarnings("unchecked")
+    R walk(int top, int lvl, R parent) {
+        TreeIndex<T, ID> index = this.index;
+        this.push(top, lvl, resultMapper.mapNode(index.row(top), lvl, parent));
+        R root = null;
+        while (depth > 0) {
+            int f = depth - 1;
+            int c = cursors[f];
+            if (c != TreeIndex.NONE) {
+                cursors[f] = index.nextSibling[c];
+                if (onPath != null && onPath[c]) {
+                    throw new RuntimeException("出现循环引用: " + this.path() + " -> " + index.id(c));
+                }
+                int childLvl = levels[f] + 1;
+                this.push(c, childLvl, resultMapper.mapNode(index.row(c), childLvl, (R) results[f]));
+                continue;
+            }
+            // 子节点都处理完了
+            int node = nodes[f];
+            R res = (R) results[f];
+            List<R> list = (List<R>) children[f];
+            if (list == null && index.childCount[node] > 0) {
+                list = new ArrayList<>(0);
+            }
+            resultMapper.onChildren(res, list);
+            if (nodeChildren != null) {
+                nodeChildren[node] = list;
+            }
+            if (onPath != null) {
+                onPath[node] = false;
+            }
+            results[f] = null;
+            children[f] = null;
+            depth--;
+            if (depth == 0) {
+                root = res;
+            } else if (res != null) {
+                int pf = depth - 1;
+                List<R> siblings = (List<R>) children[pf];
+                if (siblings == null) {
+                    children[pf] = siblings = new ArrayList<>(index.childCount[nodes[pf]]);
+                }
+                siblings.add(res);
+            }
+        }
+        return root;
+    }
+
+    private void push(int node, int lvl, R res) {
+        if (depth == nodes.length) {
+            int cap = depth << 1;
+            nodes = Arrays.copyOf(nodes, cap);
+            cursors = Arrays.copyOf(cursors, cap);
+            levels = Arrays.copyOf(levels, cap);
+            results = Arrays.copyOf(results, cap);
+            children = Arrays.copyOf(children, cap);
+        }
+        nodes[depth] = node;
+        cursors[depth] = index.firstChild[node];
+        levels[depth] = lvl;
+        results[depth] = res;
+        depth++;
+        if (nodeResults != null) {
+            nodeResults[node] = res;
+        }
+        if (visited != null) {
+            visited[node] = true;
+            onPath[node] = true;
+        }
+    }
+
+    private List<ID> path() {
+        List<ID> path = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            path.add(index.id(nodes[i]));
+        }
+        return path;
+    }
+}
@@ -0,0 +1,62 @@
+package com.wtgroup.sugar.stopwatch;
+
+/**
+ * 时钟, {@link StopWatch}, {@link ConcurrentStopWatch}, {@link SpeedStator} 共用
+ * <p>
+ * <ul>
+ * <li>{@link #system()}: 直接调 {@link System#nanoTime()} / {@link System#currentTimeMillis()}, 默认.</li>
+ * <li>{@link #coarse()}: 读一个由后台守护线程每毫秒刷新的 volatile 字段, 比系统调用便宜, 精度毫秒.
+ * 适合 SpeedStator 这种毫秒级的统计; 亚毫秒的任务计时不要用.</li>
+ * <li>{@link ManualClock}: 手动拨动, 单元测试里让速率计算可重复, 不用真的等.</li>
+ * </ul>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public interface Clock {
+
+    /**
+     * 单调时钟, 纳秒, 只用于求时间差, 同 {@link System#nanoTime()}
+     */
+    long nanoTime();
+
+    /**
+     * 墙上时间, 毫秒, 同 {@link System#currentTimeMillis()}
+     */
+    long currentTimeMillis();
+
+    static Clock system() {
+        return SystemClock.INSTANCE;
+    }
+
+    /**
+     * 进程内共享的粗粒度时钟, 第一次调用时启动刷新线程
+     */
+    static Clock coarse() {
+        return CoarseClock.instance();
+    }
+
+    final class SystemClock implements Clock {
+
+        static final SystemClock INSTANCE = new SystemClock();
+
+        private SystemClock() {
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return "SystemClock";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 粗粒度时钟, 见 {@link Clock#coarse()}
+ * <p>
+ * 一个守护线程每 {@value #TICK_MILLIS}ms 读一次系统时钟, 写进 volatile 字段; 读取方只读字段, 没有系统调用.
+ * 刷新线程被调度延迟时, 读到的时间会落后, 但不会倒退.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+final class CoarseClock implements Clock {
+
+    static final long TICK_MILLIS = 1;
+
+    private static volatile CoarseClock instance;
+
+    private volatile long nanoTime;
+    private volatile long currentTimeMillis;
+
+    private CoarseClock() {
+        this.update();
+        Thread ticker = new Thread(this::run, "coarse-clock-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    static CoarseClock instance() {
+        CoarseClock clock = instance;
+        if (clock == null) {
+            synchronized (CoarseClock.class) {
+                clock = instance;
+                if (clock == null) {
+                    instance = clock = new CoarseClock();
+                }
+            }
+        }
+        return clock;
+    }
+
+    private void update() {
+        this.nanoTime = System.nanoTime();
+        this.currentTimeMillis = System.currentTimeMillis();
+    }
+
+    private void run() {
+        long tick = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+        while (true) {
+            LockSupport.parkNanos(tick);
+            // 墙上时间被往回调时, 不跟着倒退
+            long millis = System.currentTimeMillis();
+            this.nanoTime = System.nanoTime();
+            if (millis > this.currentTimeMillis) {
+                this.currentTimeMillis = millis;
+            }
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return this.nanoTime;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return this.currentTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "CoarseClock";
+    }
+}
@@ -0,0 +1,377 @@
+package com.wtgroup.sugar.stopwatch;
+
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多线程秒表
+ * <p>
+ * 用法同 {@link StopWatch}, 但每个线程有自己的当前任务, 互不干扰, 适合请求线程等并发场景.
+ * start/stop 只读写本线程的状态, 不加锁: 完成的任务放进本线程自己的无锁队列, 总数和总耗时记在 {@link LongAdder} 上.
+ * 查询任务列表/打印时, 才把各线程的队列合并, 按开始时刻排序.
+ * <p>
+ * 同 StopWatch, 容忍 start, stop 不成对(按线程判断): 同一线程重复 start 同名任务忽略, start 另一个任务先结束上一个, 没有 start 就 stop 只记警告.
+ * <p>
+ * 每个线程最多保留最近 maxTaskInfoSize 条任务; 合并视图同样只取最近 maxTaskInfoSize 条.
+ * 用过的线程状态一直保留(线程池线程会复用), 线程数很多且不断新建时, 请关闭 keepTaskList.
+ *
+ * <pre>
+ * ConcurrentStopWatch stopWatch = new ConcurrentStopWatch("api");
+ * // 各请求线程
+ * stopWatch.start("查库");
+ * ...
+ * stopWatch.stop();
+ * // 任意线程
+ * log.info(stopWatch.prettyString());
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public class ConcurrentStopWatch {
+
+	/**
+	 * 秒表唯一标识
+	 */
+	private final String id;
+	private volatile boolean keepTaskList;
+	private volatile int maxTaskInfoSize = 1000;
+	private volatile TraceEventWriter traceWriter;
+	private volatile Clock clock = Clock.system();
+
+	private final LongAdder taskCount = new LongAdder();
+	private final LongAdder totalTimeNanos = new LongAdder();
+
+	/**
+	 * 所有用过的线程的状态, 合并时遍历
+	 */
+	private final Queue<ThreadState> states = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<ThreadState> local = ThreadLocal.withInitial(this::newState);
+
+	public ConcurrentStopWatch() {
+		this(StrUtil.EMPTY);
+	}
+
+	public ConcurrentStopWatch(String id) {
+		this(id, true);
+	}
+
+	/**
+	 * @param keepTaskList 是否保留任务列表, {@code false} 时只统计总数和总耗时
+	 */
+	public ConcurrentStopWatch(String id, boolean keepTaskList) {
+		this.id = id;
+		this.keepTaskList = keepTaskList;
+	}
+
+	private ThreadState newState() {
+		ThreadState state = new ThreadState(Thread.currentThread().getName());
+		this.states.add(state);
+		return state;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public ConcurrentStopWatch setKeepTaskList(boolean keepTaskList) {
+		this.keepTaskList = keepTaskList;
+		return this;
+	}
+
+	public ConcurrentStopWatch setMaxTaskInfoSize(int n) {
+		this.maxTaskInfoSize = Math.max(n, 1);
+		return this;
+	}
+
+	/**
+	 * 换时钟, 见 {@link StopWatch#setClock(Clock)}. 请在计时开始前设置.
+	 */
+	public ConcurrentStopWatch setClock(Clock clock) {
+		if (clock == null) {
+			throw new IllegalArgumentException("clock must not be null");
+		}
+		this.clock = clock;
+		return this;
+	}
+
+	public Clock getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * 任务结束时写一个 trace 事件, 各线程在时间线上各占一行. 传 null 关闭. 秒表不负责关闭 writer.
+	 */
+	public ConcurrentStopWatch setTraceWriter(TraceEventWriter traceWriter) {
+		this.traceWriter = traceWriter;
+		return this;
+	}
+
+	/**
+	 * 本线程开始默认的新任务
+	 */
+	public void start() {
+		start(StrUtil.EMPTY);
+	}
+
+	/**
+	 * 本线程开始指定名称的新任务. 本线程上一个任务没有结束的, 同名忽略, 不同名先结束它.
+	 */
+	public void start(String taskName) {
+		if (taskName == null) {
+			taskName = StrUtil.EMPTY;
+		}
+		ThreadState state = this.local.get();
+		if (state.currentTaskName != null) {
+			if (state.currentTaskName.equals(taskName)) {
+				log.debug("`{}` already running, return.", taskName);
+				return;
+			} else {
+				log.debug("previous task `{}` isn't stop normally, force to stop, then start current task `{}`", state.currentTaskName, taskName);
+				this.stop(state, null);
+			}
+		}
+
+		long now = this.clock.nanoTime();
+		StopWatch.TaskInfo taskInfo = new StopWatch.TaskInfo(taskName);
+		taskInfo.setStartTimeNanos(now);
+		taskInfo.setThreadName(state.threadName);
+		state.currentTaskInfo = taskInfo;
+		state.startTimeNanos = now;
+		state.currentTaskName = taskName;
+	}
+
+	/**
+	 * 结束本线程的当前任务
+	 */
+	public void stop() {
+		this.stop(this.local.get(), null);
+	}
+
+	public void stop(String message, Object... args) {
+		this.stop(this.local.get(), message, args);
+	}
+
+	private void stop(ThreadState state, String message, Object... args) {
+		if (state.currentTaskName == null) {
+			log.warn("Can't stop StopWatch: it's not running");
+			return;
+		}
+		final long lastTime = this.clock.nanoTime() - state.startTimeNanos;
+		StopWatch.TaskInfo taskInfo = state.currentTaskInfo;
+		taskInfo.setTimeNanos(lastTime);
+		taskInfo.addMessage(message, args);
+		this.finish(state, taskInfo);
+		state.currentTaskName = null;
+	}
+
+	/**
+	 * 记一个已经结束的任务, 不影响本线程正在进行的任务. 给自己计时的调用方用(如 {@link TimedProxy}), 可以嵌套.
+	 *
+	 * @param startTimeNanos 开始时刻, 本秒表时钟的 {@link Clock#nanoTime()}
+	 */
+	void record(String taskName, long startTimeNanos, long timeNanos) {
+		ThreadState state = this.local.get();
+		StopWatch.TaskInfo taskInfo = new StopWatch.TaskInfo(taskName, timeNanos);
+		taskInfo.setStartTimeNanos(startTimeNanos);
+		taskInfo.setThreadName(state.threadName);
+		this.finish(state, taskInfo);
+	}
+
+	private void finish(ThreadState state, StopWatch.TaskInfo taskInfo) {
+		long lastTime = taskInfo.getTimeNanos();
+		this.totalTimeNanos.add(lastTime);
+		this.taskCount.increment();
+		TraceEventWriter traceWriter = this.traceWriter;
+		if (traceWriter != null) {
+			traceWriter.task(StrUtil.isEmpty(this.id) ? "stopwatch" : this.id, taskInfo, this.clock);
+		}
+
+		if (this.keepTaskList) {
+			state.tasks.add(taskInfo);
+			// 只有本线程会删自己队列的头, 不会和别人冲突
+			if (++state.taskSize > this.maxTaskInfoSize) {
+				state.tasks.poll();
+				--state.taskSize;
+			}
+		}
+		state.lastTaskInfo = taskInfo;
+	}
+
+	public void addData(Map<String, Object> data) {
+		ThreadState state = this.local.get();
+		if (state.currentTaskName != null) {
+			state.currentTaskInfo.addData(data);
+		} else {
+			log.warn("Can't add data to StopWatch: it's not running");
+		}
+	}
+
+	public void addData(String key, Object value) {
+		ThreadState state = this.local.get();
+		if (state.currentTaskName != null) {
+			state.currentTaskInfo.addData(key, value);
+		} else {
+			log.warn("Can't add data to StopWatch: it's not running");
+		}
+	}
+
+	public void addMessage(String message, Object... args) {
+		ThreadState state = this.local.get();
+		if (state.currentTaskName != null) {
+			state.currentTaskInfo.addMessage(message, args);
+		} else {
+			log.warn("Can't add data to StopWatch: it's not running");
+		}
+	}
+
+	/**
+	 * 本线程是否有正在运行的任务
+	 */
+	public boolean isRunning() {
+		return this.local.get().currentTaskName != null;
+	}
+
+	/**
+	 * 本线程的当前任务名, {@code null} 表示无任务
+	 */
+	public String currentTaskName() {
+		return this.local.get().currentTaskName;
+	}
+
+	/**
+	 * 正在运行任务的线程数, 各线程状态的近似值
+	 */
+	public int getRunningCount() {
+		int n = 0;
+		for (ThreadState state : this.states) {
+			if (state.currentTaskName != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * 本线程最后完成的任务
+	 *
+	 * @throws IllegalStateException 本线程无任务
+	 */
+	public StopWatch.TaskInfo getLastTaskInfo() throws IllegalStateException {
+		StopWatch.TaskInfo taskInfo = this.local.get().lastTaskInfo;
+		if (taskInfo == null) {
+			throw new IllegalStateException("No tasks run: can't get last task info");
+		}
+		return taskInfo;
+	}
+
+	/**
+	 * 所有线程所有任务的总耗时（纳秒）
+	 */
+	public long getTotalTimeNanos() {
+		return this.totalTimeNanos.sum();
+	}
+
+	public long getTotalTimeMillis() {
+		return DateUtil.nanosToMillis(this.getTotalTimeNanos());
+	}
+
+	public double getTotalTimeSeconds() {
+		return DateUtil.nanosToSeconds(this.getTotalTimeNanos());
+	}
+
+	/**
+	 * 所有线程的任务数
+	 */
+	public int getTaskCount() {
+		return (int) this.taskCount.sum();
+	}
+
+	/**
+	 * 合并各线程的任务, 按开始时刻排序, 最多最近 maxTaskInfoSize 条
+	 */
+	public StopWatch.TaskInfo[] getTaskInfo() {
+		if (!this.keepTaskList) {
+			throw new UnsupportedOperationException("Task info is not being kept!");
+		}
+		List<StopWatch.TaskInfo> all = new ArrayList<>();
+		for (ThreadState state : this.states) {
+			all.addAll(state.tasks);
+		}
+		all.sort(Comparator.comparingLong(StopWatch.TaskInfo::getStartTimeNanos));
+		int from = Math.max(0, all.size() - this.maxTaskInfoSize);
+		return all.subList(from, all.size()).toArray(new StopWatch.TaskInfo[0]);
+	}
+
+	public String shortSummary() {
+		return StrUtil.format("StopWatch '{}': running time = {}, tasks = {}, threads = {}",
+				this.id, Duration.ofNanos(this.getTotalTimeNanos()), this.getTaskCount(), this.states.size());
+	}
+
+	public String prettyString() {
+		StringBuilder sb = new StringBuilder(shortSummary());
+		sb.append(FileUtil.getLineSeparator());
+		if (!this.keepTaskList) {
+			sb.append("No task info kept");
+		} else {
+			StopWatch.appendTaskTable(sb, getTaskInfo(), getTotalTimeNanos(), true);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(shortSummary());
+		if (this.keepTaskList) {
+			long total = getTotalTimeNanos();
+			for (StopWatch.TaskInfo task : getTaskInfo()) {
+				sb.append("; [").append(task.getTaskName()).append("]@").append(task.getThreadName())
+						.append(" took ").append(Duration.ofNanos(task.getTimeNanos()));
+				long percent = Math.round(100.0 * task.getTimeNanos() / total);
+				sb.append(" = ").append(percent).append("%");
+				if (task.hasMessage()) {
+					sb.append(", ").append(task.messagePrint());
+				}
+			}
+		} else {
+			sb.append("; no task info kept");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 单个线程的状态, 只有所属线程写
+	 */
+	private static final class ThreadState {
+		final String threadName;
+		/**
+		 * volatile 只为 {@link #getRunningCount()} 能看到, 本线程读写无锁
+		 */
+		volatile String currentTaskName;
+		long startTimeNanos;
+		StopWatch.TaskInfo currentTaskInfo;
+		StopWatch.TaskInfo lastTaskInfo;
+		/**
+		 * 已完成的任务, 本线程入队和删头, 合并时别的线程遍历
+		 */
+		final Queue<StopWatch.TaskInfo> tasks = new ConcurrentLinkedQueue<>();
+		int taskSize;
+
+		ThreadState(String threadName) {
+			this.threadName = threadName;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 定长内存的对数-线性直方图, 记录延迟(纳秒)分布, 求分位数. 思路同 HdrHistogram.
+ * <p>
+ * 小于 2^precision 的值每个值一个桶, 精确; 再往上每翻一倍, 分 2^(precision-1) 个桶, 相对误差不超过 1/2^(precision-1).
+ * 默认 precision=7, 相对误差 < 1.6%, 覆盖整个 long 范围, 约 3700 个桶, 29KB.
+ * <p>
+ * 写入无锁: 桶计数是 {@link AtomicLongArray}, 总和是 {@link LongAdder}, 最大/最小值只在变大/变小时才 CAS.
+ * 读(分位数, 合并)时不阻塞写, 但和并发写之间不保证是一个一致的快照. 需要一致的区间快照, 用 {@link LatencyRecorder} 切换.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public class LatencyHistogram {
+
+    public static final int DEFAULT_PRECISION = 7;
+
+    private final int precision;
+    /**
+     * 2^precision, 线性区的桶数
+     */
+    private final int subBucketCount;
+    private final int halfSubBucketCount;
+
+    private final AtomicLongArray counts;
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision 精度位数, [2, 16]
+     */
+    public LatencyHistogram(int precision) {
+        if (precision < 2 || precision > 16) {
+            throw new IllegalArgumentException("precision must be in [2, 16]: " + precision);
+        }
+        this.precision = precision;
+        this.subBucketCount = 1 << precision;
+        this.halfSubBucketCount = subBucketCount >> 1;
+        this.counts = new AtomicLongArray(subBucketCount + (63 - precision) * halfSubBucketCount);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * 记录一个值, 负数按 0 记
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.getAndIncrement(indexOf(value));
+        sum.add(value);
+
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+        m = min.get();
+        while (value < m && !min.compareAndSet(m, value)) {
+            m = min.get();
+        }
+    }
+
+    int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - precision + 1;
+        int mantissa = (int) (value >>> shift);
+        return subBucketCount + (shift - 1) * halfSubBucketCount + (mantissa - halfSubBucketCount);
+    }
+
+    /**
+     * 桶内能表示的最大值
+     */
+    long highestEquivalentValue(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int i = index - subBucketCount;
+        int shift = i / halfSubBucketCount + 1;
+        long mantissa = i % halfSubBucketCount + halfSubBucketCount;
+        long lowest = mantissa << shift;
+        long highest = lowest + (1L << shift) - 1;
+        // 最高的桶会越过 long 范围
+        return highest < lowest ? Long.MAX_VALUE : highest;
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0, n = counts.length(); i < n; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return 没有记录时返回 0
+     */
+    public long getMax() {
+        long m = max.get();
+        return m == Long.MIN_VALUE ? 0 : m;
+    }
+
+    /**
+     * @return 没有记录时返回 0
+     */
+    public long getMin() {
+        long m = min.get();
+        return m == Long.MAX_VALUE ? 0 : m;
+    }
+
+    public double getMean() {
+        long total = getTotalCount();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    /**
+     * 分位值
+     *
+     * @param percentile 百分位, 如 99.9
+     * @return 没有记录时返回 0
+     */
+    public long getValueAtPercentile(double percentile) {
+        return valuesAtPercentiles(new double[]{percentile})[0];
+    }
+
+    /**
+     * 一趟扫描求多个分位值, percentiles 须升序
+     */
+    private long[] valuesAtPercentiles(double[] percentiles) {
+        long[] values = new long[percentiles.length];
+        long total = getTotalCount();
+        if (total == 0) {
+            return values;
+        }
+        long maxValue = getMax();
+        long acc = 0;
+        int p = 0;
+        for (int i = 0, n = counts.length(); i < n && p < percentiles.length; i++) {
+            acc += counts.get(i);
+            while (p < percentiles.length && acc >= Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * total))) {
+                values[p++] = Math.min(highestEquivalentValue(i), maxValue);
+            }
+        }
+        while (p < percentiles.length) {
+            values[p++] = maxValue;
+        }
+        return values;
+    }
+
+    /**
+     * 把 other 的记录合并进来. 两者精度须一致.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("precision mismatch: " + this.precision + " vs " + other.precision);
+        }
+        for (int i = 0, n = counts.length(); i < n; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.getAndAdd(i, c);
+            }
+        }
+        sum.add(other.sum.sum());
+        long m;
+        long om = other.max.get();
+        while (om > (m = max.get()) && !max.compareAndSet(m, om)) {
+            // retry
+        }
+        om = other.min.get();
+        while (om < (m = min.get()) && !min.compareAndSet(m, om)) {
+            // retry
+        }
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(this.precision);
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * 清空. 并发写入时调用, 会丢数据或数据不一致, 需由调用方保证没有写入.
+     */
+    public void reset() {
+        for (int i = 0, n = counts.length(); i < n; i++) {
+            counts.lazySet(i, 0);
+        }
+        sum.reset();
+        max.set(Long.MIN_VALUE);
+        min.set(Long.MAX_VALUE);
+    }
+
+    /**
+     * 当前的 p50/p90/p99/p999/max 快照
+     */
+    public Percentiles percentiles() {
+        long[] values = valuesAtPercentiles(new double[]{50, 90, 99, 99.9});
+        Percentiles percentiles = new Percentiles();
+        percentiles.count = getTotalCount();
+        percentiles.sum = sum.sum();
+        percentiles.p50 = values[0];
+        percentiles.p90 = values[1];
+        percentiles.p99 = values[2];
+        percentiles.p999 = values[3];
+        percentiles.max = getMax();
+        return percentiles;
+    }
+
+    /**
+     * 常用分位值快照, 单位纳秒
+     */
+    public static class Percentiles {
+        public long count;
+        /**
+         * 延迟总和, 从持久化记录还原的为 0
+         */
+        public long sum;
+        public long p50;
+        public long p90;
+        public long p99;
+        public long p999;
+        public long max;
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                    .append("count", count)
+                    .append("p50", Duration.ofNanos(p50))
+                    .append("p90", Duration.ofNanos(p90))
+                    .append("p99", Duration.ofNanos(p99))
+                    .append("p999", Duration.ofNanos(p999))
+                    .append("max", Duration.ofNanos(max))
+                    .toString();
+        }
+    }
+}
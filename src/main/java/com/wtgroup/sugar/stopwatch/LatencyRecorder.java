@@ -0,0 +1,153 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 区间延迟记录器
+ * <p>
+ * 写入方只往 active 直方图里写, 无锁. 到了报告时点, 读取方把 active 和 inactive 对调, 等还在旧直方图上写的线程写完(writer-reader phaser, 同 HdrHistogram 的 Recorder),
+ * 就得到一个没人再写的区间直方图, 再把它累加到累计直方图上. 写入方永远不会被阻塞.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+class LatencyRecorder {
+
+    // ---- writer-reader phaser ---- //
+    private final AtomicLong startEpoch = new AtomicLong(0);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    private volatile LatencyHistogram active;
+    private LatencyHistogram inactive;
+    /**
+     * 已经结束的区间累加, 不含 active
+     */
+    private final LatencyHistogram cumulative;
+
+    private final ReentrantLock readerLock = new ReentrantLock();
+    /**
+     * 最近一次读到的累计分位值, 给 {@link #peekTotal()} 抢不到锁时兜底
+     */
+    private volatile LatencyHistogram.Percentiles lastTotal = new LatencyHistogram.Percentiles();
+
+    LatencyRecorder() {
+        this(LatencyHistogram.DEFAULT_PRECISION);
+    }
+
+    LatencyRecorder(int precision) {
+        this.active = new LatencyHistogram(precision);
+        this.inactive = new LatencyHistogram(precision);
+        this.cumulative = new LatencyHistogram(precision);
+    }
+
+    void record(long value) {
+        long criticalValueAtEnter = startEpoch.getAndIncrement();
+        try {
+            active.record(value);
+        } finally {
+            if (criticalValueAtEnter < 0) {
+                oddEndEpoch.getAndIncrement();
+            } else {
+                evenEndEpoch.getAndIncrement();
+            }
+        }
+    }
+
+    /**
+     * 结束当前区间, 返回区间内的分位值, 并累加到累计直方图
+     *
+     * @return [区间, 累计]
+     */
+    LatencyHistogram.Percentiles[] flipInterval() {
+        readerLock.lock();
+        try {
+            LatencyHistogram closing = this.active;
+            this.inactive.reset();
+            this.active = this.inactive;
+            this.inactive = closing;
+            flipPhase();
+
+            this.cumulative.add(closing);
+            LatencyHistogram.Percentiles total = this.cumulative.percentiles();
+            this.lastTotal = total;
+            return new LatencyHistogram.Percentiles[]{closing.percentiles(), total};
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * 不结束区间, 看一眼当前区间和累计(含当前区间)的分位值. 不阻塞写入, 但和并发写入之间不保证一致.
+     *
+     * @return [区间, 累计]
+     */
+    LatencyHistogram.Percentiles[] peek() {
+        readerLock.lock();
+        try {
+            LatencyHistogram current = this.active;
+            LatencyHistogram total = this.cumulative.copy();
+            total.add(current);
+            return new LatencyHistogram.Percentiles[]{current.percentiles(), total.percentiles()};
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * 累计(含当前区间)的分位值, 给监控抓取用, 绝不阻塞: 正在切换区间时, 返回上一次读到的值.
+     */
+    LatencyHistogram.Percentiles peekTotal() {
+        if (!readerLock.tryLock()) {
+            return this.lastTotal;
+        }
+        try {
+            LatencyHistogram total = this.cumulative.copy();
+            total.add(this.active);
+            return this.lastTotal = total.percentiles();
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * 累计直方图(含当前区间)的副本
+     */
+    LatencyHistogram totalCopy() {
+        readerLock.lock();
+        try {
+            LatencyHistogram total = this.cumulative.copy();
+            total.add(this.active);
+            return total;
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    void reset() {
+        readerLock.lock();
+        try {
+            this.active.reset();
+            this.inactive.reset();
+            this.cumulative.reset();
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * 等待所有在旧阶段进入的写入方退出
+     */
+    private void flipPhase() {
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).lazySet(initialStartValue);
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (endEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+}
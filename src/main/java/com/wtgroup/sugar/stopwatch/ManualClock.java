@@ -0,0 +1,66 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 手动拨动的时钟, 测试用. 两个读数同步前进, 不会自己走.
+ *
+ * <pre>
+ * ManualClock clock = new ManualClock();
+ * SpeedStator speedStator = new SpeedStator("job").setClock(clock);
+ * speedStator.count(100);
+ * clock.advance(1, TimeUnit.SECONDS);
+ * speedStator.getRate1m(); // 100.0
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public class ManualClock implements Clock {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final long baseMillis;
+
+    /**
+     * 墙上时间从 0(1970-01-01) 开始
+     */
+    public ManualClock() {
+        this(0);
+    }
+
+    /**
+     * @param startMillis 墙上时间的初始值
+     */
+    public ManualClock(long startMillis) {
+        this.baseMillis = startMillis;
+    }
+
+    public ManualClock advance(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration must not be negative: " + duration);
+        }
+        this.nanos.addAndGet(unit.toNanos(duration));
+        return this;
+    }
+
+    public ManualClock advanceMillis(long millis) {
+        return this.advance(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long nanoTime() {
+        return this.nanos.get();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return this.baseMillis + TimeUnit.NANOSECONDS.toMillis(this.nanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "ManualClock[" + this.currentTimeMillis() + "ms]";
+    }
+}
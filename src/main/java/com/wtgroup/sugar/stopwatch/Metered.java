@@ -0,0 +1,32 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法调用计入 {@link StatorRegistry} 里的 {@link SpeedStator}, 每次调用计数一次, 并记录延迟. 见 {@link TimedProxy}.
+ * <p>
+ * 标在接口(或实现类)的方法上; 标在类型上, 对所有方法生效, 方法上的优先.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Documented
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Metered {
+
+    /**
+     * SpeedStator 的 tag. 默认 "接口简单类名.方法名"; 标在类型上时默认接口简单类名, 各方法共用一个.
+     */
+    String value() default "";
+
+    /**
+     * 是否记录延迟({@link SpeedStator#record(long)}), 否则只计数({@link SpeedStator#log()})
+     */
+    boolean latency() default true;
+}
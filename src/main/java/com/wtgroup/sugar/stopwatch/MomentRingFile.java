@@ -0,0 +1,442 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MomentInfo 历史, 内存映射的定长环形文件
+ * <p>
+ * 作为 {@link MomentSink} 挂到 SpeedStator 上, 每个日志时点写一条定长二进制记录, 满了从头覆盖, 只保留最近 capacity 条.
+ * 文件在打开时映射进内存, 之后写记录只是内存写, 没有任何 I/O 系统调用, 由操作系统择机刷盘; 进程崩溃也不丢(除非整机掉电).
+ * 而且只在日志时点才写, 计数路径完全不受影响.
+ * <p>
+ * 事后用 {@link #read(Path)} 读回, 或命令行:
+ * <pre>
+ * java -cp sugar.jar com.wtgroup.sugar.stopwatch.MomentRingFile order-job.ring          # 按运行汇总
+ * java -cp sugar.jar com.wtgroup.sugar.stopwatch.MomentRingFile order-job.ring replay   # 逐条回放
+ * </pre>
+ * <p>
+ * 文件格式(大端):
+ * <pre>
+ * 头 128 字节: magic(int) version(int) recordSize(int) capacity(int) writeSeq(long) createdMillis(long) tagLength(short) tag(UTF-8)
+ * 记录 144 字节: timestamp handledCount totalTime countDelta timeInterval (long)
+ *               rate1m rate5m rate15m ewma1m ewma5m ewma15m rateLimit (double)
+ *               latencyCount(long, -1 表示没有延迟) p50 p90 p99 p999 max (long, 纳秒)
+ * </pre>
+ * 第 n 条(从 0 计)记录在槽位 n % capacity, writeSeq 是已写条数, 先写记录再推进 writeSeq.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public class MomentRingFile implements MomentSink, Closeable {
+
+    public static final int MAGIC = 0x53474D52; // "SGMR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 128;
+    public static final int RECORD_SIZE = 144;
+    public static final String SUFFIX = ".ring";
+
+    private static final int OFFSET_RECORD_SIZE = 8;
+    private static final int OFFSET_CAPACITY = 12;
+    private static final int OFFSET_WRITE_SEQ = 16;
+    private static final int OFFSET_CREATED = 24;
+    private static final int OFFSET_TAG = 32;
+    private static final int MAX_TAG_BYTES = HEADER_SIZE - OFFSET_TAG - 2;
+
+    private final Path file;
+    private final String tag;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private long writeSeq;
+    private volatile boolean closed = false;
+
+    private MomentRingFile(Path file, String tag, int capacity, MappedByteBuffer buffer, long writeSeq) {
+        this.file = file;
+        this.tag = tag;
+        this.capacity = capacity;
+        this.buffer = buffer;
+        this.writeSeq = writeSeq;
+    }
+
+    /**
+     * 打开或新建. 已有文件且容量一致的, 接着往后写; 否则重建.
+     *
+     * @param capacity 保留的记录条数
+     */
+    public static MomentRingFile open(Path file, String tag, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        long size = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity too large: " + capacity);
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean reuse = channel.size() == size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            reuse = reuse && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getInt(OFFSET_RECORD_SIZE) == RECORD_SIZE && buffer.getInt(OFFSET_CAPACITY) == capacity;
+            long writeSeq = 0;
+            if (reuse) {
+                writeSeq = buffer.getLong(OFFSET_WRITE_SEQ);
+            } else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(OFFSET_RECORD_SIZE, RECORD_SIZE);
+                buffer.putInt(OFFSET_CAPACITY, capacity);
+                buffer.putLong(OFFSET_WRITE_SEQ, 0);
+                buffer.putLong(OFFSET_CREATED, System.currentTimeMillis());
+            }
+            byte[] tagBytes = truncate(tag == null ? "" : tag);
+            buffer.putShort(OFFSET_TAG, (short) tagBytes.length);
+            for (int i = 0; i < tagBytes.length; i++) {
+                buffer.put(OFFSET_TAG + 2 + i, tagBytes[i]);
+            }
+            // 映射建立后, 关闭通道不影响映射
+            return new MomentRingFile(file, tag, capacity, buffer, writeSeq);
+        }
+    }
+
+    /**
+     * 在 dir 下按 tag 建文件({@code <tag>.ring}), 挂到 stator 上
+     */
+    public static MomentRingFile attach(SpeedStator stator, Path dir, int capacity) throws IOException {
+        String name = stator.getTag().replaceAll("[^A-Za-z0-9._-]", "_");
+        MomentRingFile ringFile = open(dir.resolve(name + SUFFIX), stator.getTag(), capacity);
+        stator.addMomentSink(ringFile);
+        return ringFile;
+    }
+
+    @Override
+    public synchronized void accept(String tag, long timestamp, SpeedStator.MomentInfo m) {
+        if (closed) {
+            return;
+        }
+        int pos = HEADER_SIZE + (int) (writeSeq % capacity) * RECORD_SIZE;
+        MappedByteBuffer b = this.buffer;
+        b.putLong(pos, timestamp);
+        b.putLong(pos + 8, m.getHandledCount());
+        b.putLong(pos + 16, m.getTotalTime());
+        b.putLong(pos + 24, m.countDelta);
+        b.putLong(pos + 32, m.timeInterval);
+        b.putDouble(pos + 40, m.rate1m);
+        b.putDouble(pos + 48, m.rate5m);
+        b.putDouble(pos + 56, m.rate15m);
+        b.putDouble(pos + 64, m.ewma1m);
+        b.putDouble(pos + 72, m.ewma5m);
+        b.putDouble(pos + 80, m.ewma15m);
+        b.putDouble(pos + 88, m.rateLimit);
+        LatencyHistogram.Percentiles latency = m.getIntervalLatency();
+        if (latency == null) {
+            b.putLong(pos + 96, -1);
+            for (int off = 104; off < RECORD_SIZE; off += 8) {
+                b.putLong(pos + off, 0);
+            }
+        } else {
+            b.putLong(pos + 96, latency.count);
+            b.putLong(pos + 104, latency.p50);
+            b.putLong(pos + 112, latency.p90);
+            b.putLong(pos + 120, latency.p99);
+            b.putLong(pos + 128, latency.p999);
+            b.putLong(pos + 136, latency.max);
+        }
+        b.putLong(OFFSET_WRITE_SEQ, ++writeSeq);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getWriteSeq() {
+        return writeSeq;
+    }
+
+    /**
+     * 刷盘, 之后的写入被忽略. 映射的内存由 GC 回收.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+    }
+
+    private static byte[] truncate(String tag) {
+        byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_TAG_BYTES) {
+            return bytes;
+        }
+        // 按字符截断, 不截出半个 UTF-8 字符
+        int end = tag.length();
+        while (bytes.length > MAX_TAG_BYTES) {
+            bytes = tag.substring(0, --end).getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+
+    // ---- 读取 ---- //
+
+    /**
+     * 读回文件中保留的记录, 按写入顺序. 写入方还在写也可以读, 读取期间被覆盖的旧记录会被丢掉.
+     */
+    public static History read(Path file) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (b.capacity() < HEADER_SIZE || b.getInt(0) != MAGIC) {
+            throw new IOException("不是 MomentRingFile: " + file);
+        }
+        if (b.getInt(4) != VERSION || b.getInt(OFFSET_RECORD_SIZE) != RECORD_SIZE) {
+            throw new IOException("不支持的版本 " + b.getInt(4) + ", 记录长度 " + b.getInt(OFFSET_RECORD_SIZE) + ": " + file);
+        }
+        int capacity = b.getInt(OFFSET_CAPACITY);
+        long writeSeq = b.getLong(OFFSET_WRITE_SEQ);
+        long created = b.getLong(OFFSET_CREATED);
+        byte[] tagBytes = new byte[b.getShort(OFFSET_TAG)];
+        for (int i = 0; i < tagBytes.length; i++) {
+            tagBytes[i] = b.get(OFFSET_TAG + 2 + i);
+        }
+        String tag = new String(tagBytes, StandardCharsets.UTF_8);
+
+        List<Entry> entries = new ArrayList<>((int) Math.min(writeSeq, capacity));
+        for (long seq = Math.max(0, writeSeq - capacity); seq < writeSeq; seq++) {
+            int pos = HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+            if (pos + RECORD_SIZE > b.capacity()) {
+                break;
+            }
+            entries.add(readEntry(b, pos));
+        }
+        return new History(tag, capacity, writeSeq, created, Collections.unmodifiableList(entries));
+    }
+
+    private static Entry readEntry(ByteBuffer b, int pos) {
+        long latencyCount = b.getLong(pos + 96);
+        LatencyHistogram.Percentiles latency = null;
+        if (latencyCount >= 0) {
+            latency = new LatencyHistogram.Percentiles();
+            latency.count = latencyCount;
+            latency.p50 = b.getLong(pos + 104);
+            latency.p90 = b.getLong(pos + 112);
+            latency.p99 = b.getLong(pos + 120);
+            latency.p999 = b.getLong(pos + 128);
+            latency.max = b.getLong(pos + 136);
+        }
+        SpeedStator.MomentInfo m = SpeedStator.MomentInfo.restore(b.getLong(pos + 8), b.getLong(pos + 16), latency);
+        m.countDelta = b.getLong(pos + 24);
+        m.timeInterval = b.getLong(pos + 32);
+        m.rate1m = b.getDouble(pos + 40);
+        m.rate5m = b.getDouble(pos + 48);
+        m.rate15m = b.getDouble(pos + 56);
+        m.ewma1m = b.getDouble(pos + 64);
+        m.ewma5m = b.getDouble(pos + 72);
+        m.ewma15m = b.getDouble(pos + 80);
+        m.rateLimit = b.getDouble(pos + 88);
+        return new Entry(b.getLong(pos), m);
+    }
+
+    /**
+     * 一条记录: 日志时点 + 当时的 MomentInfo
+     */
+    public static class Entry {
+        private final long timestamp;
+        private final SpeedStator.MomentInfo moment;
+
+        Entry(long timestamp, SpeedStator.MomentInfo moment) {
+            this.timestamp = timestamp;
+            this.moment = moment;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public SpeedStator.MomentInfo getMoment() {
+            return moment;
+        }
+    }
+
+    /**
+     * 读回的历史
+     */
+    public static class History {
+        private final String tag;
+        private final int capacity;
+        private final long writeSeq;
+        private final long createdMillis;
+        private final List<Entry> entries;
+
+        History(String tag, int capacity, long writeSeq, long createdMillis, List<Entry> entries) {
+            this.tag = tag;
+            this.capacity = capacity;
+            this.writeSeq = writeSeq;
+            this.createdMillis = createdMillis;
+            this.entries = entries;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * 累计写过的条数, 大于 capacity 说明最早的已被覆盖
+         */
+        public long getWriteSeq() {
+            return writeSeq;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * 按运行切分: 累计数或累计时长倒退, 说明 SpeedStator 重新 start 了, 是新的一次运行
+         */
+        public List<List<Entry>> runs() {
+            List<List<Entry>> runs = new ArrayList<>();
+            List<Entry> run = null;
+            Entry prev = null;
+            for (Entry e : entries) {
+                if (prev == null
+                        || e.moment.getHandledCount() < prev.moment.getHandledCount()
+                        || e.moment.getTotalTime() < prev.moment.getTotalTime()) {
+                    run = new ArrayList<>();
+                    runs.add(run);
+                }
+                run.add(e);
+                prev = e;
+            }
+            return runs;
+        }
+
+        /**
+         * 逐条输出, 格式同 SpeedStator 的日志
+         */
+        public void replay(PrintStream out) {
+            out.println("[" + tag + "] " + entries.size() + " 条记录, 累计写入 " + writeSeq + ", 容量 " + capacity);
+            for (Entry e : entries) {
+                SpeedStator.MomentInfo m = e.moment;
+                StringBuilder sb = new StringBuilder();
+                sb.append(formatTime(e.timestamp))
+                        .append(" 最近 ").append(m.countDelta).append(" 条, 耗时 ").append(Duration.ofMillis(m.timeInterval))
+                        .append(", [TPS] ").append(String.format("%.3f", m.latestTps())).append("/秒")
+                        .append(". 已处理 ").append(m.getHandledCount()).append(" 条, 耗时 ").append(Duration.ofMillis(m.getTotalTime()))
+                        .append(", TPS ").append(String.format("%.3f", m.totalTps())).append("/秒")
+                        .append(", [1m/5m/15m] ").append(String.format("%.3f/%.3f/%.3f", m.rate1m, m.rate5m, m.rate15m));
+                if (m.rateLimit > 0) {
+                    sb.append(", [限速] ").append(String.format("%.3f", m.rateLimit));
+                }
+                if (m.getIntervalLatency() != null) {
+                    sb.append(", 延迟 ").append(m.getIntervalLatency());
+                }
+                out.println(sb);
+            }
+        }
+
+        /**
+         * 按运行汇总: 起止时间, 总数, 平均 TPS, 最慢/最快区间, 最大区间 p99
+         */
+        public void summary(PrintStream out) {
+            out.println("[" + tag + "] " + entries.size() + " 条记录, 累计写入 " + writeSeq + ", 容量 " + capacity
+                    + (writeSeq > capacity ? ", 更早的已被覆盖" : ""));
+            int no = 0;
+            for (List<Entry> run : runs()) {
+                Entry first = run.get(0);
+                Entry last = run.get(run.size() - 1);
+                Entry slowest = null;
+                Entry fastest = null;
+                Entry worstP99 = null;
+                for (Entry e : run) {
+                    if (e.moment.timeInterval <= 0) {
+                        continue;
+                    }
+                    if (slowest == null || e.moment.latestTps() < slowest.moment.latestTps()) {
+                        slowest = e;
+                    }
+                    if (fastest == null || e.moment.latestTps() > fastest.moment.latestTps()) {
+                        fastest = e;
+                    }
+                    LatencyHistogram.Percentiles latency = e.moment.getIntervalLatency();
+                    if (latency != null && latency.count > 0
+                            && (worstP99 == null || latency.p99 > worstP99.moment.getIntervalLatency().p99)) {
+                        worstP99 = e;
+                    }
+                }
+                out.println("运行 #" + (++no) + ": " + formatTime(first.timestamp - first.moment.getTotalTime())
+                        + " ~ " + formatTime(last.timestamp) + ", " + run.size() + " 个时点");
+                out.println("    已处理 " + last.moment.getHandledCount() + " 条, 耗时 " + Duration.ofMillis(last.moment.getTotalTime())
+                        + ", TPS " + String.format("%.3f", last.moment.totalTps()) + "/秒");
+                if (slowest != null) {
+                    out.println("    最慢区间 " + formatTime(slowest.timestamp) + " " + String.format("%.3f", slowest.moment.latestTps()) + "/秒"
+                            + ", 最快区间 " + formatTime(fastest.timestamp) + " " + String.format("%.3f", fastest.moment.latestTps()) + "/秒");
+                }
+                if (worstP99 != null) {
+                    out.println("    最大区间 p99 " + formatTime(worstP99.timestamp) + " " + worstP99.moment.getIntervalLatency());
+                }
+            }
+        }
+    }
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static String formatTime(long millis) {
+        return TIME_FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * 命令行: {@code MomentRingFile <file> [summary|replay]}, 默认 summary
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("用法: MomentRingFile <file" + SUFFIX + "> [summary|replay]");
+            System.exit(2);
+        }
+        History history = read(Paths.get(args[0]));
+        String cmd = args.length > 1 ? args[1] : "summary";
+        if ("replay".equals(cmd)) {
+            history.replay(System.out);
+        } else if ("summary".equals(cmd)) {
+            history.summary(System.out);
+        } else {
+            System.err.println("未知命令: " + cmd + ", 可选 summary|replay");
+            System.exit(2);
+        }
+    }
+}
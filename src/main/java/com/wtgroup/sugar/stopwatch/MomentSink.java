@@ -0,0 +1,22 @@
+package com.wtgroup.sugar.stopwatch;
+
+/**
+ * SpeedStator 日志时点的 MomentInfo 接收方
+ * <p>
+ * 在日志锁内调用, 同一个 SpeedStator 的调用不会并发. 请尽快返回, 不要持有 momentInfo 之外的锁.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ * @see SpeedStator#addMomentSink(MomentSink)
+ */
+@FunctionalInterface
+public interface MomentSink {
+
+    /**
+     * @param tag        SpeedStator 的 tag
+     * @param timestamp  日志时点, 毫秒时间戳
+     * @param momentInfo 本次日志的 MomentInfo, 是副本, 可以持有
+     */
+    void accept(String tag, long timestamp, SpeedStator.MomentInfo momentInfo);
+}
@@ -0,0 +1,245 @@
+package com.wtgroup.sugar.stopwatch;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 把 {@link StatorRegistry} 里登记的 SpeedStator / StopWatch / ConcurrentStopWatch 导出为 Prometheus 文本格式(0.0.4)
+ * <p>
+ * 抓取只读计数: 不抢日志锁, 不切换延迟区间, 不重置任何计数, 和业务线程、日志输出互不干扰.
+ * <p>
+ * 指标:
+ * <pre>
+ * sugar_speed_handled_total{tag}             counter 累计处理数
+ * sugar_speed_running{tag}                   gauge   是否运行中
+ * sugar_speed_uptime_seconds{tag}            gauge   运行时长
+ * sugar_speed_rate{tag,window}               gauge   1m/5m/15m 滑动窗口速率, 条/秒
+ * sugar_speed_ewma_rate{tag,window}          gauge   1m/5m/15m EWMA 速率, 条/秒
+ * sugar_speed_rate_limit{tag}               gauge   限速, 条/秒, 0 表示不限速
+ * sugar_speed_latency_seconds{tag,quantile}  summary 累计延迟分位值及 _sum, _count(有 record 时才有)
+ * sugar_stopwatch_tasks_total{id}            counter 任务数
+ * sugar_stopwatch_time_seconds_total{id}     counter 任务累计耗时
+ * sugar_stopwatch_running{id}                gauge   正在计时的任务数, ConcurrentStopWatch 为线程数
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public final class PrometheusExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final String PATH = "/metrics";
+
+    private PrometheusExporter() {
+    }
+
+    /**
+     * 当前所有登记指标的文本
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(1024);
+        writeSpeedStators(sb, StatorRegistry.getSpeedStators());
+        writeStopWatches(sb, StatorRegistry.getStopWatches(), StatorRegistry.getConcurrentStopWatches());
+        return sb.toString();
+    }
+
+    /**
+     * 在 port 上起一个 HTTP 服务, {@value #PATH} 输出 {@link #scrape()}. 单个守护线程处理请求.
+     *
+     * @param port 0 表示随机端口, 实际端口见 {@code server.getAddress().getPort()}
+     * @return 已启动的 server, 不用时 {@link #stop(HttpServer, int)}
+     */
+    public static HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, exchange -> {
+            // 响应头只能发一次, 发过之后出错只能断开连接
+            boolean headersSent = false;
+            try {
+                if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                    headersSent = true;
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                headersSent = true;
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } catch (Throwable e) {
+                log.warn("导出指标异常", e);
+                if (!headersSent) {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(command -> {
+            Thread thread = new Thread(command, "sugar-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return server;
+    }
+
+    /**
+     * 停掉 {@link #serve(int)} 起的服务, 连同处理请求的线程
+     *
+     * @param delay 最多等待正在处理的请求多少秒, 同 {@link HttpServer#stop(int)}
+     */
+    public static void stop(HttpServer server, int delay) {
+        server.stop(delay);
+        if (server.getExecutor() instanceof ExecutorService) {
+            ((ExecutorService) server.getExecutor()).shutdown();
+        }
+    }
+
+    private static void writeSpeedStators(StringBuilder sb, List<SpeedStator> stators) {
+        if (stators.isEmpty()) {
+            return;
+        }
+        header(sb, "sugar_speed_handled_total", "counter", "SpeedStator 累计处理数");
+        for (SpeedStator s : stators) {
+            sample(sb, "sugar_speed_handled_total", "tag", s.getTag(), null, null, s.getHandledCount());
+        }
+        header(sb, "sugar_speed_running", "gauge", "SpeedStator 是否运行中");
+        for (SpeedStator s : stators) {
+            sample(sb, "sugar_speed_running", "tag", s.getTag(), null, null, s.isRunning() ? 1 : 0);
+        }
+        header(sb, "sugar_speed_uptime_seconds", "gauge", "SpeedStator 运行时长");
+        for (SpeedStator s : stators) {
+            sample(sb, "sugar_speed_uptime_seconds", "tag", s.getTag(), null, null, s.isRunning() ? s.getTotalTime() / 1000.0 : 0);
+        }
+        header(sb, "sugar_speed_rate", "gauge", "SpeedStator 滑动窗口速率, 条/秒");
+        for (SpeedStator s : stators) {
+            sample(sb, "sugar_speed_rate", "tag", s.getTag(), "window", "1m", s.getRate1m());
+            sample(sb, "sugar_speed_rate", "tag", s.getTag(), "window", "5m", s.getRate5m());
+            sample(sb, "sugar_speed_rate", "tag", s.getTag(), "window", "15m", s.getRate15m());
+        }
+        header(sb, "sugar_speed_ewma_rate", "gauge", "SpeedStator EWMA 速率, 条/秒");
+        for (SpeedStator s : stators) {
+            sample(sb, "sugar_speed_ewma_rate", "tag", s.getTag(), "window", "1m", s.getEwma1m());
+            sample(sb, "sugar_speed_ewma_rate", "tag", s.getTag(), "window", "5m", s.getEwma5m());
+            sample(sb, "sugar_speed_ewma_rate", "tag", s.getTag(), "window", "15m", s.getEwma15m());
+        }
+        header(sb, "sugar_speed_rate_limit", "gauge", "SpeedStator 限速, 条/秒, 0 表示不限速");
+        for (SpeedStator s : stators) {
+            sample(sb, "sugar_speed_rate_limit", "tag", s.getTag(), null, null, s.getRateLimit());
+        }
+        boolean headed = false;
+        for (SpeedStator s : stators) {
+            LatencyHistogram.Percentiles latency = s.getTotalLatency();
+            if (latency == null) {
+                continue;
+            }
+            if (!headed) {
+                header(sb, "sugar_speed_latency_seconds", "summary", "SpeedStator 累计延迟");
+                headed = true;
+            }
+            sample(sb, "sugar_speed_latency_seconds", "tag", s.getTag(), "quantile", "0.5", latency.p50 / 1e9);
+            sample(sb, "sugar_speed_latency_seconds", "tag", s.getTag(), "quantile", "0.9", latency.p90 / 1e9);
+            sample(sb, "sugar_speed_latency_seconds", "tag", s.getTag(), "quantile", "0.99", latency.p99 / 1e9);
+            sample(sb, "sugar_speed_latency_seconds", "tag", s.getTag(), "quantile", "0.999", latency.p999 / 1e9);
+            sample(sb, "sugar_speed_latency_seconds", "tag", s.getTag(), "quantile", "1", latency.max / 1e9);
+            sample(sb, "sugar_speed_latency_seconds_sum", "tag", s.getTag(), null, null, latency.sum / 1e9);
+            sample(sb, "sugar_speed_latency_seconds_count", "tag", s.getTag(), null, null, latency.count);
+        }
+    }
+
+    private static void writeStopWatches(StringBuilder sb, List<StopWatch> stopWatches, List<ConcurrentStopWatch> concurrentStopWatches) {
+        if (stopWatches.isEmpty() && concurrentStopWatches.isEmpty()) {
+            return;
+        }
+        header(sb, "sugar_stopwatch_tasks_total", "counter", "StopWatch 任务数");
+        for (StopWatch w : stopWatches) {
+            sample(sb, "sugar_stopwatch_tasks_total", "id", w.getId(), null, null, w.getTaskCount());
+        }
+        for (ConcurrentStopWatch w : concurrentStopWatches) {
+            sample(sb, "sugar_stopwatch_tasks_total", "id", w.getId(), null, null, w.getTaskCount());
+        }
+        header(sb, "sugar_stopwatch_time_seconds_total", "counter", "StopWatch 任务累计耗时");
+        for (StopWatch w : stopWatches) {
+            sample(sb, "sugar_stopwatch_time_seconds_total", "id", w.getId(), null, null, w.getTotalTimeNanos() / 1e9);
+        }
+        for (ConcurrentStopWatch w : concurrentStopWatches) {
+            sample(sb, "sugar_stopwatch_time_seconds_total", "id", w.getId(), null, null, w.getTotalTimeNanos() / 1e9);
+        }
+        header(sb, "sugar_stopwatch_running", "gauge", "StopWatch 正在计时的任务数");
+        for (StopWatch w : stopWatches) {
+            sample(sb, "sugar_stopwatch_running", "id", w.getId(), null, null, w.isRunning() ? 1 : 0);
+        }
+        for (ConcurrentStopWatch w : concurrentStopWatches) {
+            sample(sb, "sugar_stopwatch_running", "id", w.getId(), null, null, w.getRunningCount());
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value,
+                               String label2, String value2, double sample) {
+        sb.append(name).append('{').append(label).append("=\"");
+        escapeLabel(sb, value);
+        sb.append('"');
+        if (label2 != null) {
+            sb.append(',').append(label2).append("=\"");
+            escapeLabel(sb, value2);
+            sb.append('"');
+        }
+        sb.append("} ");
+        if (Double.isNaN(sample)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(sample)) {
+            sb.append(sample > 0 ? "+Inf" : "-Inf");
+        } else if (sample == (long) sample) {
+            sb.append((long) sample);
+        } else {
+            sb.append(sample);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 标签值转义: \ " 换行
+     */
+    static void escapeLabel(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+}
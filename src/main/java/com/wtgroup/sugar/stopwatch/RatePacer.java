@@ -0,0 +1,225 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 令牌桶限速器, 思路同 Guava SmoothBursty
+ * <p>
+ * 不存"令牌数", 存"下一个令牌的可用时刻" nextFreeNanos. 取令牌 = 在公平锁内预约一个时刻, 把 nextFreeNanos 往后推, 然后在锁外睡到预约时刻.
+ * 公平锁按到达顺序排队, 预约时刻单调递增, 所以先来的先走, 不会有线程饿死. 锁内只有几次算术, 不会因为有人在睡而阻塞别人.
+ * <p>
+ * 空闲期间攒下的令牌最多 maxBurstSeconds 秒的量, 允许短暂突发.
+ * <p>
+ * 预约前先对一下 SpeedStator 实测的累计数: 比这里记过账的多出来的部分(别的线程 count / logXxx 计的, 没走 acquire),
+ * 同样扣令牌, 往后推 nextFreeNanos. 所以限的是 SpeedStator 的总速率, 不只是 acquire 的调用者.
+ * 刚放行还没计数的那几个会让差值暂时偏小, 不扣, 等它们计上数后自然补上, 长期总量是准的.
+ * <p>
+ * 时刻取自 SpeedStator 的时钟, {@link ManualClock} 下 tryAcquire 的判定是确定的; 等待本身总是真实地 park.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+class RatePacer {
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private Clock clock;
+
+    /**
+     * 每个令牌的间隔, 纳秒
+     */
+    private double intervalNanos;
+    private double permitsPerSecond;
+    private double maxBurstSeconds;
+    private double maxPermits;
+    private double storedPermits;
+    /**
+     * 下一个令牌可用的时刻({@link Clock#nanoTime()}), 可能在将来
+     */
+    private long nextFreeNanos;
+    /**
+     * 已记账的数量: acquire 预约的, 加上从实测累计数里补扣的
+     */
+    private long charged;
+
+    /**
+     * @param measured SpeedStator 当前的累计数, 之前的不扣令牌
+     */
+    RatePacer(Clock clock, double permitsPerSecond, double maxBurstSeconds, long measured) {
+        this.clock = clock;
+        this.nextFreeNanos = clock.nanoTime();
+        this.charged = measured;
+        this.setRate(permitsPerSecond, maxBurstSeconds);
+    }
+
+    /**
+     * 换时钟, 从新时钟的当前时刻重新排, 攒下的令牌作废
+     */
+    void setClock(Clock clock) {
+        lock.lock();
+        try {
+            this.clock = clock;
+            this.nextFreeNanos = clock.nanoTime();
+            this.storedPermits = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * SpeedStator 的计数清零重来时, 记账跟着对齐
+     */
+    void rebase(long measured) {
+        lock.lock();
+        try {
+            this.charged = measured;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调整速率, 已经预约的不受影响, 之后的按新速率排
+     */
+    void setRate(double permitsPerSecond, double maxBurstSeconds) {
+        if (!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (maxBurstSeconds < 0) {
+            throw new IllegalArgumentException("maxBurstSeconds must not be negative: " + maxBurstSeconds);
+        }
+        lock.lock();
+        try {
+            this.resync(clock.nanoTime());
+            double oldMax = this.maxPermits;
+            this.permitsPerSecond = permitsPerSecond;
+            this.maxBurstSeconds = maxBurstSeconds;
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+            this.maxPermits = maxBurstSeconds * permitsPerSecond;
+            // 攒下的令牌按比例折算
+            this.storedPermits = oldMax == 0 ? 0 : this.storedPermits * this.maxPermits / oldMax;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double getRate() {
+        return permitsPerSecond;
+    }
+
+    double getMaxBurstSeconds() {
+        return maxBurstSeconds;
+    }
+
+    /**
+     * 取 permits 个令牌, 必要时等待. 等待不响应中断, 被中断的话, 返回前恢复中断标记.
+     *
+     * @param measured SpeedStator 当前的累计数
+     * @return 等待的纳秒数
+     */
+    long acquire(int permits, long measured) {
+        long waitNanos;
+        lock.lock();
+        try {
+            long now = clock.nanoTime();
+            this.chargeMeasured(measured, now);
+            waitNanos = Math.max(this.reserve(permits, now) - now, 0);
+        } finally {
+            lock.unlock();
+        }
+        sleepUninterruptibly(waitNanos);
+        return waitNanos;
+    }
+
+    /**
+     * 在 timeoutNanos 内能拿到 permits 个令牌就预约并等待, 否则立即返回 false, 不占令牌
+     */
+    boolean tryAcquire(int permits, long timeoutNanos, long measured) {
+        long waitNanos;
+        lock.lock();
+        try {
+            long now = clock.nanoTime();
+            this.chargeMeasured(measured, now);
+            if (this.nextFreeNanos - now > timeoutNanos) {
+                return false;
+            }
+            waitNanos = Math.max(this.reserve(permits, now) - now, 0);
+        } finally {
+            lock.unlock();
+        }
+        sleepUninterruptibly(waitNanos);
+        return true;
+    }
+
+    /**
+     * 预约 permits 个令牌, 返回可以放行的时刻. 须持锁.
+     * 第一个令牌的时刻就是 nextFreeNanos; 超出攒下的部分, 由后来者替它等(nextFreeNanos 后推), 这样单次大请求不会卡住前面的人.
+     */
+    private long reserve(int permits, long now) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits must be positive: " + permits);
+        }
+        this.resync(now);
+        long momentAvailable = this.nextFreeNanos;
+        double fromStored = Math.min(permits, this.storedPermits);
+        double fresh = permits - fromStored;
+        this.nextFreeNanos = saturatedAdd(this.nextFreeNanos, (long) (fresh * this.intervalNanos));
+        this.storedPermits -= fromStored;
+        this.charged += permits;
+        return momentAvailable;
+    }
+
+    /**
+     * 实测累计数里没记过账的, 补扣令牌: 先用攒下的, 不够的往后推 nextFreeNanos. 须持锁.
+     */
+    private void chargeMeasured(long measured, long now) {
+        long external = measured - this.charged;
+        if (external <= 0) {
+            return;
+        }
+        this.resync(now);
+        double fromStored = Math.min(external, this.storedPermits);
+        this.nextFreeNanos = saturatedAdd(this.nextFreeNanos, (long) ((external - fromStored) * this.intervalNanos));
+        this.storedPermits -= fromStored;
+        this.charged = measured;
+    }
+
+    /**
+     * 把 nextFreeNanos 追到 now, 期间的空闲折算成令牌攒起来
+     */
+    private void resync(long now) {
+        if (now - this.nextFreeNanos > 0) {
+            if (this.intervalNanos > 0) {
+                this.storedPermits = Math.min(this.maxPermits, this.storedPermits + (now - this.nextFreeNanos) / this.intervalNanos);
+            }
+            this.nextFreeNanos = now;
+        }
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long r = a + b;
+        return ((a ^ r) & (b ^ r)) < 0 ? Long.MAX_VALUE : r;
+    }
+
+    private static void sleepUninterruptibly(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
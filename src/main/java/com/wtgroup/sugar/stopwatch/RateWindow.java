@@ -0,0 +1,143 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 滑动窗口速率和指数加权(EWMA)速率
+ * <p>
+ * 环形数组, 每秒一个桶, 存这一秒的累计总数, 保留 15 分钟. 1/5/15 分钟的滑动速率 = 窗口两端累计数之差 / 窗口秒数.
+ * EWMA 同 Unix load average, 每秒衰减一次.
+ * <p>
+ * 不主动计时, 由调用方 {@link #tick(long, long)} 喂入 "当前时间, 当前累计数". 同一秒内只有第一次 tick 起作用, 几乎没有开销.
+ * 两次 tick 之间跨了多秒时, 中间的秒按线性插值补齐.
+ * tick 用自己的 tryLock, 不会和日志锁相互等待; 读取不加锁.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+class RateWindow {
+
+    static final int M1 = 60;
+    static final int M5 = 5 * 60;
+    static final int M15 = 15 * 60;
+
+    private static final int SIZE = M15 + 1;
+    private static final double ALPHA_M1 = 1 - Math.exp(-1.0 / M1);
+    private static final double ALPHA_M5 = 1 - Math.exp(-1.0 / M5);
+    private static final double ALPHA_M15 = 1 - Math.exp(-1.0 / M15);
+
+    private final AtomicLongArray totals = new AtomicLongArray(SIZE);
+    private final ReentrantLock tickLock = new ReentrantLock();
+
+    private volatile long firstSecond;
+    private volatile long lastSecond;
+
+    private volatile double ewma1;
+    private volatile double ewma5;
+    private volatile double ewma15;
+    /**
+     * EWMA 以第一段速率为初值, 免得从 0 慢慢爬升
+     */
+    private boolean ewmaInitialized;
+
+    RateWindow(long nowMillis) {
+        this.reset(nowMillis);
+    }
+
+    void reset(long nowMillis) {
+        tickLock.lock();
+        try {
+            long second = nowMillis / 1000;
+            for (int i = 0; i < SIZE; i++) {
+                totals.set(i, 0);
+            }
+            this.firstSecond = this.lastSecond = second;
+            this.ewma1 = this.ewma5 = this.ewma15 = 0;
+            this.ewmaInitialized = false;
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+    /**
+     * 喂入当前时间和累计数. 同一秒内重复调用直接返回; 别人正在 tick 时也直接返回.
+     */
+    void tick(long nowMillis, long total) {
+        long second = nowMillis / 1000;
+        if (second <= this.lastSecond || !tickLock.tryLock()) {
+            return;
+        }
+        try {
+            long last = this.lastSecond;
+            if (second <= last) {
+                return;
+            }
+            long gap = second - last;
+            long lastTotal = totals.get(index(last));
+            long delta = total - lastTotal;
+            // 中间的秒线性插值, 超过一圈的只需补最后一圈
+            for (long s = Math.max(last + 1, second - SIZE + 1); s <= second; s++) {
+                totals.set(index(s), lastTotal + delta * (s - last) / gap);
+            }
+
+            // 这 gap 秒内速率看作恒定 r, 连续衰减 gap 次的闭式解: ewma' = r + (ewma - r) * (1 - alpha)^gap
+            double r = (double) delta / gap;
+            if (!this.ewmaInitialized) {
+                this.ewma1 = this.ewma5 = this.ewma15 = r;
+                this.ewmaInitialized = true;
+            }
+            this.ewma1 = decay(this.ewma1, r, ALPHA_M1, gap);
+            this.ewma5 = decay(this.ewma5, r, ALPHA_M5, gap);
+            this.ewma15 = decay(this.ewma15, r, ALPHA_M15, gap);
+            this.lastSecond = second;
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+    private static double decay(double ewma, double rate, double alpha, long gap) {
+        return rate + (ewma - rate) * Math.pow(1 - alpha, gap);
+    }
+
+    private static int index(long second) {
+        return (int) (second % SIZE);
+    }
+
+    /**
+     * 最近 windowSeconds 秒的平均速率, 条/秒. 运行时长不足窗口时, 按实际时长算.
+     */
+    double rate(int windowSeconds) {
+        long last = this.lastSecond;
+        long from = Math.max(last - windowSeconds, this.firstSecond);
+        if (last <= from) {
+            return 0;
+        }
+        return (double) (totals.get(index(last)) - totals.get(index(from))) / (last - from);
+    }
+
+    double rate1m() {
+        return rate(M1);
+    }
+
+    double rate5m() {
+        return rate(M5);
+    }
+
+    double rate15m() {
+        return rate(M15);
+    }
+
+    double ewma1m() {
+        return ewma1;
+    }
+
+    double ewma5m() {
+        return ewma5;
+    }
+
+    double ewma15m() {
+        return ewma15;
+    }
+}
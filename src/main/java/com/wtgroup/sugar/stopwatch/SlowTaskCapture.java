@@ -0,0 +1,98 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 慢任务捕获, StopWatch 慢任务模式用. 单线程使用, 同 StopWatch.
+ * <p>
+ * 每个任务的 TaskInfo 从池里取, 结束时按耗时决定去留(tail-based):
+ * 超过阈值的, 保留; 否则够得上最慢 N 个的, 进定长的小顶堆(reservoir), 挤出来的最快那个回池; 都不是的, 直接回池.
+ * 回池的 TaskInfo 连同它的 data map 复用, message 从没格式化过. 所以快任务除了计时, 几乎没有开销.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+class SlowTaskCapture {
+
+    private static final int MAX_POOL_SIZE = 16;
+
+    private final long thresholdNanos;
+    private final int slowestN;
+    /**
+     * 最慢 N 个, 堆顶是其中最快的
+     */
+    private final PriorityQueue<StopWatch.TaskInfo> reservoir;
+    private final ArrayDeque<StopWatch.TaskInfo> pool = new ArrayDeque<>();
+
+    SlowTaskCapture(long thresholdNanos, int slowestN) {
+        this.thresholdNanos = thresholdNanos;
+        this.slowestN = Math.max(slowestN, 0);
+        this.reservoir = new PriorityQueue<>(Math.max(this.slowestN, 1), Comparator.comparingLong(StopWatch.TaskInfo::getTimeNanos));
+    }
+
+    StopWatch.TaskInfo acquire(String taskName, long startTimeNanos, String threadName) {
+        StopWatch.TaskInfo taskInfo = pool.poll();
+        if (taskInfo == null) {
+            taskInfo = new StopWatch.TaskInfo(taskName);
+        }
+        taskInfo.reset(taskName, startTimeNanos, threadName);
+        return taskInfo;
+    }
+
+    /**
+     * 任务结束, 决定去留
+     *
+     * @return true: 超过阈值, 由调用方放进任务列表; false: 已进 reservoir 或已回池
+     */
+    boolean offer(StopWatch.TaskInfo taskInfo) {
+        long t = taskInfo.getTimeNanos();
+        if (t >= thresholdNanos) {
+            taskInfo.detach();
+            return true;
+        }
+        if (slowestN > 0) {
+            if (reservoir.size() < slowestN) {
+                reservoir.add(taskInfo);
+                return false;
+            }
+            if (t > reservoir.peek().getTimeNanos()) {
+                release(reservoir.poll());
+                reservoir.add(taskInfo);
+                return false;
+            }
+        }
+        release(taskInfo);
+        return false;
+    }
+
+    private void release(StopWatch.TaskInfo taskInfo) {
+        // 交出去过(已脱离池)的不能再复用
+        if (taskInfo.isPooled() && pool.size() < MAX_POOL_SIZE) {
+            pool.push(taskInfo);
+        }
+    }
+
+    /**
+     * 最慢的 N 个(不含超过阈值的), 格式化后脱离池
+     */
+    List<StopWatch.TaskInfo> slowest() {
+        List<StopWatch.TaskInfo> list = new ArrayList<>(reservoir);
+        for (StopWatch.TaskInfo taskInfo : list) {
+            taskInfo.detach();
+        }
+        return list;
+    }
+
+    long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    int getSlowestN() {
+        return slowestN;
+    }
+}
@@ -0,0 +1,232 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * SpeedStator 某一时刻的不可变快照, 可合并
+ * <p>
+ * 合并只用可以相加的量: 累计数相加, 滑动窗口/EWMA 速率相加(窗口按墙钟对齐, 各分区可直接相加), 延迟直方图逐桶相加后再求分位值,
+ * 起点取最早, 时点取最晚. 不合并"最近一次日志以来"的区间量, 各分区的日志时点不同, 相加没有意义.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ * @see SpeedStator#snapshot()
+ * @see SpeedStatorAggregator
+ */
+public final class SpeedSnapshot {
+
+    private final String tag;
+    private final long startMillis;
+    private final long timestamp;
+    private final boolean running;
+    private final long handledCount;
+    private final double rate1m;
+    private final double rate5m;
+    private final double rate15m;
+    private final double ewma1m;
+    private final double ewma5m;
+    private final double ewma15m;
+    /**
+     * 累计延迟, 没有时为 null. 私有副本, 不外露.
+     */
+    private final LatencyHistogram latency;
+    private final LatencyHistogram.Percentiles latencyPercentiles;
+
+    SpeedSnapshot(String tag, long startMillis, long timestamp, boolean running, long handledCount,
+                  double rate1m, double rate5m, double rate15m, double ewma1m, double ewma5m, double ewma15m,
+                  LatencyHistogram latency) {
+        this.tag = tag;
+        this.startMillis = startMillis;
+        this.timestamp = timestamp;
+        this.running = running;
+        this.handledCount = handledCount;
+        this.rate1m = rate1m;
+        this.rate5m = rate5m;
+        this.rate15m = rate15m;
+        this.ewma1m = ewma1m;
+        this.ewma5m = ewma5m;
+        this.ewma15m = ewma15m;
+        this.latency = latency;
+        this.latencyPercentiles = latency == null ? null : latency.percentiles();
+    }
+
+    /**
+     * 合并成一个新快照, 两者都不变
+     */
+    public SpeedSnapshot merge(SpeedSnapshot other) {
+        return merge(this.tag, this, other);
+    }
+
+    /**
+     * 合并多个快照
+     *
+     * @param tag 合并结果的 tag
+     * @return snapshots 为空时, 返回一个计数为 0 的快照
+     */
+    public static SpeedSnapshot merge(String tag, Collection<SpeedSnapshot> snapshots) {
+        return merge(tag, snapshots.toArray(new SpeedSnapshot[0]));
+    }
+
+    public static SpeedSnapshot merge(String tag, SpeedSnapshot... snapshots) {
+        long now = System.currentTimeMillis();
+        if (snapshots.length == 0) {
+            return new SpeedSnapshot(tag, now, now, false, 0, 0, 0, 0, 0, 0, 0, null);
+        }
+        long start = Long.MAX_VALUE;
+        long timestamp = Long.MIN_VALUE;
+        boolean running = false;
+        long handledCount = 0;
+        double rate1m = 0, rate5m = 0, rate15m = 0, ewma1m = 0, ewma5m = 0, ewma15m = 0;
+        LatencyHistogram latency = null;
+        for (SpeedSnapshot s : snapshots) {
+            start = Math.min(start, s.startMillis);
+            timestamp = Math.max(timestamp, s.timestamp);
+            running |= s.running;
+            handledCount += s.handledCount;
+            rate1m += s.rate1m;
+            rate5m += s.rate5m;
+            rate15m += s.rate15m;
+            ewma1m += s.ewma1m;
+            ewma5m += s.ewma5m;
+            ewma15m += s.ewma15m;
+            if (s.latency != null) {
+                if (latency == null) {
+                    latency = s.latency.copy();
+                } else {
+                    latency.add(s.latency);
+                }
+            }
+        }
+        return new SpeedSnapshot(tag, start, timestamp, running, handledCount,
+                rate1m, rate5m, rate15m, ewma1m, ewma5m, ewma15m, latency);
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * 快照时点, 毫秒时间戳. 合并后取最晚的.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getHandledCount() {
+        return handledCount;
+    }
+
+    /**
+     * 从最早的起点到快照时点的时长, ms
+     */
+    public long getTotalTime() {
+        return timestamp - startMillis;
+    }
+
+    /**
+     * 全程平均速率, 条/秒
+     */
+    public double getTotalTps() {
+        long totalTime = getTotalTime();
+        return totalTime <= 0 ? 0 : handledCount * 1000.0 / totalTime;
+    }
+
+    public double getRate1m() {
+        return rate1m;
+    }
+
+    public double getRate5m() {
+        return rate5m;
+    }
+
+    public double getRate15m() {
+        return rate15m;
+    }
+
+    public double getEwma1m() {
+        return ewma1m;
+    }
+
+    public double getEwma5m() {
+        return ewma5m;
+    }
+
+    public double getEwma15m() {
+        return ewma15m;
+    }
+
+    /**
+     * 累计延迟分位值, 没用过 {@link SpeedStator#record(long)} 时为 null
+     */
+    public LatencyHistogram.Percentiles getLatency() {
+        return latencyPercentiles;
+    }
+
+    /**
+     * 任意分位值, 纳秒. 没有延迟记录时返回 0.
+     */
+    public long getLatencyAtPercentile(double percentile) {
+        return latency == null ? 0 : latency.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * 预计还要多久处理完
+     * <p>
+     * 速率取最近 1 分钟滑动速率; 运行不足 1 秒还没有滑动速率时, 用全程平均速率.
+     *
+     * @param expectedTotal 预期总数
+     * @return 已完成时返回 {@link Duration#ZERO}, 速率为 0 无法估计时返回 null
+     */
+    public Duration eta(long expectedTotal) {
+        long remaining = expectedTotal - handledCount;
+        if (remaining <= 0) {
+            return Duration.ZERO;
+        }
+        double rate = rate1m > 0 ? rate1m : getTotalTps();
+        if (!(rate > 0)) {
+            return null;
+        }
+        return Duration.ofMillis((long) Math.ceil(remaining * 1000 / rate));
+    }
+
+    /**
+     * 完成百分比, [0, 100]
+     */
+    public double progress(long expectedTotal) {
+        if (expectedTotal <= 0) {
+            return 100;
+        }
+        return Math.min(100, handledCount * 100.0 / expectedTotal);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("tag", tag)
+                .append("running", running)
+                .append("handledCount", handledCount)
+                .append("totalTime", Duration.ofMillis(getTotalTime()))
+                .append("totalTps", String.format("%.3f", getTotalTps()))
+                .append("rate1m", String.format("%.3f", rate1m))
+                .append("rate5m", String.format("%.3f", rate5m))
+                .append("rate15m", String.format("%.3f", rate15m))
+                .append("ewma1m", String.format("%.3f", ewma1m))
+                .append("ewma5m", String.format("%.3f", ewma5m))
+                .append("ewma15m", String.format("%.3f", ewma15m))
+                .append("latency", latencyPercentiles)
+                .toString();
+    }
+}
@@ -9,10 +9,14 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static cn.hutool.core.date.BetweenFormatter.Level.MILLISECOND;
 
@@ -25,6 +29,18 @@ import static cn.hutool.core.date.BetweenFormatter.Level.MILLISECOND;
  * 4> 给你当前时刻运行状态信息, 由你决定是否和怎么输出日志.
  *
  * <p>版本
+ * == 2026年10月18日 ==
+ * 增加 {@link #setClock(Clock)}, 可换成粗粒度时钟 {@link Clock#coarse()} 省掉系统调用, 测试里可用 {@link ManualClock}.
+ * 增加 {@link #snapshot()} 不可变可合并的快照, 多个分区用 {@link SpeedStatorAggregator} 汇总, 带 ETA.
+ * 增加 {@link #addMomentSink(MomentSink)}, 日志时点的 MomentInfo 可另存, 如 {@link MomentRingFile} 内存映射环形文件.
+ * 增加限速模式, 见 {@link #acquire()} / {@link #tryAcquire()}, 令牌桶, 各线程公平排队, 速率运行中可调.
+ * 令牌桶按实测的累计数补扣, 不走 acquire 的计数同样占令牌, 限的是总速率.
+ * 增加无分配的重载: 无参, 1~2 个消息参数, Supplier. 不输出日志时不产生任何对象, 判定用的 MomentInfo 复用.
+ * 增加 {@link #record(long)} 记录延迟, 日志带上区间和累计的 p50/p90/p99/p999/max.
+ * 增加 1/5/15 分钟滑动速率和 EWMA 速率, 随时可查, 不碰日志锁, 见 {@link #getRate1m()} 等.
+ * 增加 scheduled 模式, 见 {@link #setScheduled(boolean)}, 由后台线程定时报告, 业务线程只计数.
+ * 增加 striped 分段计数模式, 见 {@link #setStriped(boolean)}. 多核高并发下, 计数不再争抢同一个 AtomicLong 和锁.
+ *
  * == 2021年10月4日 ==
  * 去掉 synchronized, 改为 tryLock, 竞争发生时, 没获锁的线程就不输出. 数量增减原子操作.
  * 计数每个人都要求准确计入, 但打印这件事, 只要有个人去做了就可以了.
@@ -38,6 +54,19 @@ import static cn.hutool.core.date.BetweenFormatter.Level.MILLISECOND;
 @Slf4j
 public class SpeedStator {
 
+    /**
+     * striped 模式下, 每个线程大约每 16 次调用才看一次时钟
+     */
+    private static final int CHECK_SAMPLE_MASK = 15;
+
+    // 日志条件
+    private static final int COND_TIME = 1;
+    private static final int COND_COUNT = 2;
+    private static final int COND_OR = 3;
+    private static final int COND_AND = 4;
+    private static final int COND_TEST = 5;
+    private static final Object[] NO_ARGS = new Object[0];
+
     /**
      * 开始时间戳
      */
@@ -62,6 +91,32 @@ public class SpeedStator {
      * 如果您需要统计总事务数, 可以所有事务结束后, 取这个值, 它是准确的, 而不用另外搞一个计数器.
      */
     private volatile AtomicLong handledCount = new AtomicLong();
+    /**
+     * striped 模式下的当前总处理数. 计数分散在各个 cell 上, 需要时才汇总.
+     */
+    private final LongAdder stripedCount = new LongAdder();
+    /**
+     * 是否 striped 分段计数模式
+     */
+    @Getter
+    private volatile boolean striped = false;
+    /**
+     * striped 模式下, 下次允许检查日志条件的时间戳. 未到时间的调用只计数, 不碰锁.
+     */
+    private volatile long nextCheckTick;
+    /**
+     * striped 模式下, 两次日志条件检查的最小间隔(ms), 默认 100ms
+     */
+    private long checkInterval = 100;
+    /**
+     * 是否由 {@link SpeedStatorReporter} 后台定时报告
+     */
+    @Getter
+    private volatile boolean scheduled = false;
+    /**
+     * scheduled 模式下, 上次报告的区间是否没有流量. 流量停了报告一次就够了, 之后安静.
+     */
+    private boolean idleReported = false;
 
     /**
      * 区分日志的标记, 便于查看. 默认 "[this.getClass().getSimpleName()]"
@@ -85,6 +140,30 @@ public class SpeedStator {
     private volatile boolean running = false;
 
     private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 日志条件判定用的 MomentInfo, 持锁时复用, 避免每次判定都 new 一个
+     */
+    private final MomentInfo moment = new MomentInfo();
+    /**
+     * 延迟记录器, 第一次 {@link #record(long)} 时才创建, 不用就不占内存
+     */
+    private volatile LatencyRecorder latencyRecorder;
+    /**
+     * 每秒一个桶的滑动窗口和 EWMA 速率
+     */
+    private final RateWindow rateWindow = new RateWindow(System.currentTimeMillis());
+    /**
+     * 限速器, {@link #setRateLimit(double)} 后才有
+     */
+    private volatile RatePacer pacer;
+    /**
+     * 日志时点的 MomentInfo 副本, 同时交给这些 sink, 见 {@link #addMomentSink(MomentSink)}
+     */
+    private volatile MomentSink[] sinks = new MomentSink[0];
+    /**
+     * 时钟, 见 {@link #setClock(Clock)}
+     */
+    private volatile Clock clock = Clock.system();
 
     public SpeedStator() {
         this(null);
@@ -111,6 +190,158 @@ public class SpeedStator {
         return this;
     }
 
+    /**
+     * 开启/关闭 striped 分段计数模式
+     * <p>
+     * 默认模式下, 每次 logXxx 都要 {@code AtomicLong#getAndIncrement()} 再 {@code tryLock()}, 核数多时, 所有线程争抢同一缓存行.
+     * striped 模式下, 计数落到 {@link LongAdder} 的各个 cell 上, 且两次日志条件检查之间(见 {@link #setCheckInterval(long)})
+     * 调用只计数, 不碰锁, 到了检查时点才汇总计数.
+     * <p>
+     * 代价: 次数条件({@code countDelta})的判定精度退化为 checkInterval 粒度, 即日志可能比次数阈值晚一点输出.
+     * 另外每个线程大约每 16 次调用才看一次时钟, 流量很小时, 日志会有明显延迟, 此时不建议开启.
+     * 所有线程结束后, {@link #getHandledCount()} 依然是准确的.
+     * <p>
+     * 请在计数开始前设置, 切换过程中并发的计数可能有误差.
+     */
+    public SpeedStator setStriped(boolean striped) {
+        lock.lock();
+        try {
+            if (this.striped != striped) {
+                if (striped) {
+                    this.stripedCount.reset();
+                    this.stripedCount.add(this.handledCount.getAndSet(0));
+                } else {
+                    this.handledCount.set(this.stripedCount.sumThenReset());
+                }
+                this.nextCheckTick = 0;
+                this.striped = striped;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * 开启/关闭 scheduled 模式
+     * <p>
+     * 开启后, 由 {@link SpeedStatorReporter} 的后台守护线程每到 {@code defaultTimeInterval} 报告一次(精度 {@value SpeedStatorReporter#TICK_MILLIS}ms),
+     * logXxx/record 只剩计数(和延迟记录), 既不抢锁, 也不读时钟. 流量停了, 最后一段区间照样会报告.
+     * 各方法上的阈值, 条件和额外消息不再起作用. 配合 {@link #setStriped(boolean)} 使用, 业务线程的开销就只剩一次 cell 自增.
+     * <p>
+     * 用完请 {@link #stop()}, 会补报最后一段区间, 并从后台线程注销.
+     */
+    public SpeedStator setScheduled(boolean scheduled) {
+        this.scheduled = scheduled;
+        if (scheduled && this.running) {
+            SpeedStatorReporter.register(this);
+        } else {
+            SpeedStatorReporter.unregister(this);
+        }
+        return this;
+    }
+
+    /**
+     * 限速, 见 {@link #acquire()}. 突发上限默认 1 秒的量.
+     *
+     * @param permitsPerSecond 每秒放行数, &lt;= 0 表示不限速
+     */
+    public SpeedStator setRateLimit(double permitsPerSecond) {
+        RatePacer pacer = this.pacer;
+        return this.setRateLimit(permitsPerSecond, pacer == null ? 1 : pacer.getMaxBurstSeconds());
+    }
+
+    /**
+     * 限速, 运行中随时可调, 已在等待的调用者按原预约时刻放行, 之后的按新速率排队.
+     *
+     * @param permitsPerSecond 每秒放行数, &lt;= 0 表示不限速
+     * @param maxBurstSeconds  空闲时最多攒多少秒的令牌, 0 表示不允许突发, 严格匀速
+     */
+    public synchronized SpeedStator setRateLimit(double permitsPerSecond, double maxBurstSeconds) {
+        if (permitsPerSecond <= 0) {
+            this.pacer = null;
+        } else if (this.pacer == null) {
+            this.pacer = new RatePacer(this.clock, permitsPerSecond, maxBurstSeconds, this.getHandledCount());
+        } else {
+            this.pacer.setRate(permitsPerSecond, maxBurstSeconds);
+        }
+        return this;
+    }
+
+    /**
+     * @return 每秒放行数, 0 表示不限速
+     */
+    public double getRateLimit() {
+        RatePacer pacer = this.pacer;
+        return pacer == null ? 0 : pacer.getRate();
+    }
+
+    /**
+     * 添加 MomentInfo 接收方. 每个日志时点, 在日志锁内按顺序调用, 不在计数路径上.
+     * sink 抛出的异常只记警告, 不影响日志和其他 sink.
+     *
+     * @see MomentRingFile
+     */
+    public synchronized SpeedStator addMomentSink(MomentSink sink) {
+        MomentSink[] old = this.sinks;
+        MomentSink[] sinks = Arrays.copyOf(old, old.length + 1);
+        sinks[old.length] = sink;
+        this.sinks = sinks;
+        return this;
+    }
+
+    public synchronized SpeedStator removeMomentSink(MomentSink sink) {
+        MomentSink[] old = this.sinks;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == sink) {
+                MomentSink[] sinks = new MomentSink[old.length - 1];
+                System.arraycopy(old, 0, sinks, 0, i);
+                System.arraycopy(old, i + 1, sinks, i, old.length - i - 1);
+                this.sinks = sinks;
+                break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 换时钟. 所有时间(开始, 日志间隔, 滑动速率)都从它读, 默认 {@link Clock#system()}.
+     * <p>
+     * 统计是毫秒级的, 调用很频繁时可换成 {@link Clock#coarse()}, 读一个 volatile 字段代替系统调用.
+     * 会以新时钟的当前时刻重新开始计时(计数保留), 请在计数开始前设置. 限速({@link #acquire()})同样按新时钟排, 只是等待总是真实地 park.
+     */
+    public SpeedStator setClock(Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock must not be null");
+        }
+        lock.lock();
+        try {
+            this.clock = clock;
+            this.start = this.preTick = clock.currentTimeMillis();
+            this.nextCheckTick = 0;
+            this.rateWindow.reset(this.start);
+            RatePacer pacer = this.pacer;
+            if (pacer != null) {
+                pacer.setClock(clock);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * striped 模式下, 两次日志条件检查的最小间隔(ms)
+     */
+    public SpeedStator setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+        return this;
+    }
+
     /**
      * 开始
      * <p>时间, 数量数据重置.
@@ -119,11 +350,25 @@ public class SpeedStator {
     public void start() {
         if (running) return;
         if (lock.tryLock()) {
-            this.start = this.preTick = System.currentTimeMillis();
+            this.start = this.preTick = this.clock.currentTimeMillis();
             this.preHandledCount = 0;
             this.handledCount.set(0);
+            this.stripedCount.reset();
+            RatePacer pacer = this.pacer;
+            if (pacer != null) {
+                pacer.rebase(0);
+            }
+            this.nextCheckTick = 0;
+            if (this.latencyRecorder != null) {
+                this.latencyRecorder.reset();
+            }
+            this.rateWindow.reset(this.start);
+            this.idleReported = false;
             this.running = true;
             lock.unlock();
+            if (this.scheduled) {
+                SpeedStatorReporter.register(this);
+            }
         }
     }
 
@@ -133,25 +378,51 @@ public class SpeedStator {
      */
     public void stop() {
         if(!running) return;
-        if (!lock.tryLock()) return;
-        long totalTime = this.getTotalTime();
-        log.info("[{}] STOP: 共处理 {} 条, 耗时 {}, TPS {}/秒",
-                tag, this.handledCount.get(), Duration.ofMillis(totalTime), String.format("%.3f", this.handledCount.get() / (totalTime / 1000.0)));
-        this.running = false;
-        lock.unlock();
+        if (this.scheduled) {
+            SpeedStatorReporter.unregister(this);
+            // 补报最后一段区间
+            this.report(true);
+        }
+        lock.lock();
+        try {
+            if (!running) return;
+            long totalTime = this.getTotalTime();
+            long handledCount = this.getHandledCount();
+            LatencyRecorder latencyRecorder = this.latencyRecorder;
+            log.info("[{}] STOP: 共处理 {} 条, 耗时 {}, TPS {}/秒{}",
+                    tag, handledCount, Duration.ofMillis(totalTime), String.format("%.3f", handledCount / (totalTime / 1000.0)),
+                    latencyRecorder == null ? "" : ", 延迟 " + latencyRecorder.flipInterval()[1]);
+            this.running = false;
+        } finally {
+            lock.unlock();
+        }
     }
 
     public long getHandledCount() {
-        return this.handledCount.get();
+        return this.striped ? this.stripedCount.sum() : this.handledCount.get();
     }
 
     /**仅仅计数. 注意不要和 logxxx 在一条消息里同时使用, 因为 logxxx 本身会计数, 从而导致计数不准确.
+     * <p>
+     * striped 模式下, 返回值需要汇总各 cell, 热点路径上请不要依赖返回值.
      * @param incr 增量
      */
     public long count(int incr) {
+        if (this.striped) {
+            this.stripedCount.add(incr);
+            return this.stripedCount.sum();
+        }
         return this.handledCount.addAndGet(incr);
     }
 
+    private void increment() {
+        if (this.striped) {
+            this.stripedCount.increment();
+        } else {
+            this.handledCount.getAndIncrement();
+        }
+    }
+
     public void logTimeInterval(Object ... extraMsg_Args) {
         this.logTimeInterval(this.defaultTimeInterval, extraMsg_Args);
     }
@@ -161,9 +432,10 @@ public class SpeedStator {
      *
      */
     public void logTimeInterval(long timeInterval, Object ... extraMsg_Args) {
-        this.handledCount.getAndIncrement();
+        this.increment();
 
-        this.doLogSync((momentInfo -> momentInfo.timeInterval >= timeInterval), extraMsg_Args);
+        MomentInfo due = this.dueMoment(COND_TIME, timeInterval, 0, null);
+        if (due != null) this.logDue(due, extraMsg_Args);
     }
 
     public void logCountDelta(Object ... extraMsg_Args) {
@@ -175,9 +447,10 @@ public class SpeedStator {
      *
      */
     public void logCountDelta(int countDelta, Object ... extraMsg_Args) {
-        this.handledCount.getAndIncrement();
+        this.increment();
 
-        this.doLogSync((momentInfo -> momentInfo.countDelta >= countDelta), extraMsg_Args);
+        MomentInfo due = this.dueMoment(COND_COUNT, 0, countDelta, null);
+        if (due != null) this.logDue(due, extraMsg_Args);
     }
 
     public void logOr(Object ... extraMsg_Args) {
@@ -191,9 +464,10 @@ public class SpeedStator {
      * @param countDelta
      */
     public void logOr(long timeInterval, int countDelta, Object ... extraMsg_Args) {
-        this.handledCount.getAndIncrement();
+        this.increment();
 
-        this.doLogSync((momentInfo -> momentInfo.timeInterval >= timeInterval || momentInfo.countDelta >= countDelta), extraMsg_Args);
+        MomentInfo due = this.dueMoment(COND_OR, timeInterval, countDelta, null);
+        if (due != null) this.logDue(due, extraMsg_Args);
     }
 
     public  void logAnd(Object ... extraMsg_Args) {
@@ -207,49 +481,375 @@ public class SpeedStator {
      * @param extraMsg_Args 额外消息内容, 消息模板+占位符的参数
      */
     public void logAnd(long timeInterval, int countDelta, Object ... extraMsg_Args) {
-        this.handledCount.getAndIncrement();
+        this.increment();
 
-        this.doLogSync((momentInfo -> momentInfo.timeInterval >= timeInterval && momentInfo.countDelta >= countDelta), extraMsg_Args);
+        MomentInfo due = this.dueMoment(COND_AND, timeInterval, countDelta, null);
+        if (due != null) this.logDue(due, extraMsg_Args);
     }
 
     /**
      * 快捷方式, 都用默认阈值
-     * {@code this.doLogSync((momentInfo -> momentInfo.timeInterval >= timeInterval))} 的快捷方式.
+     * {@link #logOr(Object...)} 的快捷方式.
      */
     public void log(Object ... extraMsg_Args) {
         this.logOr(extraMsg_Args);
     }
 
     public void logIf(Predicate<MomentInfo> test, Object ... extraMsg_Args) {
-        this.handledCount.getAndIncrement();
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_TEST, 0, 0, test);
+        if (due != null) this.logDue(due, extraMsg_Args);
+    }
+
+    /**
+     * 记录一次事务的延迟, 同时计数一次, 按默认阈值({@link #logOr()})判定是否输出日志.
+     * <p>
+     * 延迟记入定长的对数-线性直方图({@link LatencyHistogram}), 写入无锁, 日志时点切换区间, 写入方不会被阻塞.
+     * 日志带上区间和累计的 p50/p90/p99/p999/max. 不要和 logXxx 对同一个事务重复调用, 否则会重复计数.
+     *
+     * @param latencyNanos 延迟, 纳秒
+     */
+    public void record(long latencyNanos) {
+        this.latencyRecorder().record(latencyNanos);
+        this.logOr();
+    }
+
+    // ---- 限速 ---- //
+
+    /**
+     * 限速模式: 取一个令牌, 超速则阻塞等待, 放行即计数一次, 并同 {@link #log()} 判定是否输出日志, 不要再对同一事务调用 logXxx.
+     * <p>
+     * 令牌桶, 速率由 {@link #setRateLimit(double)} 设定. 各线程按到达顺序排队放行(公平), 等待时不持有任何锁.
+     * 限的是本 SpeedStator 实测的总速率: 别处 {@link #count(int)} / logXxx 计的数同样占令牌, 后来的 acquire 替它们等.
+     * 日志里的实测速率(TPS, 滑动窗口, EWMA)和限速值一起输出, 便于对照. 未设置限速时, 等同于 {@link #log()}.
+     *
+     * @return 等待的纳秒数
+     */
+    public long acquire() {
+        return this.acquire(1);
+    }
+
+    /**
+     * 取 permits 个令牌, 计数 permits 次
+     *
+     * @see #acquire()
+     */
+    public long acquire(int permits) {
+        RatePacer pacer = this.pacer;
+        long waited = pacer == null ? 0 : pacer.acquire(permits, this.getHandledCount());
+        this.paced(permits);
+        return waited;
+    }
+
+    /**
+     * 有令牌就取走并计数, 返回 true; 超速则立即返回 false, 不计数
+     */
+    public boolean tryAcquire() {
+        return this.tryAcquire(1, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * timeout 内能轮到就等待并计数, 返回 true; 否则立即返回 false, 不计数, 也不占令牌
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) {
+        return this.tryAcquire(1, timeout, unit);
+    }
+
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+        RatePacer pacer = this.pacer;
+        if (pacer != null && !pacer.tryAcquire(permits, unit.toNanos(timeout), this.getHandledCount())) {
+            return false;
+        }
+        this.paced(permits);
+        return true;
+    }
+
+    private void paced(int permits) {
+        if (permits == 1) {
+            this.increment();
+        } else if (this.striped) {
+            this.stripedCount.add(permits);
+        } else {
+            this.handledCount.getAndAdd(permits);
+        }
+
+        MomentInfo due = this.dueMoment(COND_OR, this.defaultTimeInterval, this.defaultCountDelta, null);
+        if (due != null) this.logDue(due);
+    }
+
+    private LatencyRecorder latencyRecorder() {
+        LatencyRecorder recorder = this.latencyRecorder;
+        if (recorder == null) {
+            synchronized (this) {
+                recorder = this.latencyRecorder;
+                if (recorder == null) {
+                    this.latencyRecorder = recorder = new LatencyRecorder();
+                }
+            }
+        }
+        return recorder;
+    }
+
+    // ---- 无分配的热点路径 ---- //
+    // 下面的重载在不输出日志时不产生任何对象: 没有 varargs 数组, 没有捕获 lambda, MomentInfo 复用.
+    // 消息参数只在真正输出日志时才组装. Supplier 请用非捕获的 lambda 或提前建好的实例, 否则调用处每次都会 new 一个.
+
+    /**
+     * 同 {@link #log(Object...)}, 无额外消息
+     */
+    public void log() {
+        this.logOr();
+    }
+
+    public void log(String format, Object arg) {
+        this.logOr(format, arg);
+    }
+
+    public void log(String format, Object arg1, Object arg2) {
+        this.logOr(format, arg1, arg2);
+    }
 
-        this.doLogSync(test, extraMsg_Args);
+    public void log(Supplier<String> extraMsg) {
+        this.logOr(extraMsg);
     }
 
-    private void doLogSync(Predicate<MomentInfo> test, Object ... extraMsg_Args) {
-        if (!lock.tryLock()) return;
+    public void logOr() {
+        this.increment();
 
+        MomentInfo due = this.dueMoment(COND_OR, this.defaultTimeInterval, this.defaultCountDelta, null);
+        if (due != null) this.logDue(due);
+    }
+
+    public void logOr(String format, Object arg) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_OR, this.defaultTimeInterval, this.defaultCountDelta, null);
+        if (due != null) this.logDue(due, format, arg);
+    }
+
+    public void logOr(String format, Object arg1, Object arg2) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_OR, this.defaultTimeInterval, this.defaultCountDelta, null);
+        if (due != null) this.logDue(due, format, arg1, arg2);
+    }
+
+    public void logOr(Supplier<String> extraMsg) {
+        this.logOr(this.defaultTimeInterval, this.defaultCountDelta, extraMsg);
+    }
+
+    public void logOr(long timeInterval, int countDelta, Supplier<String> extraMsg) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_OR, timeInterval, countDelta, null);
+        if (due != null) this.logDue(due, extraMsg);
+    }
+
+    public void logTimeInterval() {
+        this.logTimeInterval(this.defaultTimeInterval, (Supplier<String>) null);
+    }
+
+    public void logTimeInterval(long timeInterval, Supplier<String> extraMsg) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_TIME, timeInterval, 0, null);
+        if (due != null) this.logDue(due, extraMsg);
+    }
+
+    public void logCountDelta() {
+        this.logCountDelta(this.defaultCountDelta, (Supplier<String>) null);
+    }
+
+    public void logCountDelta(int countDelta, Supplier<String> extraMsg) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_COUNT, 0, countDelta, null);
+        if (due != null) this.logDue(due, extraMsg);
+    }
+
+    public void logAnd() {
+        this.logAnd(this.defaultTimeInterval, this.defaultCountDelta, (Supplier<String>) null);
+    }
+
+    public void logAnd(long timeInterval, int countDelta, Supplier<String> extraMsg) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_AND, timeInterval, countDelta, null);
+        if (due != null) this.logDue(due, extraMsg);
+    }
+
+    /**
+     * @param test 入参 MomentInfo 是复用的, 请不要持有它
+     */
+    public void logIf(Predicate<MomentInfo> test) {
+        this.logIf(test, (Supplier<String>) null);
+    }
+
+    public void logIf(Predicate<MomentInfo> test, Supplier<String> extraMsg) {
+        this.increment();
+
+        MomentInfo due = this.dueMoment(COND_TEST, 0, 0, test);
+        if (due != null) this.logDue(due, extraMsg);
+    }
+
+    /**
+     * 判定是否到了日志时点
+     * <p>
+     * 是, 则返回复用的 {@link #moment}, 且<em>锁仍被持有</em>, 调用方必须紧接着调用 {@link #logDue(MomentInfo, Object...)} 输出并释放锁.
+     * 否, 返回 null, 锁已释放. 此路径不产生任何对象.
+     */
+    private MomentInfo dueMoment(int cond, long timeInterval, long countDelta, Predicate<MomentInfo> test) {
+        // scheduled 模式下, 日志由后台线程负责, 这里只计数
+        if (this.scheduled) return null;
+        // striped 模式下, 未到检查时点的调用, 只计数, 连锁都不碰. 时钟调用也不便宜, 抽样看.
+        if (this.striped) {
+            if ((ThreadLocalRandom.current().nextInt() & CHECK_SAMPLE_MASK) != 0) return null;
+            if (this.clock.currentTimeMillis() < this.nextCheckTick) return null;
+        }
+        if (!lock.tryLock()) return null;
+
+        boolean due = false;
         try {
-            long now = System.currentTimeMillis();
-            this.totalTime = now - this.start;
+            long now = this.clock.currentTimeMillis();
+            MomentInfo momentInfo = this.fillMoment(now);
 
-            // 最近间隔内 时长, 数量. 总时长, 总数量.
-            MomentInfo momentInfo = new MomentInfo();
-            momentInfo.countDelta = this.handledCount.get() - this.preHandledCount;
-            momentInfo.timeInterval = now - this.preTick;
-            momentInfo.handledCount = this.handledCount.get();
-            momentInfo.totalTime = this.totalTime;
-
-            if (test.test(momentInfo)) {
-                doLog(momentInfo, extraMsg_Args);
-                this.preTick = now;
-                this.preHandledCount = this.handledCount.get();
+            switch (cond) {
+                case COND_TIME:
+                    due = momentInfo.timeInterval >= timeInterval;
+                    break;
+                case COND_COUNT:
+                    due = momentInfo.countDelta >= countDelta;
+                    break;
+                case COND_OR:
+                    due = momentInfo.timeInterval >= timeInterval || momentInfo.countDelta >= countDelta;
+                    break;
+                case COND_AND:
+                    due = momentInfo.timeInterval >= timeInterval && momentInfo.countDelta >= countDelta;
+                    break;
+                default:
+                    due = test.test(momentInfo);
+            }
+            if (this.striped) {
+                this.nextCheckTick = now + this.checkInterval;
+            }
+            return due ? momentInfo : null;
+        } finally {
+            if (!due) {
+                lock.unlock();
             }
+        }
+    }
+
+    /**
+     * 持锁时, 把当前时点的状态填进复用的 {@link #moment}
+     */
+    private MomentInfo fillMoment(long now) {
+        this.totalTime = now - this.start;
+        long handledCount = this.getHandledCount();
+        this.rateWindow.tick(now, handledCount);
+
+        // 最近间隔内 时长, 数量. 总时长, 总数量.
+        MomentInfo momentInfo = this.moment;
+        momentInfo.countDelta = handledCount - this.preHandledCount;
+        momentInfo.timeInterval = now - this.preTick;
+        momentInfo.handledCount = handledCount;
+        momentInfo.totalTime = this.totalTime;
+        return momentInfo;
+    }
+
+    /**
+     * scheduled 模式下, 由 {@link SpeedStatorReporter} 后台线程定时调用
+     */
+    void report() {
+        this.report(false);
+    }
+
+    /**
+     * @param last 是否最后一次(stop 时补报), 是则只要区间内有流量就报告, 不等时间间隔
+     */
+    private void report(boolean last) {
+        if (!this.running) return;
+        if (last) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            return;
+        }
+
+        boolean due = false;
+        try {
+            MomentInfo momentInfo = this.fillMoment(this.clock.currentTimeMillis());
+            if (last) {
+                due = momentInfo.countDelta > 0;
+            } else {
+                // 流量停了, 再报告一次(最近 0 条), 之后安静, 直到又有流量
+                due = momentInfo.timeInterval >= this.defaultTimeInterval && (momentInfo.countDelta > 0 || !this.idleReported);
+            }
+            if (due) {
+                this.idleReported = momentInfo.countDelta == 0;
+            }
+        } finally {
+            if (!due) {
+                lock.unlock();
+            }
+        }
+        if (due) {
+            this.logDue(this.moment);
+        }
+    }
+
+    /**
+     * 输出日志, 推进日志时点, 释放 {@link #dueMoment} 持有的锁
+     */
+    private void logDue(MomentInfo due, Object ... extraMsg_Args) {
+        try {
+            this.emit(due, extraMsg_Args);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 同 {@link #logDue(MomentInfo, Object...)}, extraMsg 为 null 时没有附加信息.
+     * extraMsg 在锁内取, 它抛异常也会释放锁.
+     */
+    private void logDue(MomentInfo due, Supplier<String> extraMsg) {
+        try {
+            this.emit(due, extraMsg == null ? NO_ARGS : new Object[]{extraMsg.get()});
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 持锁时输出日志, 推进日志时点
+     */
+    private void emit(MomentInfo due, Object[] extraMsg_Args) {
+        // 复用的 moment 不能交出去, 给日志的是副本
+        MomentInfo momentInfo = due.copy();
+        LatencyRecorder latencyRecorder = this.latencyRecorder;
+        if (latencyRecorder != null) {
+            LatencyHistogram.Percentiles[] percentiles = latencyRecorder.flipInterval();
+            momentInfo.intervalLatency = percentiles[0];
+            momentInfo.totalLatency = percentiles[1];
+        }
+        this.fillRates(momentInfo);
+        doLog(momentInfo, extraMsg_Args);
+        this.sink(due.totalTime + this.start, momentInfo);
+        this.preTick = due.totalTime + this.start;
+        this.preHandledCount = due.handledCount;
+    }
+
+    private void sink(long timestamp, MomentInfo momentInfo) {
+        for (MomentSink sink : this.sinks) {
+            try {
+                sink.accept(this.tag, timestamp, momentInfo);
+            } catch (Throwable e) {
+                log.warn("[{}] MomentSink 异常: {}", tag, sink, e);
+            }
+        }
+    }
+
     /**
      * 执行日志输出
      * 不喜欢这里日志输出方式, 可以覆写.
@@ -270,16 +870,32 @@ public class SpeedStator {
 
         if (this.logFunc == null) {
             log.info("[{}] 最近 {} 条, 耗时 {}, [TPS] {}/秒. 已处理 {} 条, 耗时 {}, TPS {}/秒{}",
-                    tag, momentInfo.countDelta, Duration.ofMillis(momentInfo.timeInterval), String.format("%.3f", momentInfo.latestTps()), this.handledCount, Duration.ofMillis(this.totalTime), String.format("%.3f", momentInfo.totalTps()),
-                    extraMsgTxt == null ? "" : "\n" + extraMsgTxt);
+                    tag, momentInfo.countDelta, Duration.ofMillis(momentInfo.timeInterval), String.format("%.3f", momentInfo.latestTps()), momentInfo.handledCount, Duration.ofMillis(momentInfo.totalTime), String.format("%.3f", momentInfo.totalTps()),
+                    momentDetail(momentInfo) + (extraMsgTxt == null ? "" : "\n" + extraMsgTxt));
         }
         else {
             this.logFunc.accept(momentInfo, extraMsgTxt);
         }
     }
 
+    /**
+     * 默认日志的附加行: 滑动/EWMA 速率, 延迟分位值
+     */
+    private static String momentDetail(MomentInfo momentInfo) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n    [1m/5m/15m] ").append(String.format("%.3f/%.3f/%.3f", momentInfo.rate1m, momentInfo.rate5m, momentInfo.rate15m))
+                .append(" /秒, [EWMA] ").append(String.format("%.3f/%.3f/%.3f", momentInfo.ewma1m, momentInfo.ewma5m, momentInfo.ewma15m)).append(" /秒");
+        if (momentInfo.rateLimit > 0) {
+            sb.append(", [限速] ").append(String.format("%.3f", momentInfo.rateLimit)).append(" /秒");
+        }
+        if (momentInfo.intervalLatency != null) {
+            sb.append("\n    延迟 最近 ").append(momentInfo.intervalLatency).append(", 累计 ").append(momentInfo.totalLatency);
+        }
+        return sb.toString();
+    }
+
     public long getTotalTime() {
-        return this.totalTime = System.currentTimeMillis() - this.start;
+        return this.clock.currentTimeMillis() - this.start;
     }
 
 
@@ -296,7 +912,7 @@ public class SpeedStator {
      * 实时最近速率, 上次日志点开始到现在的速率
      */
     public double getLatestSpeed() {
-        long dur = System.currentTimeMillis() - this.preTick;
+        long dur = this.clock.currentTimeMillis() - this.preTick;
         long c = this.getHandledCount() - this.preHandledCount;
         return (double) c / dur;
     }
@@ -305,16 +921,97 @@ public class SpeedStator {
      * 实时 MomentInfo , 上次日志时点开始到现在
      */
     public MomentInfo getLatestMoment() {
-        long dur = System.currentTimeMillis() - this.preTick;
+        long dur = this.clock.currentTimeMillis() - this.preTick;
         long c = this.getHandledCount() - this.preHandledCount;
         MomentInfo momentInfo = new MomentInfo();
         momentInfo.countDelta = c;
         momentInfo.timeInterval = dur;
         momentInfo.handledCount = this.getHandledCount();
         momentInfo.totalTime = this.getTotalTime();
+        LatencyRecorder latencyRecorder = this.latencyRecorder;
+        if (latencyRecorder != null) {
+            LatencyHistogram.Percentiles[] percentiles = latencyRecorder.peek();
+            momentInfo.intervalLatency = percentiles[0];
+            momentInfo.totalLatency = percentiles[1];
+        }
+        this.tickRates();
+        this.fillRates(momentInfo);
         return momentInfo;
     }
 
+    /**
+     * 最近 1 分钟的滑动平均速率, 条/秒. 每秒一个桶, 随时可查, 不碰日志锁.
+     */
+    public double getRate1m() {
+        this.tickRates();
+        return this.rateWindow.rate1m();
+    }
+
+    public double getRate5m() {
+        this.tickRates();
+        return this.rateWindow.rate5m();
+    }
+
+    public double getRate15m() {
+        this.tickRates();
+        return this.rateWindow.rate15m();
+    }
+
+    /**
+     * 1 分钟 EWMA 速率, 条/秒. 同 Unix load average.
+     */
+    public double getEwma1m() {
+        this.tickRates();
+        return this.rateWindow.ewma1m();
+    }
+
+    public double getEwma5m() {
+        this.tickRates();
+        return this.rateWindow.ewma5m();
+    }
+
+    public double getEwma15m() {
+        this.tickRates();
+        return this.rateWindow.ewma15m();
+    }
+
+    /**
+     * 累计的延迟分位值, 不阻塞. 没用过 {@link #record(long)} 时返回 null.
+     */
+    public LatencyHistogram.Percentiles getTotalLatency() {
+        LatencyRecorder latencyRecorder = this.latencyRecorder;
+        return latencyRecorder == null ? null : latencyRecorder.peekTotal();
+    }
+
+    /**
+     * 不可变快照, 可和其他分区的快照合并, 见 {@link SpeedSnapshot#merge(SpeedSnapshot)}, {@link SpeedStatorAggregator}.
+     * 不碰日志锁, 不切换延迟区间.
+     */
+    public SpeedSnapshot snapshot() {
+        long now = this.clock.currentTimeMillis();
+        long handledCount = this.getHandledCount();
+        this.rateWindow.tick(now, handledCount);
+        LatencyRecorder latencyRecorder = this.latencyRecorder;
+        return new SpeedSnapshot(this.tag, this.start, now, this.running, handledCount,
+                this.rateWindow.rate1m(), this.rateWindow.rate5m(), this.rateWindow.rate15m(),
+                this.rateWindow.ewma1m(), this.rateWindow.ewma5m(), this.rateWindow.ewma15m(),
+                latencyRecorder == null ? null : latencyRecorder.totalCopy());
+    }
+
+    private void tickRates() {
+        this.rateWindow.tick(this.clock.currentTimeMillis(), this.getHandledCount());
+    }
+
+    private void fillRates(MomentInfo momentInfo) {
+        momentInfo.rate1m = this.rateWindow.rate1m();
+        momentInfo.rate5m = this.rateWindow.rate5m();
+        momentInfo.rate15m = this.rateWindow.rate15m();
+        momentInfo.ewma1m = this.rateWindow.ewma1m();
+        momentInfo.ewma5m = this.rateWindow.ewma5m();
+        momentInfo.ewma15m = this.rateWindow.ewma15m();
+        momentInfo.rateLimit = this.getRateLimit();
+    }
+
 
     public static class MomentInfo {
         public long countDelta;
@@ -327,6 +1024,30 @@ public class SpeedStator {
          * 处理消耗的总时长
          */
         private long totalTime;
+        /**
+         * 最近间隔内的延迟分位值, 没用 {@link #record(long)} 时为 null
+         */
+        private LatencyHistogram.Percentiles intervalLatency;
+        /**
+         * 累计的延迟分位值, 没用 {@link #record(long)} 时为 null
+         */
+        private LatencyHistogram.Percentiles totalLatency;
+        /**
+         * 1/5/15 分钟滑动速率, 条/秒
+         */
+        public double rate1m;
+        public double rate5m;
+        public double rate15m;
+        /**
+         * 1/5/15 分钟 EWMA 速率, 条/秒
+         */
+        public double ewma1m;
+        public double ewma5m;
+        public double ewma15m;
+        /**
+         * 限速, 条/秒, 0 表示不限速
+         */
+        public double rateLimit;
 
         // 最近的速度, 条/秒
         public double latestTps() {
@@ -337,6 +1058,51 @@ public class SpeedStator {
             return this.handledCount / (this.totalTime / 1000.0);
         }
 
+        public long getHandledCount() {
+            return this.handledCount;
+        }
+
+        public long getTotalTime() {
+            return this.totalTime;
+        }
+
+        public LatencyHistogram.Percentiles getIntervalLatency() {
+            return this.intervalLatency;
+        }
+
+        public LatencyHistogram.Percentiles getTotalLatency() {
+            return this.totalLatency;
+        }
+
+        /**
+         * 从持久化的记录还原
+         */
+        static MomentInfo restore(long handledCount, long totalTime, LatencyHistogram.Percentiles intervalLatency) {
+            MomentInfo momentInfo = new MomentInfo();
+            momentInfo.handledCount = handledCount;
+            momentInfo.totalTime = totalTime;
+            momentInfo.intervalLatency = intervalLatency;
+            return momentInfo;
+        }
+
+        public MomentInfo copy() {
+            MomentInfo copy = new MomentInfo();
+            copy.countDelta = this.countDelta;
+            copy.timeInterval = this.timeInterval;
+            copy.handledCount = this.handledCount;
+            copy.totalTime = this.totalTime;
+            copy.intervalLatency = this.intervalLatency;
+            copy.totalLatency = this.totalLatency;
+            copy.rate1m = this.rate1m;
+            copy.rate5m = this.rate5m;
+            copy.rate15m = this.rate15m;
+            copy.ewma1m = this.ewma1m;
+            copy.ewma5m = this.ewma5m;
+            copy.ewma15m = this.ewma15m;
+            copy.rateLimit = this.rateLimit;
+            return copy;
+        }
+
         @Override
         public String toString() {
             return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
@@ -346,6 +1112,15 @@ public class SpeedStator {
                     .append("totalTime", DateUtil.formatBetween( totalTime, MILLISECOND))
                     .append("latestTps", String.format("%.3f", latestTps()))
                     .append("totalTps", String.format("%.3f", totalTps()))
+                    .append("rate1m", String.format("%.3f", rate1m))
+                    .append("rate5m", String.format("%.3f", rate5m))
+                    .append("rate15m", String.format("%.3f", rate15m))
+                    .append("ewma1m", String.format("%.3f", ewma1m))
+                    .append("ewma5m", String.format("%.3f", ewma5m))
+                    .append("ewma15m", String.format("%.3f", ewma15m))
+                    .append("rateLimit", String.format("%.3f", rateLimit))
+                    .append("intervalLatency", intervalLatency)
+                    .append("totalLatency", totalLatency)
                     .toString();
         }
     }
@@ -0,0 +1,97 @@
+package com.wtgroup.sugar.stopwatch;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 多个 SpeedStator 的汇总视图, 如一个作业按分区拆开, 每个分区一个 SpeedStator
+ * <p>
+ * 不自己计数, 每次查询时对各子 SpeedStator 取快照({@link SpeedStator#snapshot()})再合并, 不会重复计数, 也不受各分区日志时点不同的影响.
+ *
+ * <pre>
+ * SpeedStatorAggregator job = new SpeedStatorAggregator("order-job").setExpectedTotal(total);
+ * partitions.forEach(p -&gt; job.add(p.getSpeedStator()));
+ * ...
+ * job.log(); // [order-job] 3 个分区, 已处理 ..., 进度 42.0%, 预计还需 PT3M
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public class SpeedStatorAggregator {
+
+    @Getter
+    private final String tag;
+    private final List<SpeedStator> children = new CopyOnWriteArrayList<>();
+    /**
+     * 预期总数, 用于进度和 ETA, 0 表示未知
+     */
+    @Getter
+    private volatile long expectedTotal;
+
+    public SpeedStatorAggregator(String tag) {
+        this.tag = tag;
+    }
+
+    public SpeedStatorAggregator add(SpeedStator child) {
+        this.children.add(child);
+        return this;
+    }
+
+    public SpeedStatorAggregator remove(SpeedStator child) {
+        this.children.remove(child);
+        return this;
+    }
+
+    public List<SpeedStator> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public SpeedStatorAggregator setExpectedTotal(long expectedTotal) {
+        this.expectedTotal = expectedTotal;
+        return this;
+    }
+
+    /**
+     * 各子 SpeedStator 快照的合并
+     */
+    public SpeedSnapshot snapshot() {
+        return SpeedSnapshot.merge(tag, children.stream().map(SpeedStator::snapshot).toArray(SpeedSnapshot[]::new));
+    }
+
+    /**
+     * 按 {@link #setExpectedTotal(long)} 估计剩余时长
+     *
+     * @return 未设置预期总数或速率为 0 时返回 null
+     */
+    public Duration eta() {
+        return this.expectedTotal <= 0 ? null : this.snapshot().eta(this.expectedTotal);
+    }
+
+    /**
+     * 输出一行汇总日志
+     */
+    public void log() {
+        SpeedSnapshot s = this.snapshot();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%.3f", s.getTotalTps())).append("/秒, [1m/5m/15m] ")
+                .append(String.format("%.3f/%.3f/%.3f", s.getRate1m(), s.getRate5m(), s.getRate15m())).append(" /秒");
+        long expected = this.expectedTotal;
+        if (expected > 0) {
+            Duration eta = s.eta(expected);
+            sb.append(", 进度 ").append(String.format("%.1f", s.progress(expected))).append("%, 预计还需 ").append(eta == null ? "未知" : eta);
+        }
+        if (s.getLatency() != null) {
+            sb.append(", 延迟 ").append(s.getLatency());
+        }
+        log.info("[{}] {} 个分区, 已处理 {} 条, 耗时 {}, TPS {}",
+                tag, children.size(), s.getHandledCount(), Duration.ofMillis(s.getTotalTime()), sb);
+    }
+}
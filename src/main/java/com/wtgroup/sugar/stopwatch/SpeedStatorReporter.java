@@ -0,0 +1,83 @@
+package com.wtgroup.sugar.stopwatch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpeedStator 后台定时报告
+ * <p>
+ * 进程内共享一个守护线程, 每 {@value #TICK_MILLIS}ms 巡检一遍所有登记的 SpeedStator, 到了各自的 {@code defaultTimeInterval} 就输出一次日志.
+ * 日志输出不再依赖业务线程去抢锁, 业务线程只剩计数; 流量停了, 最后一段区间也照样会报告.
+ * <p>
+ * 一般不直接用, 见 {@link SpeedStator#setScheduled(boolean)}.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public final class SpeedStatorReporter {
+
+    /**
+     * 巡检间隔, 也是报告时点的精度
+     */
+    public static final long TICK_MILLIS = 100;
+
+    private static final Set<SpeedStator> STATORS = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private SpeedStatorReporter() {
+    }
+
+    /**
+     * 登记, 之后由后台线程定时报告. 不再使用时请 {@link SpeedStator#stop()} 或 {@link #unregister(SpeedStator)}, 否则会一直被持有.
+     */
+    public static void register(SpeedStator stator) {
+        STATORS.add(stator);
+        ensureStarted();
+    }
+
+    public static void unregister(SpeedStator stator) {
+        STATORS.remove(stator);
+    }
+
+    public static boolean isRegistered(SpeedStator stator) {
+        return STATORS.contains(stator);
+    }
+
+    private static void ensureStarted() {
+        if (scheduler != null) {
+            return;
+        }
+        synchronized (SpeedStatorReporter.class) {
+            if (scheduler != null) {
+                return;
+            }
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "speed-stator-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(SpeedStatorReporter::reportAll, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            scheduler = executor;
+        }
+    }
+
+    private static void reportAll() {
+        for (SpeedStator stator : STATORS) {
+            // 一个出错不能影响别人, 更不能让定时任务挂掉
+            try {
+                stator.report();
+            } catch (Throwable e) {
+                log.warn("[{}] 定时报告异常", stator.getTag(), e);
+            }
+        }
+    }
+}
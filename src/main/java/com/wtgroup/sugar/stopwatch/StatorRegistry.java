@@ -0,0 +1,465 @@
+package com.wtgroup.sugar.stopwatch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 进程级的 SpeedStator / StopWatch / ConcurrentStopWatch 登记处
+ * <p>
+ * SpeedStator 按 tag, StopWatch 按 id 登记. 登记后可统一导出: {@link PrometheusExporter} 文本格式, {@link #enableJmx()} JMX MBean.
+ * 导出只读计数, 不加锁, 不重置. JMX 上 SpeedStator 的限速可写, 见 {@link SpeedStatorMXBean#setRateLimit(double)}.
+ *
+ * <pre>
+ * SpeedStator speedStator = StatorRegistry.speedStator("order-consumer");
+ * PrometheusExporter.serve(9464); // GET http://host:9464/metrics
+ * StatorRegistry.enableJmx();
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public final class StatorRegistry {
+
+    public static final String JMX_DOMAIN = "com.wtgroup.sugar";
+
+    private static final ConcurrentMap<String, SpeedStator> SPEED_STATORS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, StopWatch> STOP_WATCHES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ConcurrentStopWatch> CONCURRENT_STOP_WATCHES = new ConcurrentHashMap<>();
+
+    private static volatile boolean jmxEnabled = false;
+
+    private StatorRegistry() {
+    }
+
+    /**
+     * 按 tag 取, 没有则新建并登记
+     */
+    public static SpeedStator speedStator(String tag) {
+        return SPEED_STATORS.computeIfAbsent(tag, k -> {
+            SpeedStator stator = new SpeedStator(k);
+            registerMBean("SpeedStator", k, new SpeedStatorMXBeanImpl(stator));
+            return stator;
+        });
+    }
+
+    /**
+     * 按 id 取, 没有则新建并登记
+     */
+    public static StopWatch stopWatch(String id) {
+        return STOP_WATCHES.computeIfAbsent(id, k -> {
+            StopWatch stopWatch = new StopWatch(k);
+            registerMBean("StopWatch", k, new StopWatchMXBeanImpl(stopWatch));
+            return stopWatch;
+        });
+    }
+
+    /**
+     * 按 id 取多线程秒表, 没有则新建并登记
+     */
+    public static ConcurrentStopWatch concurrentStopWatch(String id) {
+        return CONCURRENT_STOP_WATCHES.computeIfAbsent(id, k -> {
+            ConcurrentStopWatch stopWatch = new ConcurrentStopWatch(k);
+            registerMBean("ConcurrentStopWatch", k, new ConcurrentStopWatchMXBeanImpl(stopWatch));
+            return stopWatch;
+        });
+    }
+
+    /**
+     * 登记已有的 SpeedStator, 同 tag 的会被顶替
+     */
+    public static SpeedStator register(SpeedStator stator) {
+        SpeedStator old = SPEED_STATORS.put(stator.getTag(), stator);
+        if (old != null && old != stator) {
+            log.warn("SpeedStator `{}` 已登记, 被顶替", stator.getTag());
+            unregisterMBean("SpeedStator", stator.getTag());
+        }
+        if (old != stator) {
+            registerMBean("SpeedStator", stator.getTag(), new SpeedStatorMXBeanImpl(stator));
+        }
+        return stator;
+    }
+
+    /**
+     * 登记已有的 StopWatch, 同 id 的会被顶替
+     */
+    public static StopWatch register(StopWatch stopWatch) {
+        StopWatch old = STOP_WATCHES.put(stopWatch.getId(), stopWatch);
+        if (old != null && old != stopWatch) {
+            log.warn("StopWatch `{}` 已登记, 被顶替", stopWatch.getId());
+            unregisterMBean("StopWatch", stopWatch.getId());
+        }
+        if (old != stopWatch) {
+            registerMBean("StopWatch", stopWatch.getId(), new StopWatchMXBeanImpl(stopWatch));
+        }
+        return stopWatch;
+    }
+
+    /**
+     * 登记已有的多线程秒表, 同 id 的会被顶替
+     */
+    public static ConcurrentStopWatch register(ConcurrentStopWatch stopWatch) {
+        ConcurrentStopWatch old = CONCURRENT_STOP_WATCHES.put(stopWatch.getId(), stopWatch);
+        if (old != null && old != stopWatch) {
+            log.warn("ConcurrentStopWatch `{}` 已登记, 被顶替", stopWatch.getId());
+            unregisterMBean("ConcurrentStopWatch", stopWatch.getId());
+        }
+        if (old != stopWatch) {
+            registerMBean("ConcurrentStopWatch", stopWatch.getId(), new ConcurrentStopWatchMXBeanImpl(stopWatch));
+        }
+        return stopWatch;
+    }
+
+    public static SpeedStator removeSpeedStator(String tag) {
+        SpeedStator removed = SPEED_STATORS.remove(tag);
+        if (removed != null) {
+            unregisterMBean("SpeedStator", tag);
+        }
+        return removed;
+    }
+
+    public static StopWatch removeStopWatch(String id) {
+        StopWatch removed = STOP_WATCHES.remove(id);
+        if (removed != null) {
+            unregisterMBean("StopWatch", id);
+        }
+        return removed;
+    }
+
+    public static ConcurrentStopWatch removeConcurrentStopWatch(String id) {
+        ConcurrentStopWatch removed = CONCURRENT_STOP_WATCHES.remove(id);
+        if (removed != null) {
+            unregisterMBean("ConcurrentStopWatch", id);
+        }
+        return removed;
+    }
+
+    public static List<SpeedStator> getSpeedStators() {
+        return new ArrayList<>(SPEED_STATORS.values());
+    }
+
+    public static List<StopWatch> getStopWatches() {
+        return new ArrayList<>(STOP_WATCHES.values());
+    }
+
+    public static List<ConcurrentStopWatch> getConcurrentStopWatches() {
+        return new ArrayList<>(CONCURRENT_STOP_WATCHES.values());
+    }
+
+    /**
+     * 开启 JMX 导出, 已登记的和之后登记的都注册为 MBean.
+     * ObjectName: {@code com.wtgroup.sugar:type=SpeedStator,name="tag"}, {@code com.wtgroup.sugar:type=StopWatch,name="id"}
+     */
+    public static synchronized void enableJmx() {
+        if (jmxEnabled) {
+            return;
+        }
+        jmxEnabled = true;
+        for (Map.Entry<String, SpeedStator> e : SPEED_STATORS.entrySet()) {
+            registerMBean("SpeedStator", e.getKey(), new SpeedStatorMXBeanImpl(e.getValue()));
+        }
+        for (Map.Entry<String, StopWatch> e : STOP_WATCHES.entrySet()) {
+            registerMBean("StopWatch", e.getKey(), new StopWatchMXBeanImpl(e.getValue()));
+        }
+        for (Map.Entry<String, ConcurrentStopWatch> e : CONCURRENT_STOP_WATCHES.entrySet()) {
+            registerMBean("ConcurrentStopWatch", e.getKey(), new ConcurrentStopWatchMXBeanImpl(e.getValue()));
+        }
+    }
+
+    public static synchronized void disableJmx() {
+        if (!jmxEnabled) {
+            return;
+        }
+        for (String tag : SPEED_STATORS.keySet()) {
+            unregisterMBean("SpeedStator", tag);
+        }
+        for (String id : STOP_WATCHES.keySet()) {
+            unregisterMBean("StopWatch", id);
+        }
+        for (String id : CONCURRENT_STOP_WATCHES.keySet()) {
+            unregisterMBean("ConcurrentStopWatch", id);
+        }
+        jmxEnabled = false;
+    }
+
+    public static ObjectName objectName(String type, String name) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("非法的 JMX 名称: " + name, e);
+        }
+    }
+
+    private static void registerMBean(String type, String name, Object mbean) {
+        if (!jmxEnabled) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = objectName(type, name);
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (JMException e) {
+            log.warn("注册 MBean 失败: {}", objectName, e);
+        }
+    }
+
+    private static void unregisterMBean(String type, String name) {
+        if (!jmxEnabled) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = objectName(type, name);
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.warn("注销 MBean 失败: {}", objectName, e);
+        }
+    }
+
+    // ---- MXBean ---- //
+
+    /**
+     * SpeedStator 的 JMX 视图. 除限速可经 {@link #setRateLimit(double)} 调整外, 只读
+     */
+    public interface SpeedStatorMXBean {
+        String getTag();
+
+        boolean isRunning();
+
+        long getHandledCount();
+
+        long getTotalTimeMillis();
+
+        double getTotalTps();
+
+        double getRate1m();
+
+        double getRate5m();
+
+        double getRate15m();
+
+        double getEwma1m();
+
+        double getEwma5m();
+
+        double getEwma15m();
+
+        /**
+         * 限速, 条/秒, 0 表示不限速
+         */
+        double getRateLimit();
+
+        /**
+         * 运行中调整限速, &lt;= 0 取消限速
+         */
+        void setRateLimit(double permitsPerSecond);
+
+        long getLatencyCount();
+
+        long getLatencyP50Nanos();
+
+        long getLatencyP90Nanos();
+
+        long getLatencyP99Nanos();
+
+        long getLatencyP999Nanos();
+
+        long getLatencyMaxNanos();
+    }
+
+    /**
+     * StopWatch / ConcurrentStopWatch 的 JMX 视图, 只读
+     */
+    public interface StopWatchMXBean {
+        String getId();
+
+        int getTaskCount();
+
+        long getTotalTimeNanos();
+
+        boolean isRunning();
+    }
+
+    static class SpeedStatorMXBeanImpl implements SpeedStatorMXBean {
+        private final SpeedStator stator;
+
+        SpeedStatorMXBeanImpl(SpeedStator stator) {
+            this.stator = stator;
+        }
+
+        @Override
+        public String getTag() {
+            return stator.getTag();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return stator.isRunning();
+        }
+
+        @Override
+        public long getHandledCount() {
+            return stator.getHandledCount();
+        }
+
+        @Override
+        public long getTotalTimeMillis() {
+            return stator.getTotalTime();
+        }
+
+        @Override
+        public double getTotalTps() {
+            long totalTime = stator.getTotalTime();
+            return totalTime <= 0 ? 0 : stator.getHandledCount() * 1000.0 / totalTime;
+        }
+
+        @Override
+        public double getRate1m() {
+            return stator.getRate1m();
+        }
+
+        @Override
+        public double getRate5m() {
+            return stator.getRate5m();
+        }
+
+        @Override
+        public double getRate15m() {
+            return stator.getRate15m();
+        }
+
+        @Override
+        public double getEwma1m() {
+            return stator.getEwma1m();
+        }
+
+        @Override
+        public double getEwma5m() {
+            return stator.getEwma5m();
+        }
+
+        @Override
+        public double getEwma15m() {
+            return stator.getEwma15m();
+        }
+
+        @Override
+        public double getRateLimit() {
+            return stator.getRateLimit();
+        }
+
+        @Override
+        public void setRateLimit(double permitsPerSecond) {
+            stator.setRateLimit(permitsPerSecond);
+        }
+
+        private LatencyHistogram.Percentiles latency() {
+            LatencyHistogram.Percentiles latency = stator.getTotalLatency();
+            return latency == null ? new LatencyHistogram.Percentiles() : latency;
+        }
+
+        @Override
+        public long getLatencyCount() {
+            return latency().count;
+        }
+
+        @Override
+        public long getLatencyP50Nanos() {
+            return latency().p50;
+        }
+
+        @Override
+        public long getLatencyP90Nanos() {
+            return latency().p90;
+        }
+
+        @Override
+        public long getLatencyP99Nanos() {
+            return latency().p99;
+        }
+
+        @Override
+        public long getLatencyP999Nanos() {
+            return latency().p999;
+        }
+
+        @Override
+        public long getLatencyMaxNanos() {
+            return latency().max;
+        }
+    }
+
+    static class StopWatchMXBeanImpl implements StopWatchMXBean {
+        private final StopWatch stopWatch;
+
+        StopWatchMXBeanImpl(StopWatch stopWatch) {
+            this.stopWatch = stopWatch;
+        }
+
+        @Override
+        public String getId() {
+            return stopWatch.getId();
+        }
+
+        @Override
+        public int getTaskCount() {
+            return stopWatch.getTaskCount();
+        }
+
+        @Override
+        public long getTotalTimeNanos() {
+            return stopWatch.getTotalTimeNanos();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return stopWatch.isRunning();
+        }
+    }
+
+    static class ConcurrentStopWatchMXBeanImpl implements StopWatchMXBean {
+        private final ConcurrentStopWatch stopWatch;
+
+        ConcurrentStopWatchMXBeanImpl(ConcurrentStopWatch stopWatch) {
+            this.stopWatch = stopWatch;
+        }
+
+        @Override
+        public String getId() {
+            return stopWatch.getId();
+        }
+
+        @Override
+        public int getTaskCount() {
+            return stopWatch.getTaskCount();
+        }
+
+        @Override
+        public long getTotalTimeNanos() {
+            return stopWatch.getTotalTimeNanos();
+        }
+
+        /**
+         * 是否有任一线程在计时
+         */
+        @Override
+        public boolean isRunning() {
+            return stopWatch.getRunningCount() > 0;
+        }
+    }
+}
@@ -8,16 +8,34 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.text.NumberFormat;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * 秒表增强<br>
  *
- * <p>! 只能用于单线程串行 !
+ * <p>! 只能用于单线程串行 ! 多线程请用 {@link ConcurrentStopWatch}
  * <p>
  * 版本<br>
+ * == 2026年10月18日 dafei ==
+ * 增加 {@link #time(String, Runnable)} 和 try-with-resources 的 {@link #split(String)}, start/stop 不会漏配. Split 句柄回池复用.
+ * 增加 {@link #setClock(Clock)}, 可换时钟, 测试里用 {@link ManualClock} 得到确定的耗时.
+ * 增加 trace 导出, 见 {@link #setTraceWriter(TraceEventWriter)}, 任务和 span 按线程画在时间线上.
+ * TaskInfo 增加开始时刻和线程名. 增加多线程版 {@link ConcurrentStopWatch}.
+ * 增加慢任务捕获模式, 见 {@link #setSlowCapture(long, int)}, 只为慢任务保留 data, message.
+ * 增加聚合模式, 见 {@link #setAggregate(boolean)}, 每个任务名一个原生数组槽位, 内存不随任务次数增长.
+ * 增加嵌套 span 模式, 见 {@link #startSpan(String)}, {@link #setNested(boolean)}. 可导出火焰图用的 folded stacks 和缩进树.
+ *
  * == 2022年04月27日 L&J ==
  * TaskInfo 增加 data
  *
@@ -100,6 +118,45 @@ public class StopWatch {
 
 	private final ReentrantLock lock = new ReentrantLock();
 
+	/**
+	 * 嵌套模式: start/stop 即 startSpan/stopSpan
+	 */
+	private boolean nested = false;
+	/**
+	 * span 树的虚拟根, 第一次 startSpan 时创建
+	 */
+	private Span spanRoot;
+	/**
+	 * 未结束的 span, 栈顶是最内层
+	 */
+	private Deque<SpanFrame> spanStack;
+
+	/**
+	 * 聚合模式下的按任务名统计, 非聚合模式为 null
+	 */
+	private TaskAggregator aggregator;
+	/**
+	 * 慢任务捕获, 未开启为 null
+	 */
+	private SlowTaskCapture capture;
+	/**
+	 * 聚合模式, 慢任务模式下不一定保留 TaskInfo, 最后一个任务只记名称和耗时
+	 */
+	private String lastTaskName;
+	private long lastTaskTimeNanos;
+	/**
+	 * trace 导出, 未开启为 null
+	 */
+	private TraceEventWriter traceWriter;
+	/**
+	 * 时钟, 默认 {@link Clock#system()}
+	 */
+	private Clock clock = Clock.system();
+	/**
+	 * 已关闭, 可复用的 Split 句柄
+	 */
+	private ArrayDeque<Split> splitPool;
+
 	// ------------------------------------------------------------------------------------------- Constructor start
 
 	/**
@@ -168,6 +225,301 @@ public class StopWatch {
 		return this;
 	}
 
+	/**
+	 * 开启/关闭聚合模式
+	 * <p>
+	 * 任务跑成千上万次时, 往往只要统计值. 聚合模式下不再为每个任务建 TaskInfo, 而是每个不同的任务名一个原生数组槽位:
+	 * 次数, 总耗时, 最小, 最大, 2 的幂分桶的直方图. 内存只和任务名的个数有关, start/stop 不产生对象.
+	 * {@link #getTaskStats()} 取统计值, {@link #getTaskInfo()} 每个任务名一条(耗时为总和, data 带统计值), {@link #prettyString()} 打印统计表.
+	 * 任务的 data, message 被忽略.
+	 * <p>
+	 * 请在计时开始前设置, 切换时清空已有的统计和任务列表.
+	 */
+	public StopWatch setAggregate(boolean aggregate) {
+		if (aggregate == (this.aggregator != null)) {
+			return this;
+		}
+		this.aggregator = aggregate ? new TaskAggregator() : null;
+		if (this.taskList != null) {
+			this.taskList.clear();
+		}
+		return this;
+	}
+
+	public boolean isAggregate() {
+		return this.aggregator != null;
+	}
+
+	/**
+	 * 聚合模式下各任务名的统计, 按第一次出现的顺序
+	 *
+	 * @throws UnsupportedOperationException 非聚合模式
+	 */
+	public TaskStats[] getTaskStats() {
+		if (this.aggregator == null) {
+			throw new UnsupportedOperationException("Not in aggregate mode!");
+		}
+		return this.aggregator.stats();
+	}
+
+	/**
+	 * 开启慢任务捕获模式(tail-based)
+	 * <p>
+	 * 通常只有跑得特别慢的任务, 才值得看它的 data 和 message. 此模式下, 每个任务照常计时(任务数, 总耗时, 聚合统计),
+	 * 但 data, message 只为慢任务保留: 耗时 &gt;= thresholdNanos 的, 进任务列表(同样受 maxTaskInfoSize 限制);
+	 * 其余的, 够得上最慢 slowestN 个的, 进定长的 reservoir. 快任务的 TaskInfo 连同 data map 回池复用, message 从不格式化.
+	 * <p>
+	 * {@link #getSlowTaskInfo()} 取捕获到的任务. 可以和聚合模式同时开启: 全部任务进统计, 慢任务另外保留明细.
+	 * 嵌套 span 不参与捕获. 请在计时开始前设置, 切换时清空已有的任务列表.
+	 *
+	 * @param thresholdNanos 慢任务阈值(纳秒), {@link Long#MAX_VALUE} 表示不按阈值
+	 * @param slowestN       另外保留最慢的 N 个, 0 表示不保留
+	 */
+	public StopWatch setSlowCapture(long thresholdNanos, int slowestN) {
+		this.capture = new SlowTaskCapture(thresholdNanos, slowestN);
+		if (this.taskList != null) {
+			this.taskList.clear();
+		}
+		return this;
+	}
+
+	/**
+	 * 关闭慢任务捕获模式, 已捕获的一并丢弃
+	 */
+	public StopWatch disableSlowCapture() {
+		if (this.capture != null) {
+			this.capture = null;
+			if (this.taskList != null) {
+				this.taskList.clear();
+			}
+		}
+		return this;
+	}
+
+	public boolean isSlowCapture() {
+		return this.capture != null;
+	}
+
+	/**
+	 * 慢任务模式下捕获到的任务: 超过阈值的(最近 maxTaskInfoSize 个) + 最慢的 N 个, 按开始时刻排序
+	 *
+	 * @throws UnsupportedOperationException 非慢任务模式
+	 */
+	public TaskInfo[] getSlowTaskInfo() {
+		if (this.capture == null) {
+			throw new UnsupportedOperationException("Not in slow capture mode!");
+		}
+		List<TaskInfo> list = new ArrayList<>();
+		if (this.taskList != null) {
+			list.addAll(this.taskList);
+		}
+		list.addAll(this.capture.slowest());
+		list.sort(Comparator.comparingLong(TaskInfo::getStartTimeNanos));
+		return list.toArray(new TaskInfo[0]);
+	}
+
+	/**
+	 * 换时钟, 任务的开始时刻和耗时都从它读. 请在计时开始前设置.
+	 * 默认 {@link Clock#system()}; {@link Clock#coarse()} 只有毫秒精度, 只适合较长的任务.
+	 */
+	public StopWatch setClock(Clock clock) {
+		if (clock == null) {
+			throw new IllegalArgumentException("clock must not be null");
+		}
+		this.clock = clock;
+		return this;
+	}
+
+	public Clock getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * 任务结束时(嵌套模式下每层 span 结束时)写一个 trace 事件, 传 null 关闭. 秒表不负责关闭 writer.
+	 * <p>
+	 * 聚合模式下事件不带 data, message; 慢任务模式下 message 只在任务被捕获后才拼出, 事件里没有.
+	 * 开始时刻换算到 writer 的时钟上; 秒表用 {@link ManualClock} 时, writer 给同一个时钟, 时间轴才是确定的.
+	 */
+	public StopWatch setTraceWriter(TraceEventWriter traceWriter) {
+		this.traceWriter = traceWriter;
+		return this;
+	}
+
+	/**
+	 * 开启/关闭嵌套模式
+	 * <p>
+	 * 默认模式下, start 另一个任务会先结束上一个, 无法度量 "加载 &gt; 解析 &gt; 校验" 这样的嵌套阶段.
+	 * 嵌套模式下, {@link #start(String)} 即 {@link #startSpan(String)}, {@link #stop()} 即 {@link #stopSpan()}, 记录父子关系.
+	 * 最外层 span 结束时, 同时记为一个任务(计入任务数, 总耗时, 任务列表), 内层 span 只在 span 树里.
+	 */
+	public StopWatch setNested(boolean nested) {
+		this.nested = nested;
+		return this;
+	}
+
+	public boolean isNested() {
+		return this.nested;
+	}
+
+	/**
+	 * 开始一个 span, 作为当前 span 的子节点. 同一父节点下同名的 span 合并统计(次数, 总耗时).
+	 * 和 start/stop 任务互不影响; 允许递归(同名 span 嵌套).
+	 *
+	 * @param name span 名称
+	 */
+	public void startSpan(String name) {
+		if (name == null) {
+			name = StrUtil.EMPTY;
+		}
+		if (this.spanRoot == null) {
+			this.spanRoot = new Span(this.id, null);
+			this.spanStack = new ArrayDeque<>();
+		}
+		Span parent = this.spanStack.isEmpty() ? this.spanRoot : this.spanStack.peek().span;
+		this.spanStack.push(new SpanFrame(parent.child(name), this.clock.nanoTime()));
+	}
+
+	/**
+	 * 结束最内层的 span. 没有未结束的 span 时, 只记警告.
+	 */
+	public void stopSpan() {
+		if (this.spanStack == null || this.spanStack.isEmpty()) {
+			log.warn("Can't stop span: no span is running");
+			return;
+		}
+		this.closeSpan(this.spanStack.pop(), this.clock.nanoTime(), null);
+	}
+
+	/**
+	 * 结束最近的名为 name 的 span, 它里面还没结束的 span 一并结束(容忍漏掉的 stopSpan). 找不到时, 只记警告.
+	 */
+	public void stopSpan(String name) {
+		if (name == null) {
+			name = StrUtil.EMPTY;
+		}
+		if (this.spanStack != null) {
+			for (SpanFrame frame : this.spanStack) {
+				if (frame.span.name.equals(name)) {
+					long now = this.clock.nanoTime();
+					SpanFrame top;
+					do {
+						top = this.spanStack.pop();
+						if (top != frame) {
+							log.debug("span `{}` isn't stop normally, force to stop with `{}`", top.span.name, name);
+						}
+						this.closeSpan(top, now, null);
+					} while (top != frame);
+					return;
+				}
+			}
+		}
+		log.warn("Can't stop span `{}`: it's not running", name);
+	}
+
+	private void closeSpan(SpanFrame frame, long now, String message, Object... args) {
+		long elapsed = now - frame.startTimeNanos;
+		frame.span.count++;
+		frame.span.totalTimeNanos += elapsed;
+		if (this.traceWriter != null) {
+			this.traceWriter.complete(this.traceCategory(), frame.span.name,
+					this.traceWriter.toLocal(this.clock, frame.startTimeNanos), elapsed,
+					Thread.currentThread().getName(), null, message == null ? null : StrUtil.format(message, args));
+		}
+		// 最外层 span 同时记为任务
+		if (this.spanStack.isEmpty() && this.aggregator != null) {
+			this.recordAggregate(frame.span.name, elapsed);
+		} else if (this.spanStack.isEmpty()) {
+			TaskInfo taskInfo = new TaskInfo(frame.span.name, elapsed);
+			taskInfo.setStartTimeNanos(frame.startTimeNanos);
+			taskInfo.setThreadName(Thread.currentThread().getName());
+			taskInfo.addMessage(message, args);
+			this.currentTaskInfo = taskInfo;
+			this.totalTimeNanos += elapsed;
+			if (null != this.taskList) {
+				this.taskList.add(taskInfo);
+				this.tryRemoveEarly();
+			}
+			++this.taskCount;
+		}
+	}
+
+	/**
+	 * span 树的虚拟根(名称为秒表 id), 没用过 span 时为 null. 只含已结束的 span.
+	 */
+	public Span getSpanRoot() {
+		return this.spanRoot;
+	}
+
+	/**
+	 * 导出 folded stacks, 即 flamegraph.pl / speedscope / async-profiler 等火焰图工具的输入格式.
+	 * 每行 "外层;内层;... 自身耗时(微秒)", 自身耗时为 0 的行省略. 名称中的 ';' 和换行替换为 '_'.
+	 */
+	public String spanFoldedStacks() {
+		return this.spanFoldedStacks(TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * @param unit 耗时的单位
+	 */
+	public String spanFoldedStacks(TimeUnit unit) {
+		StringBuilder sb = new StringBuilder();
+		if (this.spanRoot != null) {
+			for (Span child : this.spanRoot.getChildren()) {
+				appendFolded(sb, child, new StringBuilder(), unit);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void appendFolded(StringBuilder sb, Span span, StringBuilder path, TimeUnit unit) {
+		int len = path.length();
+		if (len > 0) {
+			path.append(';');
+		}
+		path.append(span.name.replace(';', '_').replace('\n', '_').replace('\r', '_'));
+		long self = unit.convert(span.getSelfTimeNanos(), TimeUnit.NANOSECONDS);
+		if (self > 0) {
+			sb.append(path).append(' ').append(self).append(FileUtil.getLineSeparator());
+		}
+		for (Span child : span.getChildren()) {
+			appendFolded(sb, child, path, unit);
+		}
+		path.setLength(len);
+	}
+
+	/**
+	 * 导出缩进的 span 树: 总耗时, 自身耗时, 占父节点的百分比, 次数
+	 */
+	public String spanTree() {
+		StringBuilder sb = new StringBuilder();
+		if (this.spanRoot == null) {
+			return "No span";
+		}
+		long rootTotal = 0;
+		for (Span child : this.spanRoot.getChildren()) {
+			rootTotal += child.totalTimeNanos;
+		}
+		for (Span child : this.spanRoot.getChildren()) {
+			appendTree(sb, child, 0, rootTotal);
+		}
+		return sb.toString();
+	}
+
+	private static void appendTree(StringBuilder sb, Span span, int depth, long parentTotal) {
+		for (int i = 0; i < depth; i++) {
+			sb.append("  ");
+		}
+		sb.append(span.name)
+				.append("  total ").append(Duration.ofNanos(span.totalTimeNanos))
+				.append("  self ").append(Duration.ofNanos(span.getSelfTimeNanos()))
+				.append("  ").append(String.format("%.1f%%", parentTotal == 0 ? 100.0 : 100.0 * span.totalTimeNanos / parentTotal))
+				.append("  x").append(span.count)
+				.append(FileUtil.getLineSeparator());
+		for (Span child : span.getChildren()) {
+			appendTree(sb, child, depth + 1, span.totalTimeNanos);
+		}
+	}
+
 	/**
 	 * 开始默认的新任务
 	 *
@@ -184,6 +536,10 @@ public class StopWatch {
 	 * @throws IllegalStateException 前一个任务没有结束
 	 */
 	public void start(String taskName) throws IllegalStateException {
+		if (this.nested) {
+			this.startSpan(taskName);
+			return;
+		}
 		// if (null != this.currentTaskName) {
 		// 	throw new IllegalStateException("Can't start StopWatch: it's already running");
 		// }
@@ -204,8 +560,17 @@ public class StopWatch {
 		}
 
 		this.currentTaskName = taskName;
-		this.startTimeNanos = System.nanoTime();
+		this.startTimeNanos = this.clock.nanoTime();
+		if (this.capture != null) {
+			this.currentTaskInfo = this.capture.acquire(taskName, this.startTimeNanos, Thread.currentThread().getName());
+			return;
+		}
+		if (this.aggregator != null) {
+			return;
+		}
 		this.currentTaskInfo = new TaskInfo(this.currentTaskName);
+		this.currentTaskInfo.setStartTimeNanos(this.startTimeNanos);
+		this.currentTaskInfo.setThreadName(Thread.currentThread().getName());
 	}
 
 	/**
@@ -214,20 +579,45 @@ public class StopWatch {
 	 * @throws IllegalStateException 任务没有开始
 	 */
 	public void stop() throws IllegalStateException {
-		stop(null);
+		stop(null, NO_ARGS);
 	}
 
 	public void stop(String message, Object ... args) throws IllegalStateException {
+		if (this.nested) {
+			if (this.spanStack == null || this.spanStack.isEmpty()) {
+				log.warn("Can't stop StopWatch: it's not running");
+				return;
+			}
+			this.closeSpan(this.spanStack.pop(), this.clock.nanoTime(), message, args);
+			return;
+		}
 		if (null == this.currentTaskName) {
 			// throw new IllegalStateException("Can't stop StopWatch: it's not running");
 			log.warn("Can't stop StopWatch: it's not running");
 			return;
 		}
 
-		final long lastTime = System.nanoTime() - this.startTimeNanos;
+		final long lastTime = this.clock.nanoTime() - this.startTimeNanos;
+		if (this.traceWriter != null && this.aggregator != null && this.capture == null) {
+			this.traceWriter.complete(this.traceCategory(), this.currentTaskName,
+					this.traceWriter.toLocal(this.clock, this.startTimeNanos), lastTime,
+					Thread.currentThread().getName(), null, null);
+		}
+		if (this.capture != null) {
+			this.stopCapture(lastTime, message, args);
+			return;
+		}
+		if (this.aggregator != null) {
+			this.recordAggregate(this.currentTaskName, lastTime);
+			this.currentTaskName = null;
+			return;
+		}
 		this.totalTimeNanos += lastTime;
 		this.currentTaskInfo.setTimeNanos(lastTime);
 		this.currentTaskInfo.addMessage(message, args);
+		if (this.traceWriter != null) {
+			this.traceWriter.task(this.traceCategory(), this.currentTaskInfo, this.clock);
+		}
 
 		if (null != this.taskList) {
 			this.taskList.add(this.currentTaskInfo); // tt 不会被别人更改
@@ -237,28 +627,76 @@ public class StopWatch {
 		this.currentTaskName = null;
 	}
 
-	public void addData(Map<String, Object> data) {
-		if (isRunning()) {
-			this.currentTaskInfo.addData(data);
+	private void stopCapture(long lastTime, String message, Object ... args) {
+		TaskInfo taskInfo = this.currentTaskInfo;
+		taskInfo.setTimeNanos(lastTime);
+		taskInfo.addMessage(message, args);
+		if (this.traceWriter != null) {
+			this.traceWriter.task(this.traceCategory(), taskInfo, this.clock);
+		}
+		if (this.aggregator != null) {
+			this.recordAggregate(this.currentTaskName, lastTime);
 		} else {
-			log.warn("Can't add data to StopWatch: it's not running");
+			this.totalTimeNanos += lastTime;
+			this.lastTaskName = this.currentTaskName;
+			this.lastTaskTimeNanos = lastTime;
+			++this.taskCount;
+		}
+		if (this.capture.offer(taskInfo) && null != this.taskList) {
+			this.taskList.add(taskInfo);
+			this.tryRemoveEarly();
+		}
+		// 可能已回池, 不能再交出去
+		this.currentTaskInfo = null;
+		this.currentTaskName = null;
+	}
+
+	private String traceCategory() {
+		return StrUtil.isEmpty(this.id) ? "stopwatch" : this.id;
+	}
+
+	private void recordAggregate(String taskName, long lastTime) {
+		this.aggregator.record(taskName, lastTime);
+		this.totalTimeNanos += lastTime;
+		this.lastTaskName = taskName;
+		this.lastTaskTimeNanos = lastTime;
+		++this.taskCount;
+	}
+
+	public void addData(Map<String, Object> data) {
+		TaskInfo taskInfo = this.runningTaskInfo();
+		if (taskInfo != null) {
+			taskInfo.addData(data);
 		}
 	}
 
 	public void addData(String key, Object value) {
-		if (isRunning()) {
-			this.currentTaskInfo.addData(key, value);
-		} else {
-			log.warn("Can't add data to StopWatch: it's not running");
+		TaskInfo taskInfo = this.runningTaskInfo();
+		if (taskInfo != null) {
+			taskInfo.addData(key, value);
 		}
 	}
 
 	public void addMessage(String message, Object ... args) {
-		if (isRunning()) {
-			this.currentTaskInfo.addMessage(message, args);
-		} else {
+		TaskInfo taskInfo = this.runningTaskInfo();
+		if (taskInfo != null) {
+			taskInfo.addMessage(message, args);
+		}
+	}
+
+	/**
+	 * 可以附加 data, message 的当前任务. 聚合模式, 嵌套模式下没有, 返回 null.
+	 */
+	private TaskInfo runningTaskInfo() {
+		if (this.currentTaskName == null) {
 			log.warn("Can't add data to StopWatch: it's not running");
+			return null;
 		}
+		if (this.aggregator != null && this.capture == null) {
+			log.debug("data and message are ignored in aggregate mode");
+			return null;
+		}
+		return this.currentTaskInfo;
 	}
 
 	/**删除超过长度限制的早期 task info, 并发下, 有个人完成就够了*/
@@ -285,7 +723,7 @@ public class StopWatch {
 	 * @see #currentTaskName()
 	 */
 	public boolean isRunning() {
-		return (this.currentTaskName != null);
+		return (this.currentTaskName != null) || (this.spanStack != null && !this.spanStack.isEmpty());
 	}
 
 	/**
@@ -295,6 +733,9 @@ public class StopWatch {
 	 * @see #isRunning()
 	 */
 	public String currentTaskName() {
+		if (this.nested && this.spanStack != null && !this.spanStack.isEmpty()) {
+			return this.spanStack.peek().span.name;
+		}
 		return this.currentTaskName;
 	}
 
@@ -305,6 +746,9 @@ public class StopWatch {
 	 * @throws IllegalStateException 无任务
 	 */
 	public long getLastTaskTimeNanos() throws IllegalStateException {
+		if ((this.aggregator != null || this.capture != null) && this.lastTaskName != null) {
+			return this.lastTaskTimeNanos;
+		}
 		if (this.currentTaskInfo == null) {
 			throw new IllegalStateException("No tasks run: can't get last task interval");
 		}
@@ -318,6 +762,9 @@ public class StopWatch {
 	 * @throws IllegalStateException 无任务
 	 */
 	public long getLastTaskTimeMillis() throws IllegalStateException {
+		if ((this.aggregator != null || this.capture != null) && this.lastTaskName != null) {
+			return DateUtil.nanosToMillis(this.lastTaskTimeNanos);
+		}
 		if (this.currentTaskInfo == null) {
 			throw new IllegalStateException("No tasks run: can't get last task interval");
 		}
@@ -331,6 +778,9 @@ public class StopWatch {
 	 * @throws IllegalStateException 无任务
 	 */
 	public String getLastTaskName() throws IllegalStateException {
+		if ((this.aggregator != null || this.capture != null) && this.lastTaskName != null) {
+			return this.lastTaskName;
+		}
 		if (this.currentTaskInfo == null) {
 			throw new IllegalStateException("No tasks run: can't get last task name");
 		}
@@ -344,6 +794,9 @@ public class StopWatch {
 	 * @throws IllegalStateException 无任务
 	 */
 	public TaskInfo getLastTaskInfo() throws IllegalStateException {
+		if ((this.aggregator != null || this.capture != null) && this.lastTaskName != null) {
+			return new TaskInfo(this.lastTaskName, this.lastTaskTimeNanos);
+		}
 		if (this.currentTaskInfo == null) {
 			throw new IllegalStateException("No tasks run: can't get last task info");
 		}
@@ -398,6 +851,12 @@ public class StopWatch {
 	 * @return 任务列表
 	 */
 	public TaskInfo[] getTaskInfo() {
+		if (this.aggregator != null) {
+			return aggregateTaskInfo(this.aggregator.stats());
+		}
+		if (this.capture != null) {
+			return getSlowTaskInfo();
+		}
 		if (null == this.taskList) {
 			throw new UnsupportedOperationException("Task info is not being kept!");
 		}
@@ -421,38 +880,108 @@ public class StopWatch {
 	public String prettyString() {
 		StringBuilder sb = new StringBuilder(shortSummary());
 		sb.append(FileUtil.getLineSeparator());
-		if (null == this.taskList) {
+		if (this.aggregator != null) {
+			appendStatsTable(sb, this.aggregator.stats(), getTotalTimeNanos());
+			if (this.capture != null) {
+				appendTaskTable(sb, getSlowTaskInfo(), getTotalTimeNanos(), false);
+			}
+		} else if (null == this.taskList && this.capture == null) {
 			sb.append("No task info kept");
 		} else {
+			appendTaskTable(sb, getTaskInfo(), getTotalTimeNanos(), false);
+		}
+		if (this.spanRoot != null) {
 			sb.append("---------------------------------------------").append(FileUtil.getLineSeparator());
-			sb.append("ns         %     Task name         *").append(FileUtil.getLineSeparator());
-			sb.append("---------------------------------------------").append(FileUtil.getLineSeparator());
+			sb.append(spanTree());
+		}
+		return sb.toString();
+	}
 
-			// final NumberFormat nf = NumberFormat.getNumberInstance();
-			// nf.setMinimumIntegerDigits(9);
-			// nf.setGroupingUsed(false);
+	/**
+	 * 聚合模式的统计表
+	 */
+	static void appendStatsTable(StringBuilder sb, TaskStats[] stats, long totalTimeNanos) {
+		sb.append("---------------------------------------------").append(FileUtil.getLineSeparator());
+		sb.append("total  %  count  avg  min  p50  p99  max  Task name").append(FileUtil.getLineSeparator());
+		sb.append("---------------------------------------------").append(FileUtil.getLineSeparator());
+		final NumberFormat pf = NumberFormat.getPercentInstance();
+		pf.setMinimumIntegerDigits(3);
+		pf.setGroupingUsed(false);
+		for (TaskStats st : stats) {
+			sb.append(Duration.ofNanos(st.getTotalTimeNanos())).append("  ");
+			sb.append(pf.format((double) st.getTotalTimeNanos() / totalTimeNanos)).append("  ");
+			sb.append(st.getCount()).append("  ");
+			sb.append(Duration.ofNanos(st.getMeanNanos())).append("  ");
+			sb.append(Duration.ofNanos(st.getMinNanos())).append("  ");
+			sb.append(Duration.ofNanos(st.getValueAtPercentile(50))).append("  ");
+			sb.append(Duration.ofNanos(st.getValueAtPercentile(99))).append("  ");
+			sb.append(Duration.ofNanos(st.getMaxNanos())).append("  ");
+			sb.append("[").append(st.getTaskName()).append("]");
+			sb.append(FileUtil.getLineSeparator());
+		}
+	}
 
-			final NumberFormat pf = NumberFormat.getPercentInstance();
-			pf.setMinimumIntegerDigits(3);
-			pf.setGroupingUsed(false);
-			for (TaskInfo task : getTaskInfo()) {
-				sb.append(this.nanos2Duration(task.getTimeNanos())).append("  ");
-				sb.append(pf.format((double) task.getTimeNanos() / getTotalTimeNanos())).append("  ");
-				sb.append("[").append(task.getTaskName()).append("]");
-				if (task.hasMessage()) {
-					sb.append("  ").append(task.messagePrint());
-				}
-				sb.append(FileUtil.getLineSeparator());
+	/**
+	 * 聚合模式的任务列表: 每个任务名一条, 耗时为总和, data 带统计值
+	 */
+	static TaskInfo[] aggregateTaskInfo(TaskStats[] stats) {
+		TaskInfo[] infos = new TaskInfo[stats.length];
+		for (int i = 0; i < stats.length; i++) {
+			TaskStats st = stats[i];
+			TaskInfo info = new TaskInfo(st.getTaskName(), st.getTotalTimeNanos());
+			Map<String, Object> data = new LinkedHashMap<>();
+			data.put("count", st.getCount());
+			data.put("avg", Duration.ofNanos(st.getMeanNanos()));
+			data.put("min", Duration.ofNanos(st.getMinNanos()));
+			data.put("p50", Duration.ofNanos(st.getValueAtPercentile(50)));
+			data.put("p99", Duration.ofNanos(st.getValueAtPercentile(99)));
+			data.put("max", Duration.ofNanos(st.getMaxNanos()));
+			info.addData(data);
+			infos[i] = info;
+		}
+		return infos;
+	}
+
+	/**
+	 * 任务时间表, 和 {@link ConcurrentStopWatch} 共用
+	 *
+	 * @param withThread 是否带上线程名
+	 */
+	static void appendTaskTable(StringBuilder sb, TaskInfo[] tasks, long totalTimeNanos, boolean withThread) {
+		sb.append("---------------------------------------------").append(FileUtil.getLineSeparator());
+		sb.append("ns         %     Task name         *").append(FileUtil.getLineSeparator());
+		sb.append("---------------------------------------------").append(FileUtil.getLineSeparator());
+
+		// final NumberFormat nf = NumberFormat.getNumberInstance();
+		// nf.setMinimumIntegerDigits(9);
+		// nf.setGroupingUsed(false);
+
+		final NumberFormat pf = NumberFormat.getPercentInstance();
+		pf.setMinimumIntegerDigits(3);
+		pf.setGroupingUsed(false);
+		for (TaskInfo task : tasks) {
+			sb.append(Duration.ofNanos(task.getTimeNanos())).append("  ");
+			sb.append(pf.format((double) task.getTimeNanos() / totalTimeNanos)).append("  ");
+			sb.append("[").append(task.getTaskName()).append("]");
+			if (withThread) {
+				sb.append("  @").append(task.getThreadName());
 			}
+			if (task.hasMessage()) {
+				sb.append("  ").append(task.messagePrint());
+			}
+			sb.append(FileUtil.getLineSeparator());
 		}
-		return sb.toString();
 	}
 
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder(shortSummary());
-		if (null != this.taskList) {
-			for (TaskInfo task : this.taskList) {
+		if (this.aggregator != null) {
+			for (TaskStats st : this.aggregator.stats()) {
+				sb.append("; ").append(st);
+			}
+		} else if (null != this.taskList || this.capture != null) {
+			for (TaskInfo task : getTaskInfo()) {
 				sb.append("; [").append(task.getTaskName()).append("] took ").append(this.nanos2Duration(task.getTimeNanos()));
 				long percent = Math.round(100.0 * task.getTimeNanos() / getTotalTimeNanos());
 				sb.append(" = ").append(percent).append("%");
@@ -470,6 +999,288 @@ public class StopWatch {
 		return Duration.ofNanos(nanos);
 	}
 
+	/**
+	 * 聚合模式下, 一个任务名的统计值. 分位值按 2 的幂分桶估算, 取桶上界(不超过最大值), 误差在 2 倍以内.
+	 */
+	public static final class TaskStats {
+		private final String taskName;
+		private final long count;
+		private final long totalTimeNanos;
+		private final long minNanos;
+		private final long maxNanos;
+		private final long[] buckets;
+
+		TaskStats(String taskName, long count, long totalTimeNanos, long minNanos, long maxNanos, long[] buckets) {
+			this.taskName = taskName;
+			this.count = count;
+			this.totalTimeNanos = totalTimeNanos;
+			this.minNanos = count == 0 ? 0 : minNanos;
+			this.maxNanos = maxNanos;
+			this.buckets = buckets;
+		}
+
+		public String getTaskName() {
+			return this.taskName;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		public long getTotalTimeNanos() {
+			return this.totalTimeNanos;
+		}
+
+		public long getMinNanos() {
+			return this.minNanos;
+		}
+
+		public long getMaxNanos() {
+			return this.maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return this.count == 0 ? 0 : this.totalTimeNanos / this.count;
+		}
+
+		/**
+		 * 分位值估算(纳秒)
+		 *
+		 * @param percentile 百分位, 如 99.9
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (this.count == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * this.count));
+			long acc = 0;
+			for (int i = 0; i < this.buckets.length; i++) {
+				acc += this.buckets[i];
+				if (acc >= target) {
+					long upper = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+					return Math.max(this.minNanos, Math.min(upper, this.maxNanos));
+				}
+			}
+			return this.maxNanos;
+		}
+
+		/**
+		 * 直方图: 第 i 个桶(i &gt; 0)是 [2^(i-1), 2^i) 纳秒内的次数, 第 0 个桶是 0 纳秒. 副本.
+		 */
+		public long[] getBuckets() {
+			return this.buckets.clone();
+		}
+
+		@Override
+		public String toString() {
+			return StrUtil.format("[{}] count={} total={} avg={} min={} p50={} p99={} max={}", this.taskName, this.count,
+					Duration.ofNanos(this.totalTimeNanos), Duration.ofNanos(getMeanNanos()), Duration.ofNanos(this.minNanos),
+					Duration.ofNanos(getValueAtPercentile(50)), Duration.ofNanos(getValueAtPercentile(99)), Duration.ofNanos(this.maxNanos));
+		}
+	}
+
+	// ------------------------------------------------------------------------------------------- Split
+
+	private static final Object[] NO_ARGS = new Object[0];
+	/**
+	 * 池里最多留几个空闲的 Split, 一般只有嵌套层数那么多
+	 */
+	private static final int MAX_POOLED_SPLITS = 16;
+
+	/**
+	 * 计时执行 runnable, 等价于 start(name); try { runnable.run(); } finally { stop(); }
+	 */
+	public void time(String name, Runnable runnable) {
+		Split split = this.split(name);
+		try {
+			runnable.run();
+		} finally {
+			split.close();
+		}
+	}
+
+	/**
+	 * 计时执行 supplier, 返回它的结果
+	 */
+	public <T> T time(String name, Supplier<T> supplier) {
+		Split split = this.split(name);
+		try {
+			return supplier.get();
+		} finally {
+			split.close();
+		}
+	}
+
+	/**
+	 * 开始任务(嵌套模式下为 span), 返回的句柄 close 时结束它. 配合 try-with-resources, 异常时也不会漏掉 stop.
+	 * <pre>
+	 * try (StopWatch.Split s = stopWatch.split("parse")) {
+	 *     ...
+	 * }
+	 * </pre>
+	 * 句柄关闭后回池复用, 不要在 close 之后再持有它. 聚合模式下, 整个计时过程不分配对象, 可以包在热循环里.
+	 */
+	public Split split(String name) {
+		if (name == null) {
+			name = StrUtil.EMPTY;
+		}
+		Split split = this.splitPool == null ? null : this.splitPool.poll();
+		if (split == null) {
+			split = new Split(this);
+		}
+		split.name = name;
+		split.open = true;
+		this.start(name);
+		return split;
+	}
+
+	private void closeSplit(Split split) {
+		String name = split.name;
+		split.name = null;
+		split.open = false;
+		if (this.nested) {
+			this.stopSpan(name);
+		} else if (name.equals(this.currentTaskName)) {
+			this.stop(null, NO_ARGS);
+		} else {
+			// 中途 start 了别的任务, 它已经被结束了
+			log.debug("split `{}` is already stopped", name);
+		}
+		if (this.splitPool == null) {
+			this.splitPool = new ArrayDeque<>(MAX_POOLED_SPLITS);
+		}
+		if (this.splitPool.size() < MAX_POOLED_SPLITS) {
+			this.splitPool.push(split);
+		}
+	}
+
+	/**
+	 * {@link #split(String)} 返回的句柄, close 时结束任务. 重复 close 无害.
+	 */
+	public static final class Split implements AutoCloseable {
+		private final StopWatch owner;
+		private String name;
+		private boolean open;
+
+		private Split(StopWatch owner) {
+			this.owner = owner;
+		}
+
+		/**
+		 * 任务名, 已关闭的为 null
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		@Override
+		public void close() {
+			if (this.open) {
+				this.owner.closeSplit(this);
+			}
+		}
+	}
+
+	private static final class SpanFrame {
+		final Span span;
+		final long startTimeNanos;
+
+		SpanFrame(Span span, long startTimeNanos) {
+			this.span = span;
+			this.startTimeNanos = startTimeNanos;
+		}
+	}
+
+	/**
+	 * span 树节点. 同一父节点下同名的 span 是一个节点, 累计次数和总耗时.
+	 */
+	public static final class Span {
+		private final String name;
+		private final Span parent;
+		private Map<String, Span> children;
+		private long count;
+		private long totalTimeNanos;
+
+		Span(String name, Span parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		Span child(String name) {
+			if (this.children == null) {
+				this.children = new LinkedHashMap<>();
+			}
+			Span child = this.children.get(name);
+			if (child == null) {
+				child = new Span(name, this);
+				this.children.put(name, child);
+			}
+			return child;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * 父节点, 根节点为 null
+		 */
+		public Span getParent() {
+			return this.parent;
+		}
+
+		/**
+		 * 子节点, 按第一次出现的顺序
+		 */
+		public List<Span> getChildren() {
+			return this.children == null ? Collections.emptyList() : new ArrayList<>(this.children.values());
+		}
+
+		/**
+		 * 结束的次数
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * 总耗时(纳秒), 含子节点
+		 */
+		public long getTotalTimeNanos() {
+			return this.totalTimeNanos;
+		}
+
+		/**
+		 * 自身耗时(纳秒) = 总耗时 - 子节点总耗时. 子节点还没结束时, 可能偏大.
+		 */
+		public long getSelfTimeNanos() {
+			long self = this.totalTimeNanos;
+			if (this.children != null) {
+				for (Span child : this.children.values()) {
+					self -= child.totalTimeNanos;
+				}
+			}
+			return Math.max(self, 0);
+		}
+
+		/**
+		 * 从根(不含)到本节点的路径, 如 "load > parse"
+		 */
+		public String getPath() {
+			if (this.parent == null) {
+				return StrUtil.EMPTY;
+			}
+			String parentPath = this.parent.getPath();
+			return parentPath.isEmpty() ? this.name : parentPath + " > " + this.name;
+		}
+
+		@Override
+		public String toString() {
+			return StrUtil.format("Span[{}] x{} total {} self {}", getPath(), this.count,
+					Duration.ofNanos(this.totalTimeNanos), Duration.ofNanos(getSelfTimeNanos()));
+		}
+	}
+
 	/**
 	 * 存放任务名称和花费时间对象
 	 *
@@ -477,8 +1288,16 @@ public class StopWatch {
 	 */
 	public static final class TaskInfo {
 
-		private final String taskName;
+		private String taskName;
 		private long timeNanos;
+		/**
+		 * 开始时刻, 秒表时钟的 {@link Clock#nanoTime()}
+		 */
+		private long startTimeNanos;
+		/**
+		 * 执行任务的线程名
+		 */
+		private String threadName;
 		/**
 		 * 额外信息 (结构化)
 		 */
@@ -487,6 +1306,14 @@ public class StopWatch {
 		 * 额外信息 (非结构化)
 		 */
 		private String message;
+		/**
+		 * 池化的 TaskInfo(慢任务捕获模式): data 是自有的 map, 复用时清空; message 先不格式化, 留到确定保留时再格式化
+		 */
+		private boolean pooled;
+		/**
+		 * 未格式化的 message, 模板和参数数组交替存放
+		 */
+		private List<Object> deferredMessages;
 
 		TaskInfo(String taskName) {
 			this(taskName, 0L);
@@ -521,6 +1348,28 @@ public class StopWatch {
 			this.timeNanos = timeNanos;
 		}
 
+		/**
+		 * 获取任务开始时刻（秒表时钟的 {@link Clock#nanoTime()}），只用于任务间比较先后
+		 */
+		public long getStartTimeNanos() {
+			return this.startTimeNanos;
+		}
+
+		void setStartTimeNanos(long startTimeNanos) {
+			this.startTimeNanos = startTimeNanos;
+		}
+
+		/**
+		 * 获取执行任务的线程名
+		 */
+		public String getThreadName() {
+			return this.threadName;
+		}
+
+		void setThreadName(String threadName) {
+			this.threadName = threadName;
+		}
+
 		/**
 		 * 获取任务花费时间（单位：毫秒）
 		 *
@@ -553,8 +1402,11 @@ public class StopWatch {
 	}
 
 		public void addData(Map<String, Object> data) {
-			if (this.data == null) {
+			if (this.data == null && !this.pooled) {
 				this.data = data;
+			} else if (this.data == null) {
+				this.data = new SoMap();
+				this.data.putAll(data);
 			} else {
 				this.data.putAll(data);
 }
@@ -578,6 +1430,18 @@ public class StopWatch {
 			if (message == null) {
 				return;
 			}
+			if (this.pooled) {
+				if (this.deferredMessages == null) {
+					this.deferredMessages = new ArrayList<>(4);
+				}
+				this.deferredMessages.add(message);
+				this.deferredMessages.add(args);
+				return;
+			}
+			this.appendMessage(message, args);
+		}
+
+		private void appendMessage(String message, Object ... args) {
 			String fmt = StrUtil.format(message, args);
 			if (StrUtil.isBlank(this.message)) {
 				this.message = fmt;
@@ -600,5 +1464,43 @@ public class StopWatch {
 		public boolean hasMessage() {
 			return this.message != null || this.data != null;
 		}
+
+		boolean isPooled() {
+			return this.pooled;
+		}
+
+		/**
+		 * 池化的 TaskInfo 复用前重置
+		 */
+		void reset(String taskName, long startTimeNanos, String threadName) {
+			this.pooled = true;
+			this.taskName = taskName;
+			this.timeNanos = 0;
+			this.startTimeNanos = startTimeNanos;
+			this.threadName = threadName;
+			this.message = null;
+			if (this.data != null) {
+				this.data.clear();
+			}
+			if (this.deferredMessages != null) {
+				this.deferredMessages.clear();
+			}
+		}
+
+		/**
+		 * 确定保留: 格式化积攒的 message, 脱离池(之后 data, message 不再被清空)
+		 */
+		void detach() {
+			if (this.deferredMessages != null) {
+				for (int i = 0; i < this.deferredMessages.size(); i += 2) {
+					this.appendMessage((String) this.deferredMessages.get(i), (Object[]) this.deferredMessages.get(i + 1));
+				}
+				this.deferredMessages = null;
+			}
+			if (this.data != null && this.data.isEmpty()) {
+				this.data = null;
+			}
+			this.pooled = false;
+		}
 	}
 }
\ No newline at end of file
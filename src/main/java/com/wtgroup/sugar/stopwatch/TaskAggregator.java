@@ -0,0 +1,87 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按任务名聚合耗时, StopWatch 聚合模式用
+ * <p>
+ * 每个不同的任务名一个槽位, 槽位数据都在几个原生数组里: 次数, 总和, 最小, 最大, 以及 2 的幂分桶的直方图(64 个桶).
+ * 同一任务跑多少次, 内存都不变; 记录一次只是数组下标上的几次加法, 不产生对象. 单线程使用, 同 StopWatch.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+class TaskAggregator {
+
+    /**
+     * 每个槽位的直方图桶数, 第 i 个桶(i &gt; 0)存 [2^(i-1), 2^i) 纳秒, 第 0 个桶存 0
+     */
+    static final int BUCKETS = 64;
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private String[] names = new String[8];
+    private long[] counts = new long[8];
+    private long[] sums = new long[8];
+    private long[] mins = new long[8];
+    private long[] maxs = new long[8];
+    private long[] buckets = new long[8 * BUCKETS];
+    private int size;
+
+    void record(String name, long nanos) {
+        Integer slot = index.get(name);
+        int i = slot == null ? this.newSlot(name) : slot;
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[i]++;
+        sums[i] += nanos;
+        if (nanos < mins[i]) {
+            mins[i] = nanos;
+        }
+        if (nanos > maxs[i]) {
+            maxs[i] = nanos;
+        }
+        buckets[i * BUCKETS + bucketOf(nanos)]++;
+    }
+
+    private int newSlot(String name) {
+        if (size == names.length) {
+            int n = size << 1;
+            names = Arrays.copyOf(names, n);
+            counts = Arrays.copyOf(counts, n);
+            sums = Arrays.copyOf(sums, n);
+            mins = Arrays.copyOf(mins, n);
+            maxs = Arrays.copyOf(maxs, n);
+            buckets = Arrays.copyOf(buckets, n * BUCKETS);
+        }
+        int i = size++;
+        names[i] = name;
+        mins[i] = Long.MAX_VALUE;
+        maxs[i] = 0;
+        index.put(name, i);
+        return i;
+    }
+
+    static int bucketOf(long nanos) {
+        return 64 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 各任务名的统计, 按第一次出现的顺序
+     */
+    StopWatch.TaskStats[] stats() {
+        StopWatch.TaskStats[] stats = new StopWatch.TaskStats[size];
+        for (int i = 0; i < size; i++) {
+            stats[i] = new StopWatch.TaskStats(names[i], counts[i], sums[i], mins[i], maxs[i],
+                    Arrays.copyOfRange(buckets, i * BUCKETS, (i + 1) * BUCKETS));
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,32 @@
+package com.wtgroup.sugar.stopwatch;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法耗时记入 {@link StatorRegistry} 里的 {@link ConcurrentStopWatch}, 每次调用一个任务. 见 {@link TimedProxy}.
+ * <p>
+ * 标在接口(或实现类)的方法上; 标在类型上, 对所有方法生效, 方法上的优先.
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Documented
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Timed {
+
+    /**
+     * 秒表 id. 默认接口的简单类名.
+     */
+    String value() default "";
+
+    /**
+     * 任务名. 默认方法名. 标在类型上时忽略.
+     */
+    String name() default "";
+}
@@ -0,0 +1,208 @@
+package com.wtgroup.sugar.stopwatch;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 给接口实现套一层 {@link Proxy}, 标了 {@link Timed} / {@link Metered} 的方法自动计时, 省掉手写 start/stop.
+ * <p>
+ * 秒表和 SpeedStator 按名称从 {@link StatorRegistry} 取, 同名的共用, 可以统一导出. 多线程调用同一个代理是常态, 所以秒表用的是 {@link ConcurrentStopWatch}.
+ * 每个方法的处理器在创建代理时就解析好, 调用时只查一次 Map, 不再反射读注解. 没有注解的方法直接转发.
+ *
+ * <pre>
+ * public interface UserDao {
+ *     &#64;Timed
+ *     User find(long id);
+ *     &#64;Metered("user-dao.save")
+ *     void save(User user);
+ * }
+ *
+ * UserDao dao = TimedProxy.wrap(UserDao.class, new JdbcUserDao());
+ * ...
+ * StatorRegistry.concurrentStopWatch("UserDao").prettyString();
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+public final class TimedProxy {
+
+    private TimedProxy() {
+    }
+
+    /**
+     * @param iface  代理的接口
+     * @param target 被代理的实现
+     * @return 代理, 只实现 iface
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T wrap(Class<T> iface, T target) {
+        if (!iface.isInterface()) {
+            throw new IllegalArgumentException(iface.getName() + " is not an interface");
+        }
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, new Handler(target, new Class<?>[]{iface}));
+    }
+
+    /**
+     * 代理 target 实现的所有接口
+     */
+    public static Object wrap(Object target) {
+        Class<?>[] interfaces = allInterfaces(target.getClass());
+        if (interfaces.length == 0) {
+            throw new IllegalArgumentException(target.getClass().getName() + " implements no interface");
+        }
+        return Proxy.newProxyInstance(target.getClass().getClassLoader(), interfaces, new Handler(target, interfaces));
+    }
+
+    private static Class<?>[] allInterfaces(Class<?> clazz) {
+        Set<Class<?>> set = new LinkedHashSet<>();
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            set.addAll(Arrays.asList(c.getInterfaces()));
+        }
+        return set.toArray(new Class<?>[0]);
+    }
+
+    /**
+     * 一个方法的计时处理器, 创建代理时解析好
+     */
+    static final class MethodTimer {
+        final ConcurrentStopWatch stopWatch;
+        final String taskName;
+        final SpeedStator speedStator;
+        final boolean latency;
+
+        MethodTimer(ConcurrentStopWatch stopWatch, String taskName, SpeedStator speedStator, boolean latency) {
+            this.stopWatch = stopWatch;
+            this.taskName = taskName;
+            this.speedStator = speedStator;
+            this.latency = latency;
+        }
+
+        Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            // 自己计时, 记一个完整的任务, 而不是 start/stop: 一个被代理的方法里调另一个时, 不会把外层的任务结束掉
+            Clock clock = this.stopWatch != null ? this.stopWatch.getClock() : Clock.system();
+            long start = clock.nanoTime();
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                long elapsed = clock.nanoTime() - start;
+                if (this.stopWatch != null) {
+                    this.stopWatch.record(this.taskName, start, elapsed);
+                }
+                if (this.speedStator != null) {
+                    if (this.latency) {
+                        this.speedStator.record(elapsed);
+                    } else {
+                        this.speedStator.log();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 解析 method 上的 Timed / Metered, 都没有返回 null.
+     * 查找顺序: 接口方法, 实现类方法, 接口类型, 实现类类型.
+     */
+    static MethodTimer resolve(Method method, Class<?> targetClass) {
+        Method implMethod;
+        try {
+            implMethod = targetClass.getMethod(method.getName(), method.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            implMethod = null;
+        }
+        Class<?> iface = method.getDeclaringClass();
+
+        ConcurrentStopWatch stopWatch = null;
+        String taskName = null;
+        Timed timed = method.getAnnotation(Timed.class);
+        if (timed == null && implMethod != null) {
+            timed = implMethod.getAnnotation(Timed.class);
+        }
+        if (timed != null) {
+            taskName = StrUtil.isEmpty(timed.name()) ? method.getName() : timed.name();
+        } else {
+            timed = findOnType(Timed.class, iface, targetClass);
+            taskName = method.getName();
+        }
+        if (timed != null) {
+            stopWatch = StatorRegistry.concurrentStopWatch(StrUtil.isEmpty(timed.value()) ? iface.getSimpleName() : timed.value());
+        }
+
+        SpeedStator speedStator = null;
+        boolean latency = false;
+        Metered metered = method.getAnnotation(Metered.class);
+        if (metered == null && implMethod != null) {
+            metered = implMethod.getAnnotation(Metered.class);
+        }
+        String tag = null;
+        if (metered != null) {
+            tag = StrUtil.isEmpty(metered.value()) ? iface.getSimpleName() + "." + method.getName() : metered.value();
+        } else {
+            metered = findOnType(Metered.class, iface, targetClass);
+            if (metered != null) {
+                tag = StrUtil.isEmpty(metered.value()) ? iface.getSimpleName() : metered.value();
+            }
+        }
+        if (metered != null) {
+            speedStator = StatorRegistry.speedStator(tag);
+            latency = metered.latency();
+        }
+
+        if (stopWatch == null && speedStator == null) {
+            return null;
+        }
+        return new MethodTimer(stopWatch, taskName, speedStator, latency);
+    }
+
+    private static <A extends Annotation> A findOnType(Class<A> annotationType, Class<?> iface, Class<?> targetClass) {
+        A annotation = iface.getAnnotation(annotationType);
+        return annotation != null ? annotation : targetClass.getAnnotation(annotationType);
+    }
+
+    private static final class Handler implements InvocationHandler {
+        private final Object target;
+        private final Map<Method, MethodTimer> timers = new HashMap<>();
+
+        Handler(Object target, Class<?>[] interfaces) {
+            this.target = target;
+            for (Class<?> iface : interfaces) {
+                for (Method method : iface.getMethods()) {
+                    MethodTimer timer = resolve(method, target.getClass());
+                    if (timer != null) {
+                        this.timers.put(method, timer);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            MethodTimer timer = this.timers.get(method);
+            if (timer != null) {
+                return timer.invoke(this.target, method, args);
+            }
+            if (method.getDeclaringClass() == Object.class && method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            try {
+                return method.invoke(this.target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.wtgroup.sugar.stopwatch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chrome trace event 格式(JSON)的时间线导出, 可在 chrome://tracing 或 Perfetto(ui.perfetto.dev) 打开
+ * <p>
+ * StopWatch / ConcurrentStopWatch 的任务和 span 写成 complete 事件("ph":"X"), 按线程分行, 能看出各线程上阶段的重叠;
+ * SpeedStator 的日志时点写成 counter 事件("ph":"C"), 画出速率曲线.
+ * <p>
+ * 异步写: 调用方只把事件放进有界队列, 由一个守护线程格式化并经 {@link BufferedWriter} 写文件, 内存里只有队列里那些.
+ * 队列满了丢弃事件并计数({@link #getDropped()}), 不阻塞业务线程.
+ * 文件是 JSON 数组格式, close 时补上结尾的 "]"; 进程意外退出没有结尾, 这两个工具也能打开.
+ * <p>
+ * 时间轴零点取自 writer 的时钟({@link #open(Path, int, Clock)}, 默认 {@link Clock#system()}).
+ * 秒表换了时钟的, 它的 span 开始时刻会换算到 writer 的时钟上; SpeedStator 的时点是它自己时钟的墙上时间, 没法换算,
+ * 换了时钟的 SpeedStator 请给 writer 同一个时钟.
+ *
+ * <pre>
+ * try (TraceEventWriter trace = TraceEventWriter.open(Paths.get("job.trace.json"))) {
+ *     stopWatch.setTraceWriter(trace);
+ *     speedStator.addMomentSink(trace);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author dafei
+ * @version 0.1
+ * @date 2026/10/18
+ */
+@Slf4j
+public class TraceEventWriter implements MomentSink, Closeable {
+
+    public static final int DEFAULT_QUEUE_SIZE = 64 * 1024;
+
+    private static final Event POISON = new Event();
+
+    private final BlockingQueue<Event> queue;
+    private final Writer out;
+    private final Thread thread;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed = false;
+
+    private final Clock clock;
+    /**
+     * 时间轴零点, 事件的 ts 都相对它, 微秒
+     */
+    private final long baseNanos;
+    private final long baseMillis;
+
+    // ---- 以下只在写线程里访问 ---- //
+    private final Map<String, Integer> tids = new HashMap<>();
+    private boolean first = true;
+    private final StringBuilder sb = new StringBuilder(256);
+
+    private TraceEventWriter(Writer out, int queueSize, Clock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock must not be null");
+        }
+        this.clock = clock;
+        this.baseNanos = clock.nanoTime();
+        this.baseMillis = clock.currentTimeMillis();
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.thread = new Thread(this::run, "trace-event-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public static TraceEventWriter open(Path file) throws IOException {
+        return open(file, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param queueSize 待写事件队列的容量, 满了丢弃
+     */
+    public static TraceEventWriter open(Path file, int queueSize) throws IOException {
+        return open(file, queueSize, Clock.system());
+    }
+
+    /**
+     * @param clock 时间轴的时钟, 同秒表 / SpeedStator 的时钟
+     */
+    public static TraceEventWriter open(Path file, int queueSize, Clock clock) throws IOException {
+        return new TraceEventWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), queueSize, clock);
+    }
+
+    /**
+     * 写到任意 Writer, 会被包一层 BufferedWriter, close 时一并关闭
+     */
+    public static TraceEventWriter of(Writer writer, int queueSize) {
+        return of(writer, queueSize, Clock.system());
+    }
+
+    public static TraceEventWriter of(Writer writer, int queueSize, Clock clock) {
+        return new TraceEventWriter(writer instanceof BufferedWriter ? writer : new BufferedWriter(writer), queueSize, clock);
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * 一个 complete 事件
+     *
+     * @param category       分类, 如秒表 id
+     * @param name           任务名
+     * @param startTimeNanos 开始时刻, writer 时钟的 {@link Clock#nanoTime()}
+     * @param durationNanos  耗时
+     * @param threadName     线程名, 同名的画在同一行
+     * @param data           附加数据, 可为 null
+     * @param message        附加消息, 可为 null
+     */
+    public void complete(String category, String name, long startTimeNanos, long durationNanos, String threadName,
+                         Map<String, Object> data, String message) {
+        if (closed) {
+            return;
+        }
+        Event e = new Event();
+        e.ph = 'X';
+        e.category = category;
+        e.name = name;
+        e.tsNanos = startTimeNanos - baseNanos;
+        e.durNanos = durationNanos;
+        e.thread = threadName;
+        // data 可能之后被改(池化的 TaskInfo), 交出去前拷一份
+        e.data = data == null || data.isEmpty() ? null : new HashMap<>(data);
+        e.message = message;
+        this.enqueue(e);
+    }
+
+    /**
+     * StopWatch 的任务
+     *
+     * @param source 秒表的时钟
+     */
+    void task(String category, StopWatch.TaskInfo taskInfo, Clock source) {
+        this.complete(category, taskInfo.getTaskName(), this.toLocal(source, taskInfo.getStartTimeNanos()), taskInfo.getTimeNanos(),
+                taskInfo.getThreadName(), taskInfo.getData(), taskInfo.getMessage());
+    }
+
+    /**
+     * source 时钟上的时刻换算到 writer 的时钟上: 同一个时钟原样返回, 否则按 "距现在多久" 平移
+     */
+    long toLocal(Clock source, long nanoTime) {
+        return source == clock ? nanoTime : clock.nanoTime() - (source.nanoTime() - nanoTime);
+    }
+
+    /**
+     * SpeedStator 日志时点, 写成 counter 事件: 最近 TPS, 1m 滑动速率, 1m EWMA 速率, 有延迟记录的再加 p99(毫秒)
+     */
+    @Override
+    public void accept(String tag, long timestamp, SpeedStator.MomentInfo momentInfo) {
+        if (closed) {
+            return;
+        }
+        Event e = new Event();
+        e.ph = 'C';
+        e.category = "speed";
+        e.name = tag;
+        e.tsNanos = TimeUnit.MILLISECONDS.toNanos(timestamp - baseMillis);
+        e.moment = momentInfo;
+        this.enqueue(e);
+    }
+
+    private void enqueue(Event e) {
+        if (!queue.offer(e)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 队列满而丢弃的事件数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 写完队列里已有的事件, 补上结尾, 关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(POISON);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while closing trace writer", e);
+        }
+        if (getDropped() > 0) {
+            log.warn("trace 队列满, 丢弃 {} 个事件", getDropped());
+        }
+    }
+
+    private void run() {
+        List<Event> batch = new ArrayList<>(1024);
+        try {
+            out.write("[\n");
+            while (true) {
+                Event e = queue.take();
+                batch.add(e);
+                queue.drainTo(batch, 1023);
+                boolean stop = false;
+                for (Event event : batch) {
+                    if (event == POISON) {
+                        stop = true;
+                        break;
+                    }
+                    this.write(event);
+                }
+                batch.clear();
+                if (stop) {
+                    break;
+                }
+                // 队列空了才刷, 忙时靠 BufferedWriter 攒批
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.write("\n]\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("写 trace 失败, 之后的事件丢弃", e);
+            closed = true;
+            queue.clear();
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.warn("关闭 trace 文件失败", e);
+            }
+        }
+    }
+
+    private void write(Event e) throws IOException {
+        StringBuilder sb = this.sb;
+        sb.setLength(0);
+        if (e.ph == 'X') {
+            Integer tid = tids.get(e.thread);
+            if (tid == null) {
+                tid = tids.size() + 1;
+                tids.put(e.thread, tid);
+                // 线程名的元数据事件
+                this.separator(sb);
+                sb.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(tid).append(",\"args\":{\"name\":");
+                quote(sb, e.thread);
+                sb.append("}}");
+            }
+            this.separator(sb);
+            sb.append("{\"name\":");
+            quote(sb, e.name);
+            sb.append(",\"cat\":");
+            quote(sb, e.category);
+            sb.append(",\"ph\":\"X\",\"ts\":");
+            micros(sb, e.tsNanos);
+            sb.append(",\"dur\":");
+            micros(sb, e.durNanos);
+            sb.append(",\"pid\":1,\"tid\":").append(tid);
+            if (e.data != null || e.message != null) {
+                sb.append(",\"args\":{");
+                boolean firstArg = true;
+                if (e.message != null) {
+                    sb.append("\"message\":");
+                    quote(sb, e.message);
+                    firstArg = false;
+                }
+                if (e.data != null) {
+                    for (Map.Entry<String, Object> entry : e.data.entrySet()) {
+                        if (!firstArg) {
+                            sb.append(',');
+                        }
+                        firstArg = false;
+                        quote(sb, entry.getKey());
+                        sb.append(':');
+                        value(sb, entry.getValue());
+                    }
+                }
+                sb.append('}');
+            }
+            sb.append('}');
+        } else {
+            SpeedStator.MomentInfo m = e.moment;
+            this.separator(sb);
+            sb.append("{\"name\":");
+            quote(sb, e.name);
+            sb.append(",\"cat\":\"speed\",\"ph\":\"C\",\"ts\":");
+            micros(sb, e.tsNanos);
+            sb.append(",\"pid\":1,\"args\":{\"tps\":");
+            number(sb, m.latestTps());
+            sb.append(",\"rate1m\":");
+            number(sb, m.rate1m);
+            sb.append(",\"ewma1m\":");
+            number(sb, m.ewma1m);
+            if (m.getIntervalLatency() != null) {
+                sb.append(",\"p99_ms\":");
+                number(sb, m.getIntervalLatency().p99 / 1e6);
+            }
+            sb.append("}}");
+        }
+        out.append(sb);
+    }
+
+    private void separator(StringBuilder sb) {
+        if (first) {
+            first = false;
+        } else {
+            sb.append(",\n");
+        }
+    }
+
+    private static void micros(StringBuilder sb, long nanos) {
+        // 保留到纳秒: 整数微秒 + 3 位小数
+        if (nanos < 0) {
+            sb.append('-');
+            nanos = -nanos;
+        }
+        sb.append(nanos / 1000);
+        long frac = nanos % 1000;
+        if (frac != 0) {
+            sb.append('.');
+            if (frac < 100) {
+                sb.append('0');
+            }
+            if (frac < 10) {
+                sb.append('0');
+            }
+            sb.append(frac);
+        }
+    }
+
+    private static void number(StringBuilder sb, double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            sb.append('0');
+        } else {
+            sb.append(v);
+        }
+    }
+
+    private static void value(StringBuilder sb, Object v) {
+        if (v == null) {
+            sb.append("null");
+        } else if (v instanceof Boolean || v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+            sb.append(v);
+        } else if (v instanceof Number) {
+            number(sb, ((Number) v).doubleValue());
+        } else {
+            quote(sb, String.valueOf(v));
+        }
+    }
+
+    static void quote(StringBuilder sb, String s) {
+        sb.append('"');
+        if (s != null) {
+            for (int i = 0, n = s.length(); i < n; i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static final class Event {
+        char ph;
+        String category;
+        String name;
+        long tsNanos;
+        long durNanos;
+        String thread;
+        Map<String, Object> data;
+        String message;
+        SpeedStator.MomentInfo moment;
+    }
+}
@@ -0,0 +1,63 @@
+package com.wtgroup.sugar.stopwatch
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+
+class ConcurrentStopWatchTest extends Specification {
+
+    def "threads keep their own task"() {
+        given:
+        ConcurrentStopWatch sw = new ConcurrentStopWatch("concurrent")
+        int threads = 8, tasks = 200
+        CountDownLatch ready = new CountDownLatch(threads)
+        CountDownLatch done = new CountDownLatch(threads)
+
+        when:
+        threads.times { t ->
+            new Thread({
+                ready.countDown()
+                ready.await()
+                tasks.times { i ->
+                    sw.start("t" + t)
+                    sw.addData("i", i)
+                    assert sw.currentTaskName() == "t" + t
+                    sw.stop()
+                }
+                done.countDown()
+            }, "sw-" + t).start()
+        }
+        done.await(10, TimeUnit.SECONDS)
+        def infos = sw.getTaskInfo()
+
+        then:
+        sw.getTaskCount() == threads * tasks
+        infos.length == 1000
+        infos.every { it.taskName == "t" + it.threadName.substring(3) }
+        (1..<infos.length).every { infos[it - 1].startTimeNanos <= infos[it].startTimeNanos }
+        sw.getRunningCount() == 0
+        !sw.isRunning()
+    }
+
+    def "tolerate unmatched start and stop"() {
+        given:
+        ConcurrentStopWatch sw = new ConcurrentStopWatch("unmatched")
+
+        when:
+        sw.stop()           // 没有 start, 忽略
+        sw.start("a")
+        sw.start("a")       // 重复 start, 忽略
+        sw.start("b")       // 先结束 a
+        sw.stop("done {}", 1)
+        sw.stop()           // 重复 stop, 忽略
+        println sw.prettyString()
+
+        then:
+        sw.getTaskCount() == 2
+        sw.getTaskInfo()*.taskName == ["a", "b"]
+        sw.getLastTaskInfo().message == "done 1"
+        !sw.isRunning()
+    }
+}
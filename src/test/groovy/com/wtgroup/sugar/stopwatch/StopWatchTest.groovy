@@ -43,6 +43,217 @@ class StopWatchTest extends Specification {
     }
 
 
+    def "aggregate mode"() {
+        given:
+        StopWatch sw = new StopWatch("agg").setAggregate(true)
+
+        when:
+        100_000.times {
+            sw.start("fast")
+            sw.stop()
+        }
+        3.times {
+            sw.start("slow")
+            TimeUnit.MILLISECONDS.sleep(2)
+            sw.addData("ignored", it)
+            sw.stop()
+        }
+        def stats = sw.getTaskStats()
+        def infos = sw.getTaskInfo()
+        println sw.prettyString()
+
+        then:
+        sw.getTaskCount() == 100_003
+        stats*.taskName == ["fast", "slow"]
+        stats[0].count == 100_000
+        stats[1].count == 3
+        stats[1].minNanos >= TimeUnit.MILLISECONDS.toNanos(2)
+        stats[1].getValueAtPercentile(50) >= stats[1].minNanos
+        stats[1].getValueAtPercentile(50) <= stats[1].maxNanos
+        stats[0].totalTimeNanos + stats[1].totalTimeNanos == sw.getTotalTimeNanos()
+        infos.length == 2
+        infos[1].timeNanos == stats[1].totalTimeNanos
+        infos[1].data.count == 3L
+        sw.getLastTaskName() == "slow"
+        sw.prettyString().contains("[slow]")
+    }
+
+    def "slow capture keeps payload of slow tasks only"() {
+        given:
+        StopWatch sw = new StopWatch("slow").setSlowCapture(TimeUnit.MILLISECONDS.toNanos(200), 2)
+        // 预热, 免得第一次调用的类加载把 "fast" 拖慢
+        StopWatch warm = new StopWatch("warm").setSlowCapture(TimeUnit.MILLISECONDS.toNanos(200), 2)
+        def fastTasks = { StopWatch w ->
+            1000.times {
+                w.start("fast")
+                w.addData("i", it)
+                w.addMessage("fast {}", it)
+                w.stop()
+            }
+        }
+        fastTasks(warm)
+
+        when:
+        fastTasks(sw)
+        sw.start("slow")
+        sw.addData("id", 42)
+        TimeUnit.MILLISECONDS.sleep(250)
+        sw.stop("took {}", "long")
+        [40, 60].each { ms ->
+            sw.start("mid" + ms)
+            sw.addData("ms", ms)
+            TimeUnit.MILLISECONDS.sleep(ms)
+            sw.stop()
+        }
+        def infos = sw.getSlowTaskInfo()
+        println sw.prettyString()
+
+        then:
+        sw.getTaskCount() == 1003
+        infos*.taskName == ["slow", "mid40", "mid60"]
+        infos[0].data == [id: 42]
+        infos[0].message == "took long"
+        infos[1].data == [ms: 40]
+        infos[2].data == [ms: 60]
+        infos[2].message == null
+        sw.getLastTaskName() == "mid60"
+        sw.getTaskInfo().length == 3
+    }
+
+    def "slow capture with aggregate mode"() {
+        given:
+        StopWatch sw = new StopWatch("slow-agg").setAggregate(true).setSlowCapture(Long.MAX_VALUE, 1)
+
+        when:
+        100.times {
+            sw.start("t")
+            sw.addData("i", it)
+            if (it == 50) {
+                TimeUnit.MILLISECONDS.sleep(5)
+            }
+            sw.stop()
+        }
+
+        then:
+        sw.getTaskStats()[0].count == 100
+        sw.getSlowTaskInfo().length == 1
+        sw.getSlowTaskInfo()[0].data == [i: 50]
+    }
+
+    def "nested spans"() {
+        given:
+        StopWatch sw = new StopWatch("batch").setNested(true)
+
+        when:
+        sw.start("load")
+        TimeUnit.MILLISECONDS.sleep(5)
+        2.times {
+            sw.start("parse")
+            TimeUnit.MILLISECONDS.sleep(10)
+            sw.startSpan("validate")
+            TimeUnit.MILLISECONDS.sleep(20)
+            sw.stop()
+            sw.stop()
+        }
+        sw.start("write")
+        sw.start("flush")   // 漏了 stopSpan, 由 stopSpan("load") 一并结束
+        TimeUnit.MILLISECONDS.sleep(5)
+        sw.stopSpan("load")
+        def root = sw.getSpanRoot()
+        def load = root.children[0]
+        def parse = load.children[0]
+        def validate = parse.children[0]
+        def folded = sw.spanFoldedStacks().readLines()
+        println sw.prettyString()
+        println sw.spanFoldedStacks()
+
+        then:
+        !sw.isRunning()
+        sw.getTaskCount() == 1
+        sw.getLastTaskName() == "load"
+        sw.getTotalTimeNanos() == load.totalTimeNanos
+        load.children*.name == ["parse", "write"]
+        parse.count == 2
+        validate.path == "load > parse > validate"
+        validate.totalTimeNanos >= TimeUnit.MILLISECONDS.toNanos(40)
+        parse.selfTimeNanos == parse.totalTimeNanos - validate.totalTimeNanos
+        parse.selfTimeNanos >= TimeUnit.MILLISECONDS.toNanos(20)
+        load.children[1].children[0].name == "flush"
+        folded.any { it.startsWith("load;parse;validate ") }
+        folded.any { it.startsWith("load;write;flush ") }
+        folded.every { it ==~ /[^ ]+ \d+/ }
+        sw.spanTree().readLines()[2].startsWith("    validate  total ")
+    }
+
+    def "time and split"() {
+        given:
+        ManualClock clock = new ManualClock()
+        StopWatch sw = new StopWatch("split").setClock(clock)
+
+        when:
+        def r = sw.time("supplier", { clock.advanceMillis(2); 42 } as java.util.function.Supplier)
+        sw.time("runnable", { clock.advanceMillis(3) } as Runnable)
+        StopWatch.Split first
+        try {
+            StopWatch.Split s = sw.split("throws")
+            first = s
+            try {
+                clock.advanceMillis(4)
+                throw new IllegalStateException("boom")
+            } finally {
+                s.close()
+            }
+        } catch (IllegalStateException ignored) {
+        }
+        first.close()   // 重复 close 无害
+        StopWatch.Split second = sw.split("reused")
+        second.close()
+
+        then:
+        r == 42
+        !sw.isRunning()
+        sw.getTaskInfo()*.taskName == ["supplier", "runnable", "throws", "reused"]
+        sw.getTaskInfo()*.timeNanos == [2_000_000L, 3_000_000L, 4_000_000L, 0L]
+        second.is(first)
+        second.getName() == null
+    }
+
+    def "split in nested mode"() {
+        given:
+        StopWatch sw = new StopWatch("split").setNested(true)
+
+        when:
+        StopWatch.Split outer = sw.split("outer")
+        StopWatch.Split inner = sw.split("inner")
+        outer.close()   // 先关外层, 内层一并结束
+        inner.close()
+
+        then:
+        sw.getTaskCount() == 1
+        sw.getSpanRoot().children[0].children*.name == ["inner"]
+        sw.getSpanRoot().children[0].children[0].count == 1
+    }
+
+    def "manual clock"() {
+        given:
+        ManualClock clock = new ManualClock()
+        StopWatch sw = new StopWatch("clock").setClock(clock)
+
+        when:
+        sw.start("a")
+        clock.advance(3, TimeUnit.MILLISECONDS)
+        sw.stop()
+        sw.start("b")
+        clock.advance(7, TimeUnit.MILLISECONDS)
+        sw.stop()
+
+        then:
+        sw.getTaskInfo()*.timeNanos == [3_000_000L, 7_000_000L]
+        sw.getTaskInfo()*.startTimeNanos == [0L, 3_000_000L]
+        sw.getTotalTimeNanos() == 10_000_000L
+    }
+
+
 }
 
 //Generated with love by TestMe :) Please report issues and submit feature requests at: http://weirddev.com/forum#!/testme
\ No newline at end of file
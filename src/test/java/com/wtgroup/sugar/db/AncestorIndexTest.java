@@ -0,0 +1,108 @@
+package com.wtgroup.sugar.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.wtgroup.sugar.db.TreeFixtures.forest;
+import static com.wtgroup.sugar.db.TreeFixtures.row;
+
+public class AncestorIndexTest {
+
+    /**
+     * 同沿 pid 往上走的结果一致; 子孙的顺序同 toTree 的处理顺序
+     */
+    @Test
+    public void sameAsWalkingUp() {
+        int n = 3_000;
+        List<Map> data = forest(n, 4);
+        Map<Integer, Integer> pids = new HashMap<>();
+        for (Map row : data) {
+            pids.put((Integer) row.get("id"), (Integer) row.get("pid"));
+        }
+        List<Integer> visitOrder = new ArrayList<>();
+        TreeTableHandler<Map, Integer, Integer> handler = new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), visitor(visitOrder));
+        AncestorIndex<Map, Integer> ancestry = handler.ancestry();
+        handler.toTree();
+
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            int a = random.nextInt(n);
+            int x = random.nextInt(n);
+            Assert.assertEquals(a + " > " + x, pathOf(x, pids).indexOf(a) > 0, ancestry.isAncestor(a, x));
+        }
+        for (int x = 0; x < n; x++) {
+            List<Integer> path = pathOf(x, pids);
+            Assert.assertEquals(path, ancestry.pathToRoot(x));
+            Assert.assertEquals(path.size() - 1, ancestry.depth(x));
+
+            List<Integer> descendants = ancestry.descendants(x);
+            Assert.assertEquals(descendants.size() + 1, ancestry.subtreeSize(x));
+            int from = visitOrder.indexOf(x);
+            Assert.assertEquals(visitOrder.subList(from + 1, from + 1 + descendants.size()), descendants);
+            for (Integer d : descendants) {
+                Assert.assertTrue(ancestry.isAncestor(x, d));
+            }
+        }
+        List<Map> rows = ancestry.descendantRows(visitOrder.get(0));
+        Assert.assertEquals(ancestry.descendants(visitOrder.get(0)).get(0), rows.get(0).get("id"));
+
+        Assert.assertFalse(ancestry.isAncestor(-1, 0));
+        Assert.assertEquals(-1, ancestry.depth(-1));
+        Assert.assertEquals(0, ancestry.subtreeSize(-1));
+        Assert.assertTrue(ancestry.descendants(-1).isEmpty());
+        Assert.assertTrue(ancestry.pathToRoot(null).isEmpty());
+    }
+
+    /**
+     * 增量修改后重建
+     */
+    @Test
+    public void rebuiltAfterUpdate() {
+        List<Map> data = new ArrayList<>(Arrays.asList(row(1, null), row(2, 1), row(3, 2), row(4, 1)));
+        TreeTableHandler<Map, Integer, Integer> handler = new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), visitor(new ArrayList<>()));
+        handler.toTree();
+        Assert.assertEquals(Arrays.asList(2, 3, 4), handler.ancestry().descendants(1));
+
+        handler.reparent(3, 4);
+        handler.insert(row(5, 3));
+        handler.delete(2);
+        AncestorIndex<Map, Integer> ancestry = handler.ancestry();
+        Assert.assertEquals(Arrays.asList(4, 3, 5), ancestry.descendants(1));
+        Assert.assertEquals(Arrays.asList(5, 3, 4, 1), ancestry.pathToRoot(5));
+        Assert.assertTrue(ancestry.isAncestor(4, 5));
+        Assert.assertEquals(-1, ancestry.depth(2));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void cycle() {
+        List<Map> data = Arrays.asList(row(1, null), row(2, 3), row(3, 2), row(4, 3));
+        new TreeTableHandler<>(data, row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), visitor(new ArrayList<>()))
+                .ancestry();
+    }
+
+    private static List<Integer> pathOf(int x, Map<Integer, Integer> pids) {
+        List<Integer> path = new ArrayList<>();
+        for (Integer p = x; p != null; p = pids.get(p)) {
+            path.add(p);
+        }
+        return path;
+    }
+
+    private static TreeTableHandler.ResultMapper<Map, Integer> visitor(List<Integer> visitOrder) {
+        return new TreeTableHandler.ResultMapper<Map, Integer>() {
+            @Override
+            public Integer mapProperties(Map row, int lvl, Optional<Integer> parent) {
+                visitOrder.add((Integer) row.get("id"));
+                return (Integer) row.get("id");
+            }
+
+            @Override
+            public void onChildren(Integer parent, List<Integer> children) {
+            }
+        };
+    }
+}
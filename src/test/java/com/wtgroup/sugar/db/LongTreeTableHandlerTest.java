@@ -0,0 +1,160 @@
+package com.wtgroup.sugar.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.wtgroup.sugar.db.TreeFixtures.forest;
+
+public class LongTreeTableHandlerTest {
+
+    static final class Node {
+        final long id;
+        final long pid;
+
+        Node(long id, long pid) {
+            this.id = id;
+            this.pid = pid;
+        }
+    }
+
+    /**
+     * 同 {@link TreeTableHandler}: 顶层顺序, 子节点顺序, 层级, 先于父节点出现的子节点
+     */
+    @Test
+    public void sameAsGeneric() {
+        List<Node> data = forest(20_000, 7, new Random(20_000), LongTreeTableHandlerTest::node);
+        List<Map<String, Object>> expected = new TreeTableHandler<Node, Map<String, Object>, Long>(data,
+                row -> row.id, row -> row.pid == 0 ? null : row.pid, copier()).toTree();
+        List<Map<String, Object>> actual = new LongTreeTableHandler<>(data, row -> row.id, row -> row.pid, copier()).toTree();
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void childIds() {
+        List<Node> data = Arrays.asList(new Node(3, 1), new Node(1, 0), new Node(2, 1), new Node(4, 4), new Node(5, 4));
+        LongTreeTableHandler<Node, Long> handler = new LongTreeTableHandler<>(data, row -> row.id, row -> row.pid,
+                new TreeTableHandler.ResultMapper<Node, Long>() {
+                    @Override
+                    public Long mapProperties(Node row, int lvl, Optional<Long> parent) {
+                        return row.id;
+                    }
+
+                    @Override
+                    public void onChildren(Long parent, List<Long> children) {
+                    }
+                });
+        Assert.assertEquals(5, handler.size());
+        Assert.assertArrayEquals(new long[]{3, 2}, handler.getChildIds(1));
+        // 自引用的看作根, 自己的子节点照常
+        Assert.assertArrayEquals(new long[]{5}, handler.getChildIds(4));
+        Assert.assertArrayEquals(new long[0], handler.getChildIds(42));
+        Assert.assertFalse(handler.contains(0));
+        Assert.assertEquals(Arrays.asList(1L, 4L), handler.toTree());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void duplicateId() {
+        new LongTreeTableHandler<>(Arrays.asList(new Node(1, 0), new Node(1, 0)), row -> row.id, row -> row.pid, copier());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void cycle() {
+        List<Node> data = Arrays.asList(new Node(1, 0), new Node(2, 3), new Node(3, 2));
+        new LongTreeTableHandler<>(data, row -> row.id, row -> row.pid, copier()).toTree();
+    }
+
+    /**
+     * 建好(toTree 之前)的常驻内存, 不含行对象本身. 旧版 = 原来的 HashMap&lt;ID, T&gt; + LinkedHashMap&lt;ID, List&lt;ID&gt;&gt;.
+     * 不在日常测试里跑, 需要 -Xmx4g 左右.
+     * <p>
+     * 结果(JDK 17, 压缩指针, -Xmx4500m):
+     * <pre>
+     * n=1,000,000   old maps:   156 MB (164 B/row)  TreeTableHandler:  78 MB (82 B/row)  LongTreeTableHandler:  46 MB (49 B/row)
+     * n=10,000,000  old maps: 1,545 MB (162 B/row)  TreeTableHandler: 668 MB (70 B/row)  LongTreeTableHandler: 420 MB (44 B/row)
+     * </pre>
+     */
+    // @Test
+    public void benchMemory() {
+        for (int n : new int[]{1_000_000, 10_000_000}) {
+            List<Node> data = forest(n, 100, new Random(n), LongTreeTableHandlerTest::node);
+            long base = usedMemory();
+
+            Object[] old = oldMaps(data);
+            long oldBytes = usedMemory() - base;
+            old[0] = old[1] = null;
+
+            // of(Iterator) 当场建好索引
+            TreeTableHandler<Node, Node, Long> generic = TreeTableHandler.of(data.iterator(), row -> row.id,
+                    row -> row.pid == 0 ? null : row.pid, null);
+            long genericBytes = usedMemory() - base;
+            generic = null;
+
+            LongTreeTableHandler<Node, Node> specialized = new LongTreeTableHandler<>(data, row -> row.id, row -> row.pid, null);
+            long longBytes = usedMemory() - base;
+            Assert.assertEquals(n, specialized.size());
+            specialized = null;
+
+            System.out.printf("n=%,d  old maps: %,d MB (%d B/row)  TreeTableHandler: %,d MB (%d B/row)  LongTreeTableHandler: %,d MB (%d B/row)%n",
+                    n, oldBytes >> 20, oldBytes / n, genericBytes >> 20, genericBytes / n, longBytes >> 20, longBytes / n);
+        }
+    }
+
+    /**
+     * 原来 parseTreeMeta 的两个 Map
+     */
+    private static Object[] oldMaps(List<Node> data) {
+        Map<Long, Node> dataMap = new HashMap<>();
+        for (Node row : data) {
+            dataMap.put(row.id, row);
+        }
+        Map<Long, List<Long>> treeMeta = new LinkedHashMap<>();
+        for (Node row : data) {
+            Long pid = row.pid == 0 ? null : row.pid;
+            if (pid == null || !dataMap.containsKey(pid)) {
+                treeMeta.putIfAbsent(row.id, null);
+            } else {
+                List<Long> children = treeMeta.get(pid);
+                if (children == null) {
+                    treeMeta.put(pid, children = new ArrayList<>());
+                }
+                children.add(row.id);
+            }
+        }
+        return new Object[]{dataMap, treeMeta};
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static TreeTableHandler.ResultMapper<Node, Map<String, Object>> copier() {
+        return new TreeTableHandler.ResultMapper<Node, Map<String, Object>>() {
+            @Override
+            public Map<String, Object> mapProperties(Node row, int lvl, Optional<Map<String, Object>> parent) {
+                Map<String, Object> res = new HashMap<>();
+                res.put("id", row.id);
+                res.put("lvl", lvl);
+                res.put("parent", parent.map(p -> p.get("id")).orElse(null));
+                return res;
+            }
+
+            @Override
+            public void onChildren(Map<String, Object> parent, List<Map<String, Object>> children) {
+                parent.put("children", children);
+            }
+        };
+    }
+
+    /**
+     * {@link TreeFixtures#forest} 的行, id 从 1 开始, 根的 pid 为 0
+     */
+    private static Node node(Integer id, Integer pid) {
+        return new Node(id + 1, pid == null ? 0 : pid + 1);
+    }
+}
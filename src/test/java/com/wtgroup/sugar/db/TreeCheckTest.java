@@ -0,0 +1,126 @@
+package com.wtgroup.sugar.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.wtgroup.sugar.db.TreeFixtures.row;
+
+public class TreeCheckTest {
+
+    /**
+     * 一次报出所有的环, 自引用, pid 悬空; 环下挂着的节点不算
+     */
+    @Test
+    public void reportsAll() {
+        List<Map> data = Arrays.asList(
+                row(1, null),
+                row(2, 3), row(3, 2), row(4, 3),
+                row(5, 5),
+                row(6, 99),
+                row(7, 8), row(8, 9), row(9, 7));
+        TreeCheck<Integer> check = handler(data).validate();
+        Assert.assertFalse(check.isValid());
+        Assert.assertEquals(Arrays.asList(Arrays.asList(2, 3, 2), Arrays.asList(7, 8, 9, 7)), check.getCycles());
+        Assert.assertEquals(Collections.singletonList(5), check.getSelfReferences());
+        Assert.assertEquals(Collections.singletonMap(6, 99), check.getDanglingPids());
+    }
+
+    @Test
+    public void valid() {
+        List<Map> data = Arrays.asList(row(1, null), row(3, 2), row(2, 1), row(4, 2));
+        TreeTableHandler<Map, Integer, Integer> handler = handler(data);
+        handler.setValidateOnBuild(true);
+        Assert.assertTrue(handler.validate().isValid());
+        Assert.assertEquals(1, handler.toTree().size());
+    }
+
+    /**
+     * 百万深的链不递归; 首尾接上后是一个环
+     */
+    @Test
+    public void deepChain() {
+        int n = 1_000_000;
+        List<Map> data = new ArrayList<>(n);
+        data.add(row(0, null));
+        for (int i = 1; i < n; i++) {
+            data.add(row(i, i - 1));
+        }
+        Assert.assertTrue(handler(data).validate().isValid());
+
+        data.set(0, row(0, n - 1));
+        List<List<Integer>> cycles = handler(data).validate().getCycles();
+        Assert.assertEquals(1, cycles.size());
+        Assert.assertEquals(n + 1, cycles.get(0).size());
+    }
+
+    @Test
+    public void validateOnBuild() {
+        List<Map> data = Arrays.asList(row(1, null), row(2, 3), row(3, 2), row(7, 8), row(8, 7));
+        TreeTableHandler<Map, Integer, Integer> handler = handler(data);
+        handler.setValidateOnBuild(true);
+        try {
+            handler.toTreeParallel();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("[2, 3, 2]"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("[7, 8, 7]"));
+        }
+
+        // 默认不校验, 自引用, pid 悬空的照旧当根
+        data = Arrays.asList(row(1, null), row(5, 5), row(6, 99));
+        Assert.assertEquals(3, handler(data).toTree().size());
+        handler = handler(data);
+        handler.setValidateOnBuild(true);
+        try {
+            handler.toTree();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("selfReferences=[5]"));
+        }
+
+        // pid 悬空(指向其他表)不拦, 照旧当根
+        data = Arrays.asList(row(1, 0), row(2, 1), row(6, 99));
+        handler = handler(data);
+        handler.setValidateOnBuild(true);
+        Assert.assertEquals(2, handler.toTree().size());
+        Assert.assertEquals(2, handler.validate().getDanglingPids().size());
+    }
+
+    /**
+     * 指定了根规则时, 挂不上的行也是 pid 悬空; 增量修改后按当前的树算
+     */
+    @Test
+    public void rootRuleAndUpdates() {
+        List<Map> data = new ArrayList<>(Arrays.asList(row(1, 0), row(2, 1), row(3, 42)));
+        TreeTableHandler<Map, Integer, Integer> handler = new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), mapper(),
+                row -> Integer.valueOf(0).equals(row.get("pid")));
+        Assert.assertEquals(Collections.singletonMap(3, 42), handler.validate().getDanglingPids());
+
+        handler.toTree();
+        handler.delete(3);
+        Assert.assertTrue(handler.validate().isValid());
+        handler.insert(row(4, 1));
+        handler.reparent(2, 4);
+        Assert.assertTrue(handler.validate().isValid());
+    }
+
+    private static TreeTableHandler<Map, Integer, Integer> handler(List<Map> data) {
+        return new TreeTableHandler<>(data, row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), mapper());
+    }
+
+    private static TreeTableHandler.ResultMapper<Map, Integer> mapper() {
+        return new TreeTableHandler.ResultMapper<Map, Integer>() {
+            @Override
+            public Integer mapProperties(Map row, int lvl, Optional<Integer> parent) {
+                return (Integer) row.get("id");
+            }
+
+            @Override
+            public void onChildren(Integer parent, List<Integer> children) {
+            }
+        };
+    }
+}
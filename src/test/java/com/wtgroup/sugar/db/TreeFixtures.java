@@ -0,0 +1,40 @@
+package com.wtgroup.sugar.db;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * 树相关测试共用的造数据方法
+ */
+final class TreeFixtures {
+
+    private TreeFixtures() {
+    }
+
+    static HashMap<String, Object> row(Integer id, Integer pid) {
+        HashMap<String, Object> row = new HashMap<>();
+        row.put("id", id);
+        row.put("pid", pid);
+        return row;
+    }
+
+    /**
+     * 随机森林: id 为 0..n-1, 每个节点的父节点是前面的某个节点, 前 roots 个是根(pid 为 null). 行打乱, 子节点可能先于父节点出现.
+     */
+    static List<Map> forest(int n, int roots) {
+        return forest(n, roots, new Random(n), TreeFixtures::row);
+    }
+
+    /**
+     * 同 {@link #forest(int, int)}, 行对象由 rowFactory(id, pid) 造. 每行先取 pid 再调 rowFactory, rowFactory 可接着用 random.
+     */
+    static <T> List<T> forest(int n, int roots, Random random, BiFunction<Integer, Integer, T> rowFactory) {
+        List<T> data = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Integer pid = i < roots ? null : random.nextInt(i);
+            data.add(rowFactory.apply(i, pid));
+        }
+        Collections.shuffle(data, random);
+        return data;
+    }
+}
@@ -0,0 +1,175 @@
+package com.wtgroup.sugar.db;
+
+import com.wtgroup.sugar.math.Numbor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class TreeRollupTest {
+
+    static final class Row {
+        final int id;
+        final Integer pid;
+        final Double value;
+
+        Row(int id, Integer pid, Double value) {
+            this.id = id;
+            this.pid = pid;
+            this.value = value;
+        }
+    }
+
+    static final class Vo {
+        final int id;
+        double sum = -1;
+        long count = -1;
+        double min = -1;
+        double max = -1;
+        double avg = -1;
+
+        Vo(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * 每个节点的结果同把子树里的值逐个算一遍一致, ignore 规则
+     */
+    @Test
+    public void sameAsBruteForce() {
+        List<Row> data = forest(3_000, 3, new Random(7));
+        Map<Integer, Vo> vos = new HashMap<>();
+        TreeTableHandler<Row, Vo, Integer> handler = handler(data, vos);
+        handler.toTree();
+        handler.rollup(Numbor.Rule.ignore())
+                .sum(row -> row.value, (vo, v) -> vo.sum = v)
+                .count(row -> row.value, (vo, c) -> vo.count = c)
+                .min(row -> row.value, (vo, v) -> vo.min = v)
+                .max(row -> row.value, (vo, v) -> vo.max = v)
+                .avg(row -> row.value, (vo, v) -> vo.avg = v)
+                .run();
+
+        AncestorIndex<Row, Integer> ancestry = handler.ancestry();
+        for (Row row : data) {
+            List<Row> subtree = new ArrayList<>(ancestry.descendantRows(row.id));
+            subtree.add(row);
+            double sum = 0;
+            long count = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (Row r : subtree) {
+                if (r.value != null && !r.value.isNaN() && !r.value.isInfinite()) {
+                    sum += r.value;
+                    count++;
+                    min = Math.min(min, r.value);
+                    max = Math.max(max, r.value);
+                }
+            }
+            Vo vo = vos.get(row.id);
+            Assert.assertEquals(count, vo.count);
+            if (count == 0) {
+                // 没有参与的值, 结果为 null, 不调 setter
+                Assert.assertEquals(-1, vo.sum, 0);
+                Assert.assertEquals(-1, vo.avg, 0);
+            } else {
+                Assert.assertEquals(sum, vo.sum, 1e-6);
+                Assert.assertEquals(min, vo.min, 0);
+                Assert.assertEquals(max, vo.max, 0);
+                Assert.assertEquals(sum / count, vo.avg, 1e-9);
+            }
+        }
+    }
+
+    /**
+     * strict: null 让整条祖先链的结果为 null, NaN 按 double 传播; loose: 都当 0
+     */
+    @Test
+    public void rules() {
+        List<Row> data = Arrays.asList(
+                new Row(1, null, 1.0),
+                new Row(2, 1, 2.0),
+                new Row(3, 2, null),
+                new Row(4, 1, Double.NaN),
+                new Row(5, 1, 5.0));
+
+        Map<Integer, Vo> vos = new HashMap<>();
+        TreeTableHandler<Row, Vo, Integer> handler = handler(data, vos);
+        handler.toTree();
+        handler.rollup()
+                .sum(row -> row.value, (vo, v) -> vo.sum = v)
+                .count(row -> row.value, (vo, c) -> vo.count = c)
+                .run();
+        Assert.assertEquals(-1, vos.get(1).sum, 0);
+        Assert.assertEquals(-1, vos.get(2).sum, 0);
+        Assert.assertEquals(-1, vos.get(3).count);
+        Assert.assertTrue(Double.isNaN(vos.get(4).sum));
+        Assert.assertEquals(5.0, vos.get(5).sum, 0);
+        Assert.assertEquals(1, vos.get(5).count);
+
+        handler.rollup(Numbor.Rule.loose())
+                .sum(row -> row.value, (vo, v) -> vo.sum = v)
+                .count(row -> row.value, (vo, c) -> vo.count = c)
+                .max(row -> row.value, (vo, v) -> vo.max = v)
+                .run();
+        Assert.assertEquals(8.0, vos.get(1).sum, 0);
+        Assert.assertEquals(5, vos.get(1).count);
+        Assert.assertEquals(5.0, vos.get(1).max, 0);
+        Assert.assertEquals(2.0, vos.get(2).sum, 0);
+        Assert.assertEquals(0.0, vos.get(3).sum, 0);
+    }
+
+    /**
+     * 100 万节点, 除了每个汇总几个基本类型数组, 没有每节点的分配
+     */
+    @Test
+    public void allocFree() {
+        int n = 1_000_000;
+        TreeTableHandler<Row, Vo, Integer> handler = handler(forest(n, 10, new Random(n)), new HashMap<>());
+        handler.toTree();
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long allocated = 0;
+        // 第一轮含类加载, 先序索引等一次性的分配
+        for (int round = 0; round < 2; round++) {
+            long before = threadMXBean.getThreadAllocatedBytes(tid);
+            handler.rollup(Numbor.Rule.ignore())
+                    .sum(row -> row.value, (vo, v) -> vo.sum = v)
+                    .count(row -> row.value, (vo, c) -> vo.count = c)
+                    .avg(row -> row.value, (vo, v) -> vo.avg = v)
+                    .run();
+            allocated = threadMXBean.getThreadAllocatedBytes(tid) - before;
+        }
+        // 每个汇总 double[n] + long[n] + boolean[n]
+        long arrays = 3L * (8 + 8 + 1) * n;
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < arrays + (1 << 20));
+    }
+
+    private static TreeTableHandler<Row, Vo, Integer> handler(List<Row> data, Map<Integer, Vo> vos) {
+        return new TreeTableHandler<>(data, row -> row.id, row -> row.pid,
+                new TreeTableHandler.ResultMapper<Row, Vo>() {
+                    @Override
+                    public Vo mapProperties(Row row, int lvl, Optional<Vo> parent) {
+                        Vo vo = new Vo(row.id);
+                        vos.put(row.id, vo);
+                        return vo;
+                    }
+
+                    @Override
+                    public void onChildren(Vo parent, List<Vo> children) {
+                    }
+                });
+    }
+
+    /**
+     * 随机森林, 值里混着 null, NaN, Infinity
+     */
+    private static List<Row> forest(int n, int roots, Random random) {
+        return TreeFixtures.forest(n, roots, random, (id, pid) -> {
+            int r = random.nextInt(20);
+            Double value = r == 0 ? null : r == 1 ? Double.NaN : r == 2 ? Double.POSITIVE_INFINITY : (double) random.nextInt(1000);
+            return new Row(id, pid, value);
+        });
+    }
+}
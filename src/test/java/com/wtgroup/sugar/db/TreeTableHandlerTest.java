@@ -2,9 +2,17 @@ package com.wtgroup.sugar.db;
 
 import com.alibaba.fastjson.JSON;
 import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.wtgroup.sugar.db.TreeFixtures.forest;
+import static com.wtgroup.sugar.db.TreeFixtures.row;
 
 
 public class TreeTableHandlerTest {
@@ -58,6 +66,473 @@ public class TreeTableHandlerTest {
 
     }
 
+    /**
+     * 先序 mapProperties, 后序 onChildren, 同递归版
+     */
+    @Test
+    public void callOrder() {
+        List<String> events = new ArrayList<>();
+        TreeTableHandler<Map, String, Integer> handler = new TreeTableHandler<>(mock(),
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                recorder(events));
+        List<String> results = handler.toTree();
+
+        Assert.assertEquals(Collections.singletonList("0"), results);
+        Assert.assertEquals(Arrays.asList(
+                "map 0@0 <null>", "map 1@1 <0>", "map 2@2 <1>", "map 3@3 <2>",
+                "map 4@4 <3>", "map 5@5 <4>", "map 6@6 <5>", "map 7@7 <6>", "map 8@8 <7>", "map 9@9 <8>",
+                "children 9 null", "children 8 [9]", "children 7 [8]", "children 6 [7]", "children 5 [6]", "children 4 [5]",
+                "map 10@4 <3>", "children 10 null", "map 11@4 <3>", "children 11 null",
+                "children 3 [4, 10, 11]", "children 2 [3]", "children 1 [2]", "children 0 [1]"), events);
+        Assert.assertEquals(Arrays.asList(4, 10, 11), handler.getTreeMeta().get(3));
+    }
+
+    /**
+     * 子节点先于父节点出现, 顶层顺序按 pid 第一次出现
+     */
+    @Test
+    public void childBeforeParent() {
+        List<Map> data = new ArrayList<>();
+        data.add(row(3, 1));
+        data.add(row(2, 1));
+        data.add(row(1, null));
+        data.add(row(5, 4));
+        data.add(row(4, null));
+        List<String> events = new ArrayList<>();
+        List<String> results = new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                recorder(events)).toTree();
+
+        Assert.assertEquals(Arrays.asList("1", "4"), results);
+        Assert.assertTrue(events.contains("children 1 [3, 2]"));
+        Assert.assertTrue(events.contains("children 4 [5]"));
+    }
+
+    /**
+     * 5 万层的链, 递归版会栈溢出
+     */
+    @Test
+    public void deepChain() {
+        int n = 50_000;
+        List<Map> data = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            data.add(row(i, i == 0 ? null : i - 1));
+        }
+        int[] maxLvl = {0};
+        List<Map> results = new TreeTableHandler<Map, Map, Integer>(data,
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                new TreeTableHandler.ResultMapper<Map, Map>() {
+                    @Override
+                    public Map mapProperties(Map row, int lvl, Optional<Map> parent) {
+                        maxLvl[0] = Math.max(maxLvl[0], lvl);
+                        return row;
+                    }
+
+                    @Override
+                    public void onChildren(Map parent, List<Map> children) {
+                        parent.put("depth", children == null ? 0 : (int) children.get(0).get("depth") + 1);
+                    }
+                }).toTree();
+
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(n - 1, maxLvl[0]);
+        Assert.assertEquals(n - 1, results.get(0).get("depth"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void cycleWithoutRoot() {
+        List<Map> data = new ArrayList<>();
+        data.add(row(1, null));
+        data.add(row(2, 3));
+        data.add(row(3, 2));
+        new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                recorder(new ArrayList<>())).toTree();
+    }
+
+    /**
+     * 并行建树和单线程结果一致: 顶层顺序, 子节点顺序, 层级
+     */
+    @Test
+    public void parallelSameAsSequential() {
+        List<Map> data = forest(20_000, 7);
+        List<Map> expected = new TreeTableHandler<Map, Map, Integer>(data,
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                copier()).toTree();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int threshold : new int[]{1, 16, 1000, 100_000}) {
+                List<Map> actual = new TreeTableHandler<Map, Map, Integer>(data,
+                        row -> (Integer) row.get("id"),
+                        row -> (Integer) row.get("pid"),
+                        copier()).toTreeParallel(pool, threshold);
+                Assert.assertEquals("threshold=" + threshold, expected, actual);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelDeepChain() {
+        int n = 50_000;
+        List<Map> data = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            data.add(row(i, i == 0 ? null : i - 1));
+        }
+        // 每隔一段挂个叶子, 让沿链往下时也有兄弟任务
+        for (int i = 0; i < n; i += 100) {
+            data.add(row(n + i, i));
+        }
+        List<Map> results = new TreeTableHandler<Map, Map, Integer>(data,
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                new TreeTableHandler.ResultMapper<Map, Map>() {
+                    @Override
+                    public Map mapProperties(Map row, int lvl, Optional<Map> parent) {
+                        HashMap<String, Object> res = new HashMap<>();
+                        res.put("id", row.get("id"));
+                        res.put("lvl", lvl);
+                        return res;
+                    }
+
+                    @Override
+                    public void onChildren(Map parent, List<Map> children) {
+                        int size = 1;
+                        if (children != null) {
+                            for (Map child : children) {
+                                size += (int) child.get("size");
+                            }
+                        }
+                        parent.put("size", size);
+                    }
+                }).toTreeParallel(ForkJoinPool.commonPool(), 64);
+
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(data.size(), results.get(0).get("size"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void parallelCycle() {
+        List<Map> data = forest(1000, 3);
+        data.add(row(-1, -2));
+        data.add(row(-2, -3));
+        data.add(row(-3, -1));
+        new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"),
+                row -> (Integer) row.get("pid"),
+                recorder(new ArrayList<>())).toTreeParallel(ForkJoinPool.commonPool(), 8);
+    }
+
+    /**
+     * 100 万节点的森林, mapProperties 模拟一点计算. 不在日常测试里跑.
+     * <p>
+     * 结果(单核沙箱, -Xmx3g, commonPool 并行度 1, 三轮, 只能看出并行版本身的开销, 约 1%~10%; 多核机器上才有加速):
+     * <pre>
+     * toTree          : 11442 ms / 11339 ms / 7352 ms
+     * toTreeParallel  : 11541 ms / 12487 ms / 7600 ms
+     * </pre>
+     */
+    // @Test
+    public void benchParallel() {
+        List<Map> data = forest(1_000_000, 20);
+        TreeTableHandler.ResultMapper<Map, Map> mapper = new TreeTableHandler.ResultMapper<Map, Map>() {
+            @Override
+            public Map mapProperties(Map row, int lvl, Optional<Map> parent) {
+                HashMap<String, Object> res = new HashMap<>();
+                res.put("id", row.get("id"));
+                // 模拟字段转换
+                long h = (Integer) row.get("id");
+                for (int i = 0; i < 200; i++) {
+                    h = h * 31 + i;
+                }
+                res.put("h", h);
+                return res;
+            }
+
+            @Override
+            public void onChildren(Map parent, List<Map> children) {
+                parent.put("children", children);
+            }
+        };
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            new TreeTableHandler<Map, Map, Integer>(data, row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), mapper).toTree();
+            long t1 = System.nanoTime();
+            new TreeTableHandler<Map, Map, Integer>(data, row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), mapper).toTreeParallel();
+            long t2 = System.nanoTime();
+            System.out.println("toTree          : " + (t1 - t0) / 1_000_000 + " ms");
+            System.out.println("toTreeParallel  : " + (t2 - t1) / 1_000_000 + " ms");
+        }
+    }
+
+    private static TreeTableHandler.ResultMapper<Map, Map> copier() {
+        return new TreeTableHandler.ResultMapper<Map, Map>() {
+            @Override
+            public Map mapProperties(Map row, int lvl, Optional<Map> parent) {
+                HashMap<String, Object> res = new HashMap<>();
+                res.put("id", row.get("id"));
+                res.put("lvl", lvl);
+                res.put("parent", parent.map(p -> p.get("id")).orElse(null));
+                return res;
+            }
+
+            @Override
+            public void onChildren(Map parent, List<Map> children) {
+                parent.put("children", children);
+            }
+        };
+    }
+
+    /**
+     * 流式输入和 List 输入结果一致, 行顺序打乱也一样
+     */
+    @Test
+    public void streamSameAsList() {
+        List<Map> data = forest(5_000, 5);
+        // 倒序: 几乎所有子节点都先于父节点到
+        List<Map> reversed = new ArrayList<>(data);
+        Collections.reverse(reversed);
+        for (List<Map> rows : Arrays.asList(data, reversed)) {
+            TreeTableHandler<Map, Map, Integer> list = new TreeTableHandler<>(rows,
+                    row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), copier());
+            TreeTableHandler<Map, Map, Integer> stream = TreeTableHandler.of(rows.iterator(),
+                    row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), copier());
+            Assert.assertEquals(list.getTreeMeta(), stream.getTreeMeta());
+            Assert.assertEquals(new ArrayList<>(list.getTreeMeta().keySet()), new ArrayList<>(stream.getTreeMeta().keySet()));
+            Assert.assertEquals(list.toTree(), stream.toTree());
+        }
+    }
+
+    /**
+     * 孤儿: 父节点后到的挂上, 父节点一直没到的看作根
+     */
+    @Test
+    public void streamOrphans() {
+        List<String> events = new ArrayList<>();
+        TreeTableHandler.Builder<Map, String, Integer> builder = TreeTableHandler.builder(
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), recorder(events));
+        builder.add(row(3, 1)).add(row(4, 2)).add(row(5, 2)).add(row(7, 99)).add(row(2, 1)).add(row(1, null)).add(row(6, 2));
+        List<String> results = builder.build().toTree();
+
+        Assert.assertEquals(Arrays.asList("1", "7"), results);
+        Assert.assertTrue(events.contains("children 2 [4, 5, 6]"));
+        Assert.assertTrue(events.contains("children 1 [3, 2]"));
+        try {
+            builder.add(row(8, 1));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void streamResultSet() throws SQLException {
+        int[][] table = {{3, 1}, {1, 0}, {2, 1}, {4, 3}};
+        int[] cursor = {-1};
+        ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "next":
+                            return ++cursor[0] < table.length;
+                        case "getInt":
+                            return table[cursor[0]]["id".equals(args[0]) ? 0 : 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        List<String> events = new ArrayList<>();
+        List<String> results = TreeTableHandler.of(rs,
+                (r, rowNum) -> {
+                    int pid = r.getInt("pid");
+                    return row(r.getInt("id"), pid == 0 ? null : pid);
+                },
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), recorder(events)).toTree();
+
+        Assert.assertEquals(Collections.singletonList("1"), results);
+        Assert.assertTrue(events.contains("children 1 [3, 2]"));
+        Assert.assertTrue(events.contains("children 3 [4]"));
+    }
+
+    /**
+     * 中间节点的行排在它的根之前: 顶层同旧版, 先是它自己的一份, 再是根
+     */
+    @Test
+    public void intermediateBeforeRoot() {
+        List<Map> data = Arrays.asList(row(3, 2), row(2, 1), row(1, null), row(4, 3));
+        TreeTableHandler<Map, String, Integer> handler = new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), recorder(new ArrayList<>()));
+        Assert.assertEquals(Arrays.asList("2", "1"), handler.toTree());
+        Assert.assertEquals(Arrays.asList("2", "1"), new TreeTableHandler<>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), recorder(new ArrayList<>()))
+                .toTreeParallel(ForkJoinPool.commonPool(), 1));
+    }
+
+    /**
+     * 增量修改后, 子树大小, 求和同整表重建一致, 且只对祖先路径重新 onChildren
+     */
+    @Test
+    public void incremental() {
+        List<Map> data = forest(2_000, 3);
+        // 父节点的行在前, 顶层没有中间节点单独的那份(增量修改不维护它, 见 insert)
+        data.sort(Comparator.comparing(row -> (Integer) row.get("id")));
+        for (Map row : data) {
+            row.put("v", (Integer) row.get("id") % 7);
+        }
+        int[] calls = {0};
+        TreeTableHandler<Map, Map, Integer> handler = new TreeTableHandler<>(new ArrayList<>(data),
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), rollup(calls));
+        handler.toTree();
+
+        // insert: 挂到 1500 下
+        HashMap<String, Object> added = row(5000, 1500);
+        added.put("v", 100);
+        data.add(added);
+        calls[0] = 0;
+        Map res = handler.insert(added);
+        Assert.assertEquals(1, res.get("size"));
+        // 新叶子一次, 父节点及每个祖先各一次
+        Assert.assertEquals(depthOf(data, 1500) + 2, calls[0]);
+        assertSameAsRebuild(handler, data);
+
+        // reparent: 1200 挪到 5000 下
+        Map moved = find(data, 1200);
+        data.remove(moved);
+        moved.put("pid", 5000);
+        data.add(moved);
+        handler.reparent(1200, 5000);
+        assertSameAsRebuild(handler, data);
+
+        // delete: 删 1500 整个子树
+        Set<Integer> gone = new HashSet<>();
+        gone.add(1500);
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (Map row : data) {
+                if (gone.contains(row.get("pid")) && gone.add((Integer) row.get("id"))) {
+                    changed = true;
+                }
+            }
+        }
+        data.removeIf(row -> gone.contains(row.get("id")));
+        Assert.assertEquals(gone.size(), handler.delete(1500));
+        Assert.assertEquals(0, handler.delete(1500));
+        assertSameAsRebuild(handler, data);
+        Assert.assertFalse(handler.getTreeMeta().containsKey(1500));
+    }
+
+    @Test
+    public void incrementalRoots() {
+        List<String> events = new ArrayList<>();
+        TreeTableHandler<Map, String, Integer> handler = new TreeTableHandler<>(
+                new ArrayList<>(Arrays.asList(row(1, null), row(2, 1), row(3, 2))),
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), recorder(events));
+        handler.toTree();
+        Assert.assertEquals("9", handler.insert(row(9, null)));
+        Assert.assertEquals(Arrays.asList("1", "9"), handler.getResults());
+
+        events.clear();
+        handler.reparent(2, null);
+        Assert.assertEquals(Arrays.asList("1", "9", "2"), handler.getResults());
+        Assert.assertEquals(Collections.singletonList("children 1 null"), events);
+        Assert.assertEquals(Arrays.asList(1, 2, 9), new ArrayList<>(new TreeSet<>(handler.getTreeMeta().keySet())));
+
+        events.clear();
+        handler.reparent(1, 3);
+        Assert.assertEquals(Arrays.asList("9", "2"), handler.getResults());
+        Assert.assertEquals(Arrays.asList("children 3 [1]", "children 2 [3]"), events);
+
+        try {
+            handler.reparent(2, 1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // 1 在 2 之下
+        }
+        try {
+            handler.insert(row(3, 1));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // id 重复
+        }
+    }
+
+    private static void assertSameAsRebuild(TreeTableHandler<Map, Map, Integer> handler, List<Map> data) {
+        List<Map> expected = new TreeTableHandler<Map, Map, Integer>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), rollup(new int[1])).toTree();
+        Assert.assertEquals(expected, handler.getResults());
+        Assert.assertEquals(new TreeTableHandler<Map, Map, Integer>(data,
+                row -> (Integer) row.get("id"), row -> (Integer) row.get("pid"), rollup(new int[1])).getTreeMeta(), handler.getTreeMeta());
+    }
+
+    /**
+     * 子树大小和 v 的和
+     */
+    private static TreeTableHandler.ResultMapper<Map, Map> rollup(int[] calls) {
+        return new TreeTableHandler.ResultMapper<Map, Map>() {
+            @Override
+            public Map mapProperties(Map row, int lvl, Optional<Map> parent) {
+                HashMap<String, Object> res = new HashMap<>();
+                res.put("id", row.get("id"));
+                res.put("v", row.get("v"));
+                return res;
+            }
+
+            @Override
+            public void onChildren(Map parent, List<Map> children) {
+                calls[0]++;
+                int size = 1;
+                int sum = (int) parent.get("v");
+                if (children != null) {
+                    for (Map child : children) {
+                        size += (int) child.get("size");
+                        sum += (int) child.get("sum");
+                    }
+                }
+                parent.put("size", size);
+                parent.put("sum", sum);
+                parent.put("children", children);
+            }
+        };
+    }
+
+    private static Map find(List<Map> data, int id) {
+        for (Map row : data) {
+            if (row.get("id").equals(id)) {
+                return row;
+            }
+        }
+        throw new NoSuchElementException(String.valueOf(id));
+    }
+
+    private static int depthOf(List<Map> data, int id) {
+        int depth = 0;
+        for (Object pid = find(data, id).get("pid"); pid != null; pid = find(data, (Integer) pid).get("pid")) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static TreeTableHandler.ResultMapper<Map, String> recorder(List<String> events) {
+        return new TreeTableHandler.ResultMapper<Map, String>() {
+            @Override
+            public String mapProperties(Map row, int lvl, Optional<String> parent) {
+                String id = String.valueOf(row.get("id"));
+                events.add("map " + id + "@" + lvl + " <" + parent.orElse("null") + ">");
+                return id;
+            }
+
+            @Override
+            public void onChildren(String parent, List<String> children) {
+                events.add("children " + parent + " " + children);
+            }
+        };
+    }
+
     @NotNull
     private List<Map> mock() {
         List<Map> data = new ArrayList<>();
@@ -0,0 +1,69 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        int n = 10_0000;
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            // 1us ~ 100ms, 长尾
+            values[i] = (long) (1000 * Math.pow(10, random.nextDouble() * 5));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        Assert.assertEquals(n, histogram.getTotalCount());
+        Assert.assertEquals(values[n - 1], histogram.getMax());
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(p / 100 * n) - 1];
+            long actual = histogram.getValueAtPercentile(p);
+            // 相对误差 < 1/2^(precision-1)
+            Assert.assertEquals("p" + p, expected, actual, expected / 64.0);
+        }
+    }
+
+    @Test
+    public void smallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(50, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(99, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(100, histogram.percentiles().max);
+        Assert.assertEquals(1, histogram.getMin());
+    }
+
+    @Test
+    public void indexRoundTrip() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v : new long[]{0, 1, 127, 128, 129, 255, 256, 1000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int index = histogram.indexOf(v);
+            Assert.assertTrue(v + " <= " + histogram.highestEquivalentValue(index), v <= histogram.highestEquivalentValue(index));
+            Assert.assertEquals(index, histogram.indexOf(histogram.highestEquivalentValue(index)));
+        }
+    }
+
+    @Test
+    public void addAndCopy() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(1000);
+        LatencyHistogram c = a.copy();
+        c.add(b);
+        Assert.assertEquals(2, c.getTotalCount());
+        Assert.assertEquals(1000, c.getMax());
+        Assert.assertEquals(10, c.getMin());
+        Assert.assertEquals(1, a.getTotalCount());
+    }
+}
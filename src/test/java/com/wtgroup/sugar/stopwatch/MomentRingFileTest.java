@@ -0,0 +1,68 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MomentRingFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeWrapAndRead() throws Exception {
+        SpeedStator speedStator = new SpeedStator("ring/job").setDefaultCountDelta(10).setDefaultTimeInterval(Long.MAX_VALUE);
+        Path dir = folder.getRoot().toPath();
+        MomentRingFile ringFile = MomentRingFile.attach(speedStator, dir, 5);
+        Assert.assertEquals(dir.resolve("ring_job.ring"), ringFile.getFile());
+
+        for (int i = 0; i < 70; i++) {
+            speedStator.record(1000 + i);
+        }
+        Assert.assertEquals(7, ringFile.getWriteSeq());
+
+        // 写入方没关也能读
+        MomentRingFile.History history = MomentRingFile.read(ringFile.getFile());
+        Assert.assertEquals("ring/job", history.getTag());
+        Assert.assertEquals(7, history.getWriteSeq());
+        List<MomentRingFile.Entry> entries = history.getEntries();
+        Assert.assertEquals(5, entries.size());
+        for (int i = 0; i < 5; i++) {
+            SpeedStator.MomentInfo m = entries.get(i).getMoment();
+            Assert.assertEquals((i + 3) * 10, m.getHandledCount());
+            Assert.assertEquals(10, m.countDelta);
+            Assert.assertEquals(10, m.getIntervalLatency().count);
+        }
+        Assert.assertEquals(1069, entries.get(4).getMoment().getIntervalLatency().max);
+
+        speedStator.removeMomentSink(ringFile);
+        ringFile.close();
+        speedStator.stop();
+
+        // 重新打开, 接着写, 新的一次运行
+        SpeedStator again = new SpeedStator("ring/job").setDefaultCountDelta(10).setDefaultTimeInterval(Long.MAX_VALUE);
+        try (MomentRingFile reopened = MomentRingFile.attach(again, dir, 5)) {
+            Assert.assertEquals(7, reopened.getWriteSeq());
+            for (int i = 0; i < 10; i++) {
+                again.log();
+            }
+            Assert.assertEquals(8, reopened.getWriteSeq());
+        }
+        history = MomentRingFile.read(dir.resolve("ring_job.ring"));
+        Assert.assertEquals(2, history.runs().size());
+        Assert.assertNull(history.getEntries().get(4).getMoment().getIntervalLatency());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        history.summary(new PrintStream(out, true, "UTF-8"));
+        String summary = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(summary, summary.contains("运行 #2"));
+        Assert.assertTrue(summary, summary.contains("已处理 70 条"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateWindowTest {
+
+    @Test
+    public void slidingRates() {
+        long t0 = 1000_000L;
+        RateWindow window = new RateWindow(t0);
+        // 前 10 分钟 100 条/秒, 后 5 分钟 10 条/秒
+        long total = 0;
+        for (int s = 1; s <= 600; s++) {
+            total += 100;
+            window.tick(t0 + s * 1000L, total);
+        }
+        Assert.assertEquals(100, window.rate1m(), 1e-9);
+        Assert.assertEquals(100, window.rate5m(), 1e-9);
+        // 不足 15 分钟, 按实际时长
+        Assert.assertEquals(100, window.rate15m(), 1e-9);
+
+        for (int s = 601; s <= 900; s++) {
+            total += 10;
+            window.tick(t0 + s * 1000L, total);
+        }
+        Assert.assertEquals(10, window.rate1m(), 1e-9);
+        Assert.assertEquals(10, window.rate5m(), 1e-9);
+        Assert.assertEquals((600 * 100 + 300 * 10) / 900.0, window.rate15m(), 1e-9);
+
+        // EWMA 每秒衰减 e^(-1/60), 5 分钟后 1m 的只剩 e^-5 的旧速率, 15m 的还在两者之间
+        Assert.assertEquals(10 + 90 * Math.exp(-300 / 60.0), window.ewma1m(), 1e-6);
+        Assert.assertTrue(window.ewma15m() > 10 && window.ewma15m() < 100);
+    }
+
+    @Test
+    public void sameSecondAndGap() {
+        long t0 = 1000_000L;
+        RateWindow window = new RateWindow(t0);
+        window.tick(t0 + 1000, 50);
+        // 同一秒内, 后来的 tick 忽略
+        window.tick(t0 + 1500, 80);
+        Assert.assertEquals(50, window.rate1m(), 1e-9);
+
+        // 停了 20 秒才 tick, 按插值补齐, 总数不丢
+        window.tick(t0 + 21_000, 250);
+        Assert.assertEquals(250 / 21.0, window.rate1m(), 1e-9);
+
+        // 超过一整圈
+        window.tick(t0 + 2000_000, 250);
+        Assert.assertEquals(0, window.rate15m(), 1e-9);
+        Assert.assertEquals(0, window.ewma1m(), 1e-6);
+    }
+}
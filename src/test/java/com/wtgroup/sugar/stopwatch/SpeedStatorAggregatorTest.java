@@ -0,0 +1,65 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+
+public class SpeedStatorAggregatorTest {
+
+    @Test
+    public void mergeCountsAndPercentiles() {
+        SpeedStator p1 = new SpeedStator("agg-p1").setDefaultCountDelta(Integer.MAX_VALUE);
+        SpeedStator p2 = new SpeedStator("agg-p2").setDefaultCountDelta(Integer.MAX_VALUE);
+        SpeedStator p3 = new SpeedStator("agg-p3").setDefaultCountDelta(Integer.MAX_VALUE);
+        LatencyHistogram expected = new LatencyHistogram();
+        for (int i = 1; i <= 9000; i++) {
+            p1.record(i);
+            expected.record(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            p2.record(1_000_000 + i);
+            expected.record(1_000_000 + i);
+        }
+        p3.count(500);
+
+        SpeedStatorAggregator job = new SpeedStatorAggregator("agg-job").add(p1).add(p2).add(p3);
+        SpeedSnapshot snapshot = job.snapshot();
+        Assert.assertEquals(10500, snapshot.getHandledCount());
+        Assert.assertEquals(10000, snapshot.getLatency().count);
+        // 分位值按合并后的分布求, 而不是各分区分位值的平均
+        Assert.assertEquals(expected.getValueAtPercentile(50), snapshot.getLatency().p50);
+        Assert.assertEquals(expected.getValueAtPercentile(95), snapshot.getLatencyAtPercentile(95));
+        Assert.assertEquals(expected.getValueAtPercentile(99), snapshot.getLatency().p99);
+        Assert.assertTrue(snapshot.getLatency().p99 >= 1_000_000);
+
+        // 合并不改变原快照
+        SpeedSnapshot s1 = p1.snapshot();
+        SpeedSnapshot merged = s1.merge(p2.snapshot());
+        Assert.assertEquals(9000, s1.getHandledCount());
+        Assert.assertEquals(9000, s1.getLatency().count);
+        Assert.assertEquals(10000, merged.getHandledCount());
+        Assert.assertEquals(Math.min(p1.getStart(), p2.getStart()), merged.getStartMillis());
+
+        job.setExpectedTotal(21000);
+        job.log();
+        Assert.assertEquals(Duration.ZERO, snapshot.eta(10000));
+    }
+
+    @Test
+    public void eta() {
+        long now = System.currentTimeMillis();
+        SpeedSnapshot a = new SpeedSnapshot("a", now - 10_000, now, true, 300, 30, 0, 0, 0, 0, 0, null);
+        SpeedSnapshot b = new SpeedSnapshot("b", now - 10_000, now, true, 200, 70, 0, 0, 0, 0, 0, null);
+        SpeedSnapshot job = SpeedSnapshot.merge("job", a, b);
+        Assert.assertEquals(100, job.getRate1m(), 1e-9);
+        Assert.assertEquals(Duration.ofSeconds(10), job.eta(1500));
+        Assert.assertEquals(50, job.progress(1000), 1e-9);
+
+        // 没有滑动速率时, 按全程平均速率
+        SpeedSnapshot young = new SpeedSnapshot("y", now - 2_000, now, true, 100, 0, 0, 0, 0, 0, 0, null);
+        Assert.assertEquals(Duration.ofSeconds(2), young.eta(200));
+        SpeedSnapshot idle = new SpeedSnapshot("i", now, now, true, 0, 0, 0, 0, 0, 0, 0, null);
+        Assert.assertNull(idle.eta(1));
+    }
+}
@@ -2,8 +2,15 @@ package com.wtgroup.sugar.stopwatch;
 
 import lombok.SneakyThrows;
 import org.junit.Assert;
+import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class SpeedStatorTest {
 
@@ -66,5 +73,371 @@ public class SpeedStatorTest {
          */
     }
 
+    @SneakyThrows
+    @Test
+    public void stripedCountExact() {
+        SpeedStator speedStator = new SpeedStator("ss-striped").setStriped(true).setCheckInterval(1);
+
+        int N = 16, M = 10000;
+        CountDownLatch countDownLatch = new CountDownLatch(N);
+        for (int i = 0; i < N; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < M; j++) {
+                    speedStator.logOr();
+                }
+                countDownLatch.countDown();
+            }).start();
+        }
+
+        countDownLatch.await();
+        Assert.assertEquals(N * M, speedStator.getHandledCount());
+        speedStator.stop();
+    }
+
+    @SneakyThrows
+    @Test
+    public void recordLatency() {
+        SpeedStator speedStator = new SpeedStator("ss-latency").setDefaultCountDelta(50_0000);
+
+        int N = 8, M = 20_0000;
+        CountDownLatch countDownLatch = new CountDownLatch(N);
+        for (int i = 0; i < N; i++) {
+            new Thread(() -> {
+                for (int j = 1; j <= M; j++) {
+                    speedStator.record(j % 1000 == 0 ? 1000_000 : 1000);
+                }
+                countDownLatch.countDown();
+            }).start();
+        }
+        countDownLatch.await();
+
+        Assert.assertEquals(N * M, speedStator.getHandledCount());
+        SpeedStator.MomentInfo moment = speedStator.getLatestMoment();
+        // 区间切换过程中, 一条记录都不能丢
+        Assert.assertEquals(N * M, moment.getTotalLatency().count);
+        Assert.assertEquals(1000, moment.getTotalLatency().p50, 16);
+        Assert.assertEquals(1000_000, moment.getTotalLatency().p999, 1000_000 / 64);
+        Assert.assertEquals(1000_000, moment.getTotalLatency().max);
+        speedStator.stop();
+    }
+
+    @Test
+    public void manualClockRates() {
+        List<SpeedStator.MomentInfo> logs = new CopyOnWriteArrayList<>();
+        ManualClock clock = new ManualClock(1_700_000_000_000L);
+        SpeedStator speedStator = new SpeedStator("ss-manual", (momentInfo, extra) -> logs.add(momentInfo))
+                .setDefaultTimeInterval(10_000).setDefaultCountDelta(Integer.MAX_VALUE).setClock(clock);
 
-}
\ No newline at end of file
+        // 每秒 100 条, 共 2 分钟, 不用真的等
+        for (int i = 0; i < 120; i++) {
+            clock.advance(1, TimeUnit.SECONDS);
+            speedStator.count(99);
+            speedStator.log();
+        }
+        Assert.assertEquals(12, logs.size());
+        for (SpeedStator.MomentInfo log : logs) {
+            Assert.assertEquals(1000, log.countDelta);
+            Assert.assertEquals(10_000, log.timeInterval);
+        }
+        Assert.assertEquals(120_000, speedStator.getTotalTime());
+        Assert.assertEquals(100.0, speedStator.getRate1m(), 1e-9);
+        Assert.assertEquals(100.0, speedStator.getRate5m(), 1e-9);
+        Assert.assertEquals(100.0, speedStator.getEwma1m(), 1e-9);
+
+        // 停 30 秒, 1 分钟窗口里只剩一半的量
+        clock.advance(30, TimeUnit.SECONDS);
+        Assert.assertEquals(50.0, speedStator.getRate1m(), 1e-9);
+        Assert.assertTrue(speedStator.getEwma1m() < 100.0 * Math.exp(-29.0 / 60));
+        speedStator.stop();
+    }
+
+    @SneakyThrows
+    @Test
+    public void coarseClock() {
+        Clock coarse = Clock.coarse();
+        Assert.assertSame(coarse, Clock.coarse());
+        long before = coarse.nanoTime();
+        TimeUnit.MILLISECONDS.sleep(50);
+        long elapsed = coarse.nanoTime() - before;
+        Assert.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertTrue(Math.abs(coarse.currentTimeMillis() - System.currentTimeMillis()) < 1000);
+    }
+
+    /**
+     * ManualClock 拨时间, 直接调 report() 代替后台线程的巡检, 不用真的等
+     */
+    @Test
+    public void scheduledReport() {
+        List<SpeedStator.MomentInfo> reports = new CopyOnWriteArrayList<>();
+        ManualClock clock = new ManualClock();
+        SpeedStator speedStator = new SpeedStator("ss-scheduled", (momentInfo, extra) -> reports.add(momentInfo))
+                .setClock(clock).setStriped(true).setScheduled(true).setDefaultTimeInterval(300);
+        Assert.assertTrue(SpeedStatorReporter.isRegistered(speedStator));
+        // 后台线程不参与, 由这里驱动
+        SpeedStatorReporter.unregister(speedStator);
+
+        for (int i = 0; i < 1000; i++) {
+            // 业务线程只计数, 哪怕超过次数阈值也不会输出
+            speedStator.logOr(0L, 1, EXTRA_MSG);
+        }
+        Assert.assertTrue(reports.isEmpty());
+
+        // 不到时间间隔不报告
+        clock.advanceMillis(299);
+        speedStator.report();
+        Assert.assertTrue(reports.isEmpty());
+
+        // 流量停了, 照样报告这段区间, 再报告一次空闲区间, 然后安静
+        for (int i = 0; i < 5; i++) {
+            clock.advanceMillis(301);
+            speedStator.report();
+        }
+        Assert.assertEquals(2, reports.size());
+        Assert.assertEquals(1000, reports.get(0).countDelta);
+        Assert.assertEquals(0, reports.get(1).countDelta);
+
+        // 又有流量, 恢复报告
+        speedStator.count(5);
+        clock.advanceMillis(300);
+        speedStator.report();
+        Assert.assertEquals(3, reports.size());
+        Assert.assertEquals(5, reports.get(2).countDelta);
+
+        speedStator.count(10);
+        speedStator.stop();
+        // stop 补报最后一段, 不等时间间隔
+        Assert.assertEquals(4, reports.size());
+        Assert.assertEquals(10, reports.get(3).countDelta);
+        Assert.assertFalse(SpeedStatorReporter.isRegistered(speedStator));
+    }
+
+    /**
+     * ManualClock 下按令牌桶的时刻判定, 不用真的等
+     */
+    @Test
+    public void rateLimitPacing() {
+        ManualClock clock = new ManualClock();
+        SpeedStator speedStator = new SpeedStator("ss-pacing").setClock(clock)
+                .setDefaultCountDelta(Integer.MAX_VALUE).setRateLimit(100, 0);
+
+        // 匀速 100/秒, 每 10ms 一个; 超速的 tryAcquire 立即失败, 不计数
+        Assert.assertTrue(speedStator.tryAcquire());
+        Assert.assertFalse(speedStator.tryAcquire());
+        Assert.assertFalse(speedStator.tryAcquire(5, TimeUnit.MILLISECONDS));
+        clock.advanceMillis(10);
+        Assert.assertTrue(speedStator.tryAcquire());
+        Assert.assertEquals(2, speedStator.getHandledCount());
+        int passed = 0;
+        for (int i = 0; i < 1000; i++) {
+            clock.advanceMillis(1);
+            if (speedStator.tryAcquire()) {
+                passed++;
+            }
+        }
+        Assert.assertEquals(100, passed);
+
+        // 空闲 2 秒, 攒下 1 秒的量, 加上当前这一个
+        speedStator.setRateLimit(100, 1);
+        clock.advance(2, TimeUnit.SECONDS);
+        passed = 0;
+        while (speedStator.tryAcquire()) {
+            passed++;
+        }
+        Assert.assertEquals(101, passed);
+
+        // 运行中调速
+        clock.advance(2, TimeUnit.SECONDS);
+        speedStator.setRateLimit(1000_000);
+        Assert.assertEquals(1000_000, speedStator.getRateLimit(), 0);
+        Assert.assertTrue(speedStator.tryAcquire());
+        speedStator.setRateLimit(0);
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(speedStator.tryAcquire());
+        }
+        speedStator.stop();
+    }
+
+    /**
+     * 不走 acquire 的计数同样占令牌, 限的是实测的总速率
+     */
+    @Test
+    public void rateLimitCountsOthers() {
+        ManualClock clock = new ManualClock();
+        SpeedStator speedStator = new SpeedStator("ss-pacing-others").setClock(clock)
+                .setDefaultCountDelta(Integer.MAX_VALUE).setRateLimit(100, 0);
+        Assert.assertTrue(speedStator.tryAcquire());
+        clock.advanceMillis(10);
+        // 别处计了 50 个, 占掉 500ms 的令牌
+        speedStator.count(49);
+        speedStator.log();
+        Assert.assertFalse(speedStator.tryAcquire());
+        clock.advanceMillis(490);
+        Assert.assertFalse(speedStator.tryAcquire());
+        clock.advanceMillis(10);
+        Assert.assertTrue(speedStator.tryAcquire());
+        Assert.assertEquals(52, speedStator.getHandledCount());
+
+        // start 清零后重新对账, 之前的计数不再扣
+        speedStator.stop();
+        speedStator.start();
+        clock.advanceMillis(10);
+        Assert.assertTrue(speedStator.tryAcquire());
+        speedStator.stop();
+    }
+
+    /**
+     * 多线程 acquire, 时钟不动, 预约的时刻恰好是 0, 1, 2... 个间隔, 不重不漏
+     */
+    @SneakyThrows
+    @Test
+    public void rateLimitConcurrentReservations() {
+        SpeedStator speedStator = new SpeedStator("ss-pacing-concurrent").setClock(new ManualClock())
+                .setDefaultCountDelta(Integer.MAX_VALUE).setRateLimit(100_000, 0);
+        int threads = 4, perThread = 250;
+        long[] waited = new long[threads];
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int idx = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    waited[idx] += speedStator.acquire();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        int n = threads * perThread;
+        Assert.assertEquals(n, speedStator.getHandledCount());
+        // 间隔 10us, 第 k 个等 k * 10us
+        Assert.assertEquals(10_000L * n * (n - 1) / 2, Arrays.stream(waited).sum());
+        speedStator.stop();
+    }
+
+    private static final Supplier<String> EXTRA_MSG = () -> "extra";
+
+    /**
+     * extraMsg 抛异常, 锁照样释放, 之后照常输出; null 看作没有附加信息
+     */
+    @Test
+    public void throwingSupplierReleasesLock() {
+        List<SpeedStator.MomentInfo> logs = new CopyOnWriteArrayList<>();
+        SpeedStator speedStator = new SpeedStator("ss-throwing", (momentInfo, extra) -> logs.add(momentInfo))
+                .setDefaultTimeInterval(Long.MAX_VALUE).setDefaultCountDelta(1).setClock(new ManualClock());
+        try {
+            speedStator.log(() -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertTrue(logs.isEmpty());
+
+        speedStator.logOr(0L, 1, (Supplier<String>) null);
+        speedStator.log();
+        Assert.assertEquals(2, logs.size());
+        Assert.assertEquals(2, logs.get(0).countDelta);
+        Assert.assertEquals(1, logs.get(1).countDelta);
+        // stop 要 lock.lock(), 锁没放的话这里会卡住
+        speedStator.stop();
+    }
+
+    /**
+     * 不输出日志的快速路径, 每次调用 0 字节分配
+     */
+    @Test
+    public void fastPathAllocFree() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        Object arg1 = "a", arg2 = "b";
+
+        for (boolean striped : new boolean[]{false, true}) {
+            SpeedStator speedStator = new SpeedStator("ss-alloc").setStriped(striped)
+                    .setDefaultTimeInterval(Long.MAX_VALUE).setDefaultCountDelta(Integer.MAX_VALUE);
+            int M = 20_0000;
+            // 预热, 类加载等一次性的分配不算
+            for (int i = 0; i < M; i++) {
+                callFastPath(speedStator, arg1, arg2);
+            }
+
+            long before = threadMXBean.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < M; i++) {
+                callFastPath(speedStator, arg1, arg2);
+            }
+            long allocated = threadMXBean.getThreadAllocatedBytes(tid) - before;
+
+            // 哪怕每次 new 一个最小的对象, 也有 M * 16 字节. 留一点给 getThreadAllocatedBytes 自己.
+            Assert.assertTrue("striped=" + striped + ", allocated " + allocated + " bytes", allocated < 1024);
+            Assert.assertEquals(2L * M * 10, speedStator.getHandledCount());
+        }
+    }
+
+    private void callFastPath(SpeedStator speedStator, Object arg1, Object arg2) {
+        speedStator.log();
+        speedStator.log("{}", arg1);
+        speedStator.log("{}-{}", arg1, arg2);
+        speedStator.log(EXTRA_MSG);
+        speedStator.logOr(Long.MAX_VALUE, Integer.MAX_VALUE, EXTRA_MSG);
+        speedStator.logTimeInterval();
+        speedStator.logCountDelta();
+        speedStator.logAnd();
+        speedStator.logIf(m -> m.countDelta < 0);
+        speedStator.logIf(m -> m.countDelta < 0, EXTRA_MSG);
+    }
+
+    /**
+     * 默认模式(AtomicLong + tryLock) vs striped 模式, 1, 8, 32 线程
+     */
+    @SneakyThrows
+    // @Test
+    public void benchStriped() {
+        // 预热, 避免先跑的组合吃亏
+        for (int threads : new int[]{1, 8, 32}) {
+            runStriped(threads, false, 200_0000);
+            runStriped(threads, true, 200_0000);
+        }
+        for (int threads : new int[]{1, 8, 32}) {
+            for (boolean striped : new boolean[]{false, true}) {
+                long total = 2000_0000;
+                long cost = runStriped(threads, striped, total);
+                System.out.printf("threads=%d, striped=%s: %.2f ns/op, %.0f ops/ms%n", threads, striped,
+                        (double) cost / total, total / (cost / 1000_000.0));
+            }
+        }
+
+        /**
+         * 2000_0000 次 logOr(), 单核虚拟机
+         * threads=1, striped=false: 96.18 ns/op, 10397 ops/ms
+         * threads=1, striped=true: 19.31 ns/op, 51779 ops/ms
+         * threads=8, striped=false: 19.44 ns/op, 51447 ops/ms
+         * threads=8, striped=true: 20.31 ns/op, 49232 ops/ms
+         * threads=32, striped=false: 18.70 ns/op, 53471 ops/ms
+         * threads=32, striped=true: 24.10 ns/op, 41490 ops/ms
+         *
+         * 总结: 单线程 striped 快 5 倍, 省掉的主要是每次的时钟调用和锁.
+         * 单核上多线程时, 默认模式持锁线程常被切走, 其他线程 tryLock 失败直接返回, 反而显得快; 没有缓存行争抢, 看不出 striped 的收益.
+         * 多核上请自行在目标机器上跑一下.
+         */
+    }
+
+    @SneakyThrows
+    private long runStriped(int threads, boolean striped, long total) {
+        // 阈值调大, 只测计数和判定的开销
+        SpeedStator speedStator = new SpeedStator("bench").setStriped(striped)
+                .setDefaultTimeInterval(Long.MAX_VALUE).setDefaultCountDelta(Integer.MAX_VALUE);
+        long perThread = total / threads;
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (long j = 0; j < perThread; j++) {
+                    speedStator.logOr();
+                }
+                countDownLatch.countDown();
+            }).start();
+        }
+        countDownLatch.await();
+        long cost = System.nanoTime() - t0;
+        Assert.assertEquals(perThread * threads, speedStator.getHandledCount());
+        return cost;
+    }
+}
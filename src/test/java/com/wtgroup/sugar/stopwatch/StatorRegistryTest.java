@@ -0,0 +1,86 @@
+package com.wtgroup.sugar.stopwatch;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+public class StatorRegistryTest {
+
+    @After
+    public void tearDown() {
+        StatorRegistry.disableJmx();
+        StatorRegistry.removeSpeedStator("reg-\"q\"");
+        StatorRegistry.removeStopWatch("reg-sw");
+    }
+
+    @Test
+    public void scrapeDoesNotReset() {
+        SpeedStator stator = StatorRegistry.speedStator("reg-\"q\"");
+        Assert.assertSame(stator, StatorRegistry.speedStator("reg-\"q\""));
+        stator.start();
+        for (int i = 0; i < 500; i++) {
+            stator.record(1_000_000);
+        }
+        StopWatch stopWatch = StatorRegistry.stopWatch("reg-sw");
+        stopWatch.start("t1");
+        stopWatch.stop();
+
+        String first = PrometheusExporter.scrape();
+        Assert.assertTrue(first, first.contains("sugar_speed_handled_total{tag=\"reg-\\\"q\\\"\"} 500\n"));
+        Assert.assertTrue(first, first.contains("sugar_speed_latency_seconds_count{tag=\"reg-\\\"q\\\"\"} 500\n"));
+        Assert.assertTrue(first, first.contains("sugar_speed_latency_seconds_sum{tag=\"reg-\\\"q\\\"\"} 0.5\n"));
+        Assert.assertTrue(first, first.contains("sugar_stopwatch_tasks_total{id=\"reg-sw\"} 1\n"));
+        Assert.assertTrue(first, first.contains("# TYPE sugar_speed_rate gauge\n"));
+
+        // 抓取不重置计数
+        String second = PrometheusExporter.scrape();
+        Assert.assertTrue(second, second.contains("sugar_speed_handled_total{tag=\"reg-\\\"q\\\"\"} 500\n"));
+        Assert.assertTrue(second, second.contains("sugar_speed_latency_seconds_count{tag=\"reg-\\\"q\\\"\"} 500\n"));
+        Assert.assertEquals(500, stator.getHandledCount());
+        stator.stop();
+    }
+
+    @Test
+    public void httpAndJmx() throws Exception {
+        SpeedStator stator = StatorRegistry.speedStator("reg-\"q\"");
+        stator.start();
+        stator.count(42);
+
+        HttpServer server = PrometheusExporter.serve(0);
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + PrometheusExporter.PATH);
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(200, conn.getResponseCode());
+            Assert.assertTrue(conn.getContentType().startsWith("text/plain"));
+            String body;
+            try (InputStream in = conn.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                for (int n; (n = in.read(buf)) > 0; ) {
+                    out.write(buf, 0, n);
+                }
+                body = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+            Assert.assertTrue(body, body.contains("sugar_speed_handled_total{tag=\"reg-\\\"q\\\"\"} 42\n"));
+        } finally {
+            PrometheusExporter.stop(server, 0);
+        }
+        Assert.assertTrue(((ExecutorService) server.getExecutor()).isShutdown());
+
+        StatorRegistry.enableJmx();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        Object handled = mBeanServer.getAttribute(StatorRegistry.objectName("SpeedStator", "reg-\"q\""), "HandledCount");
+        Assert.assertEquals(42L, handled);
+        stator.stop();
+    }
+}
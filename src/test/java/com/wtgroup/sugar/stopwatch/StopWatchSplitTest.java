@@ -0,0 +1,90 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+public class StopWatchSplitTest {
+
+    private static int sink;
+
+    /**
+     * 聚合模式下, split / time 包住的代码块, 计时本身 0 字节分配
+     */
+    @Test
+    public void splitAllocFree() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        StopWatch stopWatch = new StopWatch("alloc").setAggregate(true);
+        Runnable body = () -> sink++;
+        int M = 20_0000;
+        // 预热, 类加载, 任务名的统计槽位等一次性的分配不算
+        for (int i = 0; i < M; i++) {
+            timeBlocks(stopWatch, body);
+        }
+
+        long before = threadMXBean.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < M; i++) {
+            timeBlocks(stopWatch, body);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(tid) - before;
+
+        Assert.assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        Assert.assertEquals(2L * M * 3, stopWatch.getTaskCount());
+    }
+
+    private static void timeBlocks(StopWatch stopWatch, Runnable body) {
+        try (StopWatch.Split s = stopWatch.split("split")) {
+            body.run();
+        }
+        stopWatch.time("time", body);
+        stopWatch.start("start");
+        body.run();
+        stopWatch.stop();
+    }
+
+    /**
+     * 每个计时块的开销: start/stop, split, time, 默认模式 vs 聚合模式
+     */
+    // @Test
+    public void benchSplit() {
+        Runnable body = () -> sink++;
+        for (int round = 0; round < 2; round++) {
+            for (boolean aggregate : new boolean[]{false, true}) {
+                int total = 1000_0000;
+                StopWatch stopWatch = new StopWatch("bench", false).setAggregate(aggregate);
+                long t0 = System.nanoTime();
+                for (int i = 0; i < total; i++) {
+                    stopWatch.start("start");
+                    body.run();
+                    stopWatch.stop();
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < total; i++) {
+                    try (StopWatch.Split s = stopWatch.split("split")) {
+                        body.run();
+                    }
+                }
+                long t2 = System.nanoTime();
+                for (int i = 0; i < total; i++) {
+                    stopWatch.time("time", body);
+                }
+                long t3 = System.nanoTime();
+                if (round == 1) {
+                    System.out.printf("aggregate=%s: start/stop %.2f ns, split %.2f ns, time %.2f ns%n", aggregate,
+                            (double) (t1 - t0) / total, (double) (t2 - t1) / total, (double) (t3 - t2) / total);
+                }
+            }
+        }
+
+        /**
+         * 1000_0000 个计时块, 单核虚拟机, 第二轮
+         * aggregate=false: start/stop 106.20 ns, split 119.27 ns, time 119.25 ns
+         * aggregate=true: start/stop 132.50 ns, split 124.15 ns, time 126.57 ns
+         *
+         * 总结: split / time 比手写 start/stop 多十来纳秒(取还句柄), 大头是两次 nanoTime 和记账.
+         * 聚合模式多一次按任务名找槽位, 单线程下并不更快, 但不分配(见 splitAllocFree), 长时间热循环里没有 GC 压力.
+         */
+    }
+}
@@ -0,0 +1,108 @@
+package com.wtgroup.sugar.stopwatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TimedProxyTest {
+
+    public interface UserDao {
+        @Timed(value = "proxy-dao", name = "find-user")
+        String find(long id);
+
+        @Timed("proxy-dao")
+        @Metered(value = "proxy-dao.save", latency = false)
+        void save(String user);
+
+        @Timed("proxy-dao")
+        void fail();
+
+        int untimed();
+    }
+
+    @Metered("proxy-service")
+    public interface UserService {
+        String load(long id);
+    }
+
+    static class UserDaoImpl implements UserDao, UserService {
+        private UserDao self;
+
+        @Override
+        public String find(long id) {
+            return "user-" + id;
+        }
+
+        @Override
+        public void save(String user) {
+        }
+
+        @Override
+        public void fail() {
+            throw new IllegalStateException("boom");
+        }
+
+        @Override
+        public int untimed() {
+            return 7;
+        }
+
+        @Override
+        public String load(long id) {
+            // 代理方法里调另一个代理方法, 外层照样计时
+            return self.find(id);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        StatorRegistry.removeConcurrentStopWatch("proxy-dao");
+        for (String tag : new String[]{"proxy-dao.save", "proxy-service"}) {
+            SpeedStator speedStator = StatorRegistry.removeSpeedStator(tag);
+            if (speedStator != null) {
+                speedStator.stop();
+            }
+        }
+    }
+
+    @Test
+    public void timedAndMetered() {
+        UserDaoImpl impl = new UserDaoImpl();
+        Object proxy = TimedProxy.wrap(impl);
+        UserDao dao = (UserDao) proxy;
+        UserService service = (UserService) proxy;
+        impl.self = dao;
+
+        Assert.assertEquals("user-1", dao.find(1));
+        dao.save("a");
+        dao.save("b");
+        try {
+            dao.fail();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("boom", e.getMessage());
+        }
+        Assert.assertEquals(7, dao.untimed());
+        Assert.assertEquals("user-2", service.load(2));
+        Assert.assertEquals(proxy, proxy);
+        Assert.assertNotEquals(proxy, impl);
+
+        ConcurrentStopWatch stopWatch = StatorRegistry.concurrentStopWatch("proxy-dao");
+        String[] names = Arrays.stream(stopWatch.getTaskInfo()).map(StopWatch.TaskInfo::getTaskName).toArray(String[]::new);
+        Assert.assertArrayEquals(new String[]{"find-user", "save", "save", "fail", "find-user"}, names);
+        Assert.assertEquals(0, stopWatch.getRunningCount());
+
+        Assert.assertEquals(2, StatorRegistry.speedStator("proxy-dao.save").getHandledCount());
+        Assert.assertNull(StatorRegistry.speedStator("proxy-dao.save").getTotalLatency());
+        SpeedStator service1 = StatorRegistry.speedStator("proxy-service");
+        Assert.assertEquals(1, service1.getHandledCount());
+        Assert.assertEquals(1, service1.getTotalLatency().count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notAnInterface() {
+        TimedProxy.wrap(UserDaoImpl.class, new UserDaoImpl());
+    }
+}
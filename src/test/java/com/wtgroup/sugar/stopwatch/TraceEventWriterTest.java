@@ -0,0 +1,164 @@
+package com.wtgroup.sugar.stopwatch;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TraceEventWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tasksSpansAndCounters() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("job.trace.json");
+        ConcurrentStopWatch concurrent = new ConcurrentStopWatch("workers");
+        SpeedStator speedStator = new SpeedStator("job").setDefaultCountDelta(5).setDefaultTimeInterval(Long.MAX_VALUE);
+
+        try (TraceEventWriter trace = TraceEventWriter.open(file)) {
+            concurrent.setTraceWriter(trace);
+            speedStator.addMomentSink(trace);
+
+            Thread[] threads = new Thread[2];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 3; i++) {
+                        concurrent.start("batch");
+                        concurrent.addData("i", i);
+                        concurrent.stop("quote \" and \\ ok");
+                    }
+                }, "worker-" + t);
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            StopWatch stopWatch = new StopWatch("main").setNested(true).setTraceWriter(trace);
+            stopWatch.startSpan("load");
+            stopWatch.startSpan("parse");
+            stopWatch.stopSpan();
+            stopWatch.stopSpan();
+
+            for (int i = 0; i < 10; i++) {
+                speedStator.log();
+            }
+            speedStator.removeMomentSink(trace);
+            Assert.assertEquals(0, trace.getDropped());
+        }
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        JSONArray events = JSON.parseArray(content);
+        int batches = 0, spans = 0, counters = 0;
+        Set<String> threadNames = new HashSet<>();
+        for (int i = 0; i < events.size(); i++) {
+            JSONObject e = events.getJSONObject(i);
+            String ph = e.getString("ph");
+            if ("M".equals(ph)) {
+                threadNames.add(e.getJSONObject("args").getString("name"));
+            } else if ("X".equals(ph) && "workers".equals(e.getString("cat"))) {
+                batches++;
+                Assert.assertEquals("batch", e.getString("name"));
+                Assert.assertEquals("quote \" and \\ ok", e.getJSONObject("args").getString("message"));
+                Assert.assertTrue(e.getDoubleValue("dur") >= 0);
+            } else if ("X".equals(ph)) {
+                spans++;
+                Assert.assertEquals("main", e.getString("cat"));
+            } else if ("C".equals(ph)) {
+                counters++;
+                Assert.assertEquals("job", e.getString("name"));
+                Assert.assertTrue(e.getJSONObject("args").containsKey("tps"));
+            }
+        }
+        Assert.assertEquals(6, batches);
+        Assert.assertEquals(2, spans);
+        Assert.assertEquals(2, counters);
+        Assert.assertTrue(threadNames.contains("worker-0"));
+        Assert.assertTrue(threadNames.contains("worker-1"));
+        speedStator.stop();
+    }
+
+    /**
+     * 秒表和 SpeedStator 用 ManualClock, writer 给同一个时钟, ts 是确定的; writer 用系统时钟时按 "距现在多久" 换算过去, 不会差出几十年
+     */
+    @Test
+    public void manualClock() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("manual.trace.json");
+        ManualClock clock = new ManualClock(1_700_000_000_000L).advanceMillis(5000);
+        SpeedStator speedStator = new SpeedStator("job").setClock(clock)
+                .setDefaultCountDelta(5).setDefaultTimeInterval(Long.MAX_VALUE);
+        try (TraceEventWriter trace = TraceEventWriter.open(file, 1024, clock)) {
+            speedStator.addMomentSink(trace);
+            StopWatch stopWatch = new StopWatch("main").setClock(clock).setNested(true).setTraceWriter(trace);
+            clock.advanceMillis(1);
+            stopWatch.startSpan("load");
+            clock.advanceMillis(2);
+            stopWatch.startSpan("parse");
+            clock.advanceMillis(3);
+            stopWatch.stopSpan();
+            clock.advanceMillis(4);
+            stopWatch.stopSpan();
+            speedStator.count(4);
+            speedStator.log();
+            speedStator.removeMomentSink(trace);
+        }
+
+        JSONArray events = JSON.parseArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        int checked = 0;
+        for (int i = 0; i < events.size(); i++) {
+            JSONObject e = events.getJSONObject(i);
+            if ("parse".equals(e.getString("name"))) {
+                Assert.assertEquals(3000, e.getDoubleValue("ts"), 0);
+                Assert.assertEquals(3000, e.getDoubleValue("dur"), 0);
+                checked++;
+            } else if ("load".equals(e.getString("name"))) {
+                Assert.assertEquals(1000, e.getDoubleValue("ts"), 0);
+                Assert.assertEquals(9000, e.getDoubleValue("dur"), 0);
+                checked++;
+            } else if ("job".equals(e.getString("name"))) {
+                Assert.assertEquals(10_000, e.getDoubleValue("ts"), 0);
+                checked++;
+            }
+        }
+        Assert.assertEquals(3, checked);
+        speedStator.stop();
+
+        // writer 用系统时钟, 任务在 1ms 前开始, 落在 writer 打开时附近
+        file = folder.getRoot().toPath().resolve("system.trace.json");
+        try (TraceEventWriter trace = TraceEventWriter.open(file)) {
+            StopWatch stopWatch = new StopWatch("main").setClock(clock).setTraceWriter(trace);
+            stopWatch.start("task");
+            clock.advanceMillis(1);
+            stopWatch.stop();
+        }
+        events = JSON.parseArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        JSONObject task = events.getJSONObject(events.size() - 1);
+        Assert.assertEquals("task", task.getString("name"));
+        Assert.assertEquals(1000, task.getDoubleValue("dur"), 0);
+        Assert.assertTrue(task.toString(), task.getDoubleValue("ts") + 1000 >= 0);
+        Assert.assertTrue(task.toString(), task.getDoubleValue("ts") < 60_000_000);
+    }
+
+    @Test
+    public void dropWhenQueueFull() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("small.trace.json");
+        TraceEventWriter trace = TraceEventWriter.open(file, 1);
+        for (int i = 0; i < 10000; i++) {
+            trace.complete("c", "t" + i, System.nanoTime(), 1, "main", null, null);
+        }
+        trace.close();
+        JSONArray events = JSON.parseArray(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        // 写进去的 + 丢弃的 = 全部, 另有一个线程名元数据事件
+        Assert.assertEquals(10000, events.size() - 1 + trace.getDropped());
+    }
+}